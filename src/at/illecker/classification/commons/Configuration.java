@@ -35,6 +35,7 @@ public class Configuration {
   private static final Logger LOG = LoggerFactory
       .getLogger(Configuration.class);
   public static final String SERIAL_EXTENSION = ".ser";
+  public static final String CACHE_EXTENSION = ".csr";
 
   public static final boolean RUNNING_WITHIN_JAR = Configuration.class
       .getResource("Configuration.class").toString().startsWith("jar:");
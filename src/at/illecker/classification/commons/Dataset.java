@@ -18,27 +18,41 @@ package at.illecker.classification.commons;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import libsvm.svm_parameter;
+import libsvm.svm_problem;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import at.illecker.classification.io.ColumnarCache;
+import at.illecker.classification.io.FeatureStore;
 import at.illecker.classification.io.FileUtils;
-import at.illecker.classification.io.IOUtils;
-import at.illecker.classification.io.SerializationUtils;
+import at.illecker.classification.io.RowDecoder;
+import at.illecker.classification.svm.FeatureMap;
+import at.illecker.classification.svm.LinearTrainer;
+import at.illecker.classification.svm.ProbabilityCalibration;
 import at.illecker.classification.svm.SVM;
 
 public class Dataset implements Serializable {
   private static final long serialVersionUID = -3515203143574868606L;
   private static final Logger LOG = LoggerFactory.getLogger(Dataset.class);
+  // datasets up to this dimension are stored densely by default
+  public static final int MAX_AUTO_DENSE_DIMENSION = 1024;
 
   private String m_datasetPath;
   private String m_trainDataFile;
   private String m_testDataFile;
+  // new train rows of an existing model, null if none
+  private String m_incrementalDataFile = null;
 
   private boolean m_skipFirstLine;
   private String m_delimiter;
@@ -48,11 +62,45 @@ public class Dataset implements Serializable {
   private Integer m_actualClassOffset;
   private int m_featureVectorStartIdx;
   private int m_featureVectorEndIdx;
+  private boolean m_parallelIngestion = false;
+  private boolean m_streamTestItems = false;
+  // null to detect dense mode by the dimension
+  private Boolean m_dense = null;
+  private boolean m_offHeap = false;
+  private FeatureCodec m_featureCodec = FeatureCodec.FLOAT64;
 
   private List<Item> m_trainItems;
   private List<Item> m_testItems;
+  private transient DenseMatrix m_trainMatrix;
+  private transient DenseMatrix m_testMatrix;
+  private transient FeatureStore m_trainStore;
+  private transient FeatureStore m_testStore;
+  // ids, actual classes and predictions of the test rows
+  private transient ItemTable m_testTable;
+  // memoized problem of the train rows
+  private transient svm_problem m_svmProblem;
 
   private svm_parameter m_svmParam;
+  private SVM.Engine m_svmEngine = SVM.Engine.LIBSVM;
+  private boolean m_precomputedKernel = false;
+  private LinearTrainer.Loss m_linearLoss = LinearTrainer.Loss.L2;
+  private FeatureMap.Type m_featureMapType = null;
+  private int m_featureMapDimension = 1000;
+  // threads of the native training engines, null for all cores
+  private Integer m_trainingThreads = null;
+  // MB of the shared kernel rows, null for a quarter of the heap
+  private Integer m_kernelCacheSize = null;
+  // calibration of probability estimates
+  private ProbabilityCalibration.Method m_calibration =
+      ProbabilityCalibration.Method.INTERNAL;
+  private double m_holdoutFraction =
+      ProbabilityCalibration.DEFAULT_HOLDOUT_FRACTION;
+  // shards of a cascade training, null to train all rows at once
+  private Integer m_cascadeShards = null;
+  private int m_cascadeFeedback = 1;
+
+  private transient RowDecoder m_trainRowDecoder;
+  private transient RowDecoder m_testRowDecoder;
 
   public Dataset(String datasetPath, String trainDataFile, String testDataFile,
       boolean skipFirstLine, String delimiter, int idIndex,
@@ -83,9 +131,9 @@ public class Dataset implements Serializable {
         + m_trainDataFile : null;
   }
 
-  public String getTrainDataSerializationFile() {
+  public String getTrainDataCacheFile() {
     return (m_trainDataFile != null) ? m_datasetPath + File.separator
-        + m_trainDataFile + Configuration.SERIAL_EXTENSION : null;
+        + m_trainDataFile + Configuration.CACHE_EXTENSION : null;
   }
 
   public String getTestDataFile() {
@@ -93,9 +141,18 @@ public class Dataset implements Serializable {
         + m_testDataFile : null;
   }
 
-  public String getTestDataSerializationFile() {
+  public String getIncrementalDataFile() {
+    return (m_incrementalDataFile != null) ? m_datasetPath + File.separator
+        + m_incrementalDataFile : null;
+  }
+
+  public void setIncrementalDataFile(String incrementalDataFile) {
+    this.m_incrementalDataFile = incrementalDataFile;
+  }
+
+  public String getTestDataCacheFile() {
     return (m_testDataFile != null) ? m_datasetPath + File.separator
-        + m_testDataFile + Configuration.SERIAL_EXTENSION : null;
+        + m_testDataFile + Configuration.CACHE_EXTENSION : null;
   }
 
   public boolean skipFirstLine() {
@@ -130,53 +187,476 @@ public class Dataset implements Serializable {
     return m_featureVectorEndIdx;
   }
 
+  public int getDimension() {
+    return m_featureVectorEndIdx - m_featureVectorStartIdx + 1;
+  }
+
+  /**
+   * Returns true if rows should be stored in a dense matrix, either as
+   * configured or if the dimension is at most MAX_AUTO_DENSE_DIMENSION.
+   */
+  public boolean isDense() {
+    if (m_dense != null) {
+      return m_dense;
+    }
+    return getDimension() <= MAX_AUTO_DENSE_DIMENSION;
+  }
+
+  public void setDense(Boolean dense) {
+    this.m_dense = dense;
+    invalidateSVMProblem();
+  }
+
+  /**
+   * Returns true if rows are kept in memory-mapped feature stores instead of
+   * the heap.
+   */
+  public boolean isOffHeap() {
+    return m_offHeap;
+  }
+
+  public void setOffHeap(boolean offHeap) {
+    this.m_offHeap = offHeap;
+    invalidateSVMProblem();
+  }
+
+  /**
+   * Returns the storage precision of feature values, which is applied when
+   * rows are parsed and cached.
+   */
+  public FeatureCodec getFeatureCodec() {
+    return m_featureCodec;
+  }
+
+  public void setFeatureCodec(FeatureCodec featureCodec) {
+    this.m_featureCodec = featureCodec;
+    m_trainRowDecoder = null;
+    m_testRowDecoder = null;
+    invalidateSVMProblem();
+  }
+
+  public boolean isParallelIngestion() {
+    return m_parallelIngestion;
+  }
+
+  public void setParallelIngestion(boolean parallelIngestion) {
+    this.m_parallelIngestion = parallelIngestion;
+  }
+
+  /**
+   * Returns true if test items are streamed instead of loaded, which is
+   * always the case for off-heap datasets.
+   */
+  public boolean isStreamTestItems() {
+    return m_streamTestItems || m_offHeap;
+  }
+
+  public void setStreamTestItems(boolean streamTestItems) {
+    this.m_streamTestItems = streamTestItems;
+  }
+
+  /**
+   * Returns the row decoder compiled from the column schema of this dataset.
+   */
+  public RowDecoder getRowDecoder(boolean readActualClass) {
+    if (readActualClass) {
+      if (m_trainRowDecoder == null) {
+        m_trainRowDecoder = new RowDecoder(this, true);
+      }
+      return m_trainRowDecoder;
+    }
+    if (m_testRowDecoder == null) {
+      m_testRowDecoder = new RowDecoder(this, false);
+    }
+    return m_testRowDecoder;
+  }
+
   public svm_parameter getSVMParam() {
     return m_svmParam;
   }
 
+  public SVM.Engine getSVMEngine() {
+    return m_svmEngine;
+  }
+
+  public void setSVMEngine(SVM.Engine svmEngine) {
+    this.m_svmEngine = svmEngine;
+  }
+
+  /**
+   * Returns true if the kernel matrix of the train rows is computed before
+   * training.
+   */
+  public boolean isPrecomputedKernel() {
+    return m_precomputedKernel;
+  }
+
+  public void setPrecomputedKernel(boolean precomputedKernel) {
+    this.m_precomputedKernel = precomputedKernel;
+  }
+
+  /**
+   * Returns the loss of linear C-SVC problems, which are trained by the
+   * {@link LinearTrainer}.
+   */
+  public LinearTrainer.Loss getLinearLoss() {
+    return m_linearLoss;
+  }
+
+  public void setLinearLoss(LinearTrainer.Loss linearLoss) {
+    this.m_linearLoss = linearLoss;
+  }
+
+  /**
+   * Returns the type of the feature map, which approximates the kernel by a
+   * linear model of the mapped rows, or null if the kernel is exact.
+   */
+  public FeatureMap.Type getFeatureMapType() {
+    return m_featureMapType;
+  }
+
+  public void setFeatureMapType(FeatureMap.Type featureMapType) {
+    this.m_featureMapType = featureMapType;
+  }
+
+  public int getFeatureMapDimension() {
+    return m_featureMapDimension;
+  }
+
+  public void setFeatureMapDimension(int featureMapDimension) {
+    this.m_featureMapDimension = featureMapDimension;
+  }
+
+  public Integer getTrainingThreads() {
+    return m_trainingThreads;
+  }
+
+  public void setTrainingThreads(Integer trainingThreads) {
+    this.m_trainingThreads = trainingThreads;
+  }
+
+  /**
+   * Returns the MB of the kernel rows shared between the trainings of the
+   * SMO engine, or null for a quarter of the heap.
+   */
+  public Integer getKernelCacheSize() {
+    return m_kernelCacheSize;
+  }
+
+  public void setKernelCacheSize(Integer kernelCacheSize) {
+    this.m_kernelCacheSize = kernelCacheSize;
+  }
+
+  public ProbabilityCalibration.Method getCalibration() {
+    return m_calibration;
+  }
+
+  public void setCalibration(ProbabilityCalibration.Method calibration) {
+    this.m_calibration = calibration;
+  }
+
+  public double getHoldoutFraction() {
+    return m_holdoutFraction;
+  }
+
+  public void setHoldoutFraction(double holdoutFraction) {
+    this.m_holdoutFraction = holdoutFraction;
+  }
+
+  public Integer getCascadeShards() {
+    return m_cascadeShards;
+  }
+
+  public void setCascadeShards(Integer cascadeShards) {
+    this.m_cascadeShards = cascadeShards;
+  }
+
+  public int getCascadeFeedback() {
+    return m_cascadeFeedback;
+  }
+
+  public void setCascadeFeedback(int cascadeFeedback) {
+    this.m_cascadeFeedback = cascadeFeedback;
+  }
+
+  /**
+   * Returns the problem of the train rows, which is generated once and
+   * shared by all training, cross validation and parameter search calls.
+   * The problem must not be modified.
+   */
+  public synchronized svm_problem getSVMProblem() {
+    if (m_svmProblem == null) {
+      m_svmProblem = SVM.generateProblem(this);
+    }
+    return m_svmProblem;
+  }
+
+  public synchronized void invalidateSVMProblem() {
+    m_svmProblem = null;
+  }
+
   public List<Item> getTrainItems() {
     if ((m_trainItems == null) && (getTrainDataFile() != null)) {
-      // Try deserialization of file
-      String serializationFile = getTrainDataSerializationFile();
-      if (IOUtils.exists(serializationFile)) {
-        LOG.info("Deserialize TrainItems from: " + serializationFile);
-        m_trainItems = SerializationUtils.deserialize(serializationFile);
-      } else {
-        LOG.info("Read TrainItems from: " + getTrainDataFile());
-        m_trainItems = FileUtils.readItems(getTrainDataFile(), this, true);
-      }
+      m_trainItems = readItems(getTrainDataFile(), getTrainDataCacheFile(),
+          true);
     }
     return m_trainItems;
   }
 
+  /**
+   * Returns the new train rows of the incremental data file, which are not
+   * kept by the dataset.
+   */
+  public List<Item> getIncrementalItems() {
+    if (getIncrementalDataFile() == null) {
+      return null;
+    }
+    return readItems(getIncrementalDataFile(), getIncrementalDataFile()
+        + Configuration.CACHE_EXTENSION, true);
+  }
+
   public List<Item> getTestItems() {
     if ((m_testItems == null) && (getTestDataFile() != null)) {
-      // Try deserialization of file
-      String serializationFile = getTestDataSerializationFile();
-      if (IOUtils.exists(serializationFile)) {
-        LOG.info("Deserialize TestItems from: " + serializationFile);
-        m_testItems = SerializationUtils.deserialize(serializationFile);
-      } else {
-        LOG.info("Read TestItems from: " + getTestDataFile());
-        m_testItems = FileUtils.readItems(getTestDataFile(), this, false);
-      }
+      m_testItems = readItems(getTestDataFile(), getTestDataCacheFile(), false);
     }
     return m_testItems;
   }
 
+  /**
+   * Returns all train rows in a dense matrix. Rows are decoded directly into
+   * the matrix unless the items are already loaded or cached.
+   */
+  public DenseMatrix getTrainMatrix() {
+    if ((m_trainMatrix == null) && (getTrainDataFile() != null)) {
+      m_trainMatrix = readMatrix(getTrainDataFile(), getTrainDataCacheFile(),
+          m_trainItems, true);
+    }
+    return m_trainMatrix;
+  }
+
+  public DenseMatrix getTestMatrix() {
+    if ((m_testMatrix == null) && (getTestDataFile() != null)) {
+      m_testMatrix = readMatrix(getTestDataFile(), getTestDataCacheFile(),
+          m_testItems, false);
+    }
+    return m_testMatrix;
+  }
+
+  private DenseMatrix readMatrix(String dataFile, String cacheFile,
+      List<Item> items, boolean readActualClass) {
+    if ((items == null) && (isCacheValid(dataFile, cacheFile))) {
+      LOG.info("Map Items from cache: " + cacheFile);
+      items = ColumnarCache.read(cacheFile, m_featureCodec);
+    }
+    if (items != null) {
+      return DenseMatrix.fromItems(items, m_featureVectorStartIdx,
+          getDimension(), m_featureCodec);
+    }
+    LOG.info("Read DenseMatrix from: " + dataFile);
+    DenseMatrix matrix = FileUtils.readMatrix(dataFile, this,
+        readActualClass);
+    // the next run maps the cache instead of parsing the data file
+    if ((matrix != null) && (new File(dataFile).isFile())) {
+      LOG.info("Write cache: " + cacheFile);
+      FeatureStore.write(matrix.itemIterator(), cacheFile, m_featureCodec);
+    }
+    return matrix;
+  }
+
+  /**
+   * Returns the off-heap store of the train rows. The store file is written
+   * from a stream of the data file if it is missing or outdated.
+   */
+  public FeatureStore getTrainStore() {
+    if ((m_trainStore == null) && (getTrainDataFile() != null)) {
+      m_trainStore = openStore(getTrainDataFile(), getTrainDataCacheFile(),
+          true);
+    }
+    return m_trainStore;
+  }
+
+  public FeatureStore getTestStore() {
+    if ((m_testStore == null) && (getTestDataFile() != null)) {
+      m_testStore = openStore(getTestDataFile(), getTestDataCacheFile(),
+          false);
+    }
+    return m_testStore;
+  }
+
+  private FeatureStore openStore(String dataFile, String cacheFile,
+      boolean readActualClass) {
+    FeatureStore store = null;
+    if (isCacheValid(dataFile, cacheFile)) {
+      LOG.info("Map FeatureStore: " + cacheFile);
+      store = FeatureStore.open(cacheFile);
+    }
+    if ((store == null) || (!m_featureCodec.equals(store.getCodec()))) {
+      LOG.info("Write FeatureStore from: " + dataFile);
+      if (!FeatureStore.write(
+          FileUtils.iterator(dataFile, this, readActualClass), cacheFile,
+          m_featureCodec)) {
+        return null;
+      }
+      store = FeatureStore.open(cacheFile);
+    }
+    return store;
+  }
+
+  private List<Item> readItems(String dataFile, String cacheFile,
+      boolean readActualClass) {
+    List<Item> items = null;
+    // Try memory-mapping of the columnar cache
+    if (isCacheValid(dataFile, cacheFile)) {
+      LOG.info("Map Items from cache: " + cacheFile);
+      items = ColumnarCache.read(cacheFile, m_featureCodec);
+    }
+    if (items == null) {
+      LOG.info("Read Items from: " + dataFile);
+      items = FileUtils.readItems(dataFile, this, readActualClass);
+      if ((items != null) && (new File(dataFile).isFile())) {
+        ColumnarCache.write(items, cacheFile, m_featureCodec);
+      }
+    }
+    return items;
+  }
+
+  /**
+   * Returns a view of the cached items which creates every item on access
+   * and does not retain it, or null if the cache is missing or outdated.
+   */
+  private List<Item> mapCachedItems(String dataFile, String cacheFile) {
+    if (!isCacheValid(dataFile, cacheFile)) {
+      return null;
+    }
+    FeatureStore store = FeatureStore.open(cacheFile);
+    if ((store == null) || (!m_featureCodec.equals(store.getCodec()))) {
+      return null;
+    }
+    LOG.info("Stream Items from cache: " + cacheFile);
+    return store.asItemList();
+  }
+
+  private static boolean isCacheValid(String dataFile, String cacheFile) {
+    File cache = new File(cacheFile);
+    File data = new File(dataFile);
+    return (cache.isFile())
+        && ((!data.exists()) || (cache.lastModified() >= data.lastModified()));
+  }
+
+  /**
+   * Returns a lazily parsed source of train items unless they are already
+   * loaded or cached.
+   */
+  public Spliterator<Item> getTrainItemSpliterator() {
+    if ((m_offHeap) && (m_trainItems == null)) {
+      FeatureStore store = getTrainStore();
+      if (store != null) {
+        return store.asItemList().spliterator();
+      }
+      LOG.error("FeatureStore of TrainItems is not available");
+    }
+    if (m_trainItems != null) {
+      return m_trainItems.spliterator();
+    }
+    List<Item> cachedItems = mapCachedItems(getTrainDataFile(),
+        getTrainDataCacheFile());
+    if (cachedItems != null) {
+      return cachedItems.spliterator();
+    }
+    LOG.info("Stream TrainItems from: " + getTrainDataFile());
+    return FileUtils.spliterator(getTrainDataFile(), this, true);
+  }
+
+  /**
+   * Returns a lazily parsed source of test items unless they are already
+   * loaded or cached.
+   */
+  public Spliterator<Item> getTestItemSpliterator() {
+    if ((m_offHeap) && (m_testItems == null)) {
+      FeatureStore store = getTestStore();
+      if (store != null) {
+        return store.asItemList().spliterator();
+      }
+      LOG.error("FeatureStore of TestItems is not available");
+    }
+    if (m_testItems != null) {
+      return m_testItems.spliterator();
+    }
+    List<Item> cachedItems = mapCachedItems(getTestDataFile(),
+        getTestDataCacheFile());
+    if (cachedItems != null) {
+      return cachedItems.spliterator();
+    }
+    LOG.info("Stream TestItems from: " + getTestDataFile());
+    return FileUtils.spliterator(getTestDataFile(), this, false);
+  }
+
+  public Iterator<Item> getTestItemIterator() {
+    return Spliterators.iterator(getTestItemSpliterator());
+  }
+
+  public Stream<Item> streamTestItems(boolean parallel) {
+    return StreamSupport.stream(getTestItemSpliterator(), parallel);
+  }
+
+  public void setTrainItems(List<Item> trainItems) {
+    m_trainItems = trainItems;
+    m_trainMatrix = null;
+    invalidateSVMProblem();
+  }
+
   public void setTestItems(List<Item> testItems) {
     m_testItems = testItems;
+    m_testTable = null;
+  }
+
+  /**
+   * Returns the table of test rows, which holds their predictions once they
+   * are evaluated. The table is created from the loaded test rows.
+   */
+  public ItemTable getTestTable() {
+    if ((m_testTable == null) && (getTestDataFile() != null)) {
+      if (m_offHeap) {
+        FeatureStore store = getTestStore();
+        if (store == null) {
+          LOG.error("FeatureStore of TestItems is not available");
+          return null;
+        }
+        m_testTable = ItemTable.fromStore(store);
+      } else if (isDense()) {
+        m_testTable = ItemTable.fromMatrix(getTestMatrix());
+      } else {
+        m_testTable = ItemTable.fromItems(getTestItems());
+      }
+    }
+    return m_testTable;
+  }
+
+  public void setTestTable(ItemTable testTable) {
+    m_testTable = testTable;
   }
 
   public void printDatasetStats() {
     LOG.info("Dataset: " + getDatasetPath());
 
     LOG.info("Train Items: " + getTrainDataFile());
-    printTweetStats(getTrainItems());
+    if (m_offHeap) {
+      printTweetStats(getTrainStore());
+    } else if (isDense()) {
+      printTweetStats(getTrainMatrix());
+    } else {
+      printTweetStats(getTrainItems());
+    }
 
     LOG.info("Test Items: " + getTestDataFile());
     // Load test items
-    getTestItems();
+    if (!isStreamTestItems()) {
+      if (isDense()) {
+        getTestMatrix();
+      } else {
+        getTestItems();
+      }
+    }
   }
 
   public static void printTweetStats(List<Item> items) {
@@ -187,34 +667,73 @@ public class Dataset implements Serializable {
         Integer count = counts.get(key);
         counts.put(key, ((count != null) ? count + 1 : 1));
       }
+      printClassCounts(counts);
+    }
+  }
 
-      int total = 0;
-      int max = 0;
-      for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
-        LOG.info("Class: \t" + entry.getKey() + "\t" + entry.getValue());
-        total += entry.getValue();
-        if (entry.getValue() > max) {
-          max = entry.getValue();
-        }
+  public static void printTweetStats(DenseMatrix matrix) {
+    if (matrix != null) {
+      Map<Integer, Integer> counts = new TreeMap<Integer, Integer>();
+      for (int row = 0; row < matrix.getRows(); row++) {
+        int key = matrix.getActualClass(row);
+        Integer count = counts.get(key);
+        counts.put(key, ((count != null) ? count + 1 : 1));
       }
-      LOG.info("Total: " + total);
+      printClassCounts(counts);
+    }
+  }
 
-      LOG.info("Optimal Class Weights: ");
-      for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
-        LOG.info("Class: \t" + entry.getKey() + "\t"
-            + (max / (double) entry.getValue()));
+  public static void printTweetStats(FeatureStore store) {
+    if (store != null) {
+      Map<Integer, Integer> counts = new TreeMap<Integer, Integer>();
+      for (int row = 0; row < store.getRows(); row++) {
+        int key = store.getActualClass(row);
+        Integer count = counts.get(key);
+        counts.put(key, ((count != null) ? count + 1 : 1));
+      }
+      printClassCounts(counts);
+    }
+  }
+
+  private static void printClassCounts(Map<Integer, Integer> counts) {
+    int total = 0;
+    int max = 0;
+    for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+      LOG.info("Class: \t" + entry.getKey() + "\t" + entry.getValue());
+      total += entry.getValue();
+      if (entry.getValue() > max) {
+        max = entry.getValue();
       }
     }
+    LOG.info("Total: " + total);
+
+    LOG.info("Optimal Class Weights: ");
+    for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+      LOG.info("Class: \t" + entry.getKey() + "\t"
+          + (max / (double) entry.getValue()));
+    }
   }
 
   @Override
   public String toString() {
     return "Dataset [datasetPath=" + m_datasetPath + ", trainDataFile="
-        + m_trainDataFile + ", testDataFile=" + m_testDataFile + ", delimiter="
+        + m_trainDataFile + ", testDataFile=" + m_testDataFile
+        + ", incrementalDataFile=" + m_incrementalDataFile + ", delimiter="
         + m_delimiter + ", idIndex=" + m_idIndex + ", actualClassIndex="
         + m_actualClassIndex + ", actualClassRegex=" + m_actualClassRegex
         + ", featureVectorStartIdx=" + m_featureVectorStartIdx
-        + ", featureVectorEndIdx=" + m_featureVectorEndIdx + "]";
+        + ", featureVectorEndIdx=" + m_featureVectorEndIdx
+        + ", parallelIngestion=" + m_parallelIngestion
+        + ", streamTestItems=" + m_streamTestItems + ", dense=" + isDense()
+        + ", offHeap=" + m_offHeap + ", featureCodec=" + m_featureCodec
+        + ", svmEngine=" + m_svmEngine + ", precomputedKernel="
+        + m_precomputedKernel + ", linearLoss=" + m_linearLoss
+        + ", featureMapType=" + m_featureMapType + ", featureMapDimension="
+        + m_featureMapDimension + ", trainingThreads=" + m_trainingThreads
+        + ", kernelCacheSize=" + m_kernelCacheSize + ", calibration="
+        + m_calibration + ", holdoutFraction=" + m_holdoutFraction
+        + ", cascadeShards=" + m_cascadeShards + ", cascadeFeedback="
+        + m_cascadeFeedback + "]";
   }
 
   @SuppressWarnings({ "rawtypes", "unchecked" })
@@ -247,7 +766,7 @@ public class Dataset implements Serializable {
       }
     }
 
-    return new Dataset((String) dataset.get("path"),
+    Dataset ret = new Dataset((String) dataset.get("path"),
         (String) dataset.get("train.file"), (String) dataset.get("test.file"),
         (Boolean) dataset.get("skipFirstLine"),
         (String) dataset.get("delimiter"), (Integer) dataset.get("id.index"),
@@ -256,6 +775,92 @@ public class Dataset implements Serializable {
         (Integer) dataset.get("actualClass.offset"),
         (Integer) dataset.get("featureVectorStart.index"),
         (Integer) dataset.get("featureVectorEnd.index"), svmParam);
+
+    if (dataset.get("train.incremental.file") != null) {
+      ret.setIncrementalDataFile((String) dataset
+          .get("train.incremental.file"));
+    }
+
+    if (dataset.get("svm.engine") != null) {
+      ret.setSVMEngine(SVM.Engine.parse((String) dataset.get("svm.engine")));
+    }
+
+    if (dataset.get("svm.precomputed") != null) {
+      ret.setPrecomputedKernel((Boolean) dataset.get("svm.precomputed"));
+    }
+
+    if (dataset.get("svm.linear.loss") != null) {
+      ret.setLinearLoss(LinearTrainer.Loss.parse((String) dataset
+          .get("svm.linear.loss")));
+    }
+
+    if (dataset.get("svm.featureMap") != null) {
+      ret.setFeatureMapType(FeatureMap.Type.parse((String) dataset
+          .get("svm.featureMap")));
+    }
+
+    if (dataset.get("svm.featureMap.dimension") != null) {
+      ret.setFeatureMapDimension((Integer) dataset
+          .get("svm.featureMap.dimension"));
+    }
+
+    if (dataset.get("svm.threads") != null) {
+      ret.setTrainingThreads((Integer) dataset.get("svm.threads"));
+    }
+
+    if (dataset.get("svm.kernelCache") != null) {
+      ret.setKernelCacheSize((Integer) dataset.get("svm.kernelCache"));
+    }
+
+    if (dataset.get("svm.calibration") != null) {
+      ret.setCalibration(ProbabilityCalibration.Method.parse((String) dataset
+          .get("svm.calibration")));
+    }
+
+    if (dataset.get("svm.calibration.holdout") != null) {
+      ret.setHoldoutFraction(((Number) dataset.get("svm.calibration.holdout"))
+          .doubleValue());
+    }
+
+    if (dataset.get("svm.cascade.shards") != null) {
+      ret.setCascadeShards((Integer) dataset.get("svm.cascade.shards"));
+    }
+
+    if (dataset.get("svm.cascade.feedback") != null) {
+      ret.setCascadeFeedback((Integer) dataset.get("svm.cascade.feedback"));
+    }
+
+    if (dataset.get("ingestion.parallel") != null) {
+      ret.setParallelIngestion((Boolean) dataset.get("ingestion.parallel"));
+    }
+
+    if (dataset.get("ingestion.streaming") != null) {
+      ret.setStreamTestItems((Boolean) dataset.get("ingestion.streaming"));
+    }
+
+    if (dataset.get("featureVector.dense") != null) {
+      ret.setDense((Boolean) dataset.get("featureVector.dense"));
+    }
+
+    if (dataset.get("featureStore.offHeap") != null) {
+      ret.setOffHeap((Boolean) dataset.get("featureStore.offHeap"));
+    }
+
+    if (dataset.get("featureVector.precision") != null) {
+      double scale = 1;
+      if (dataset.get("featureVector.scale") != null) {
+        scale = ((Number) dataset.get("featureVector.scale")).doubleValue();
+      }
+      double offset = 0;
+      if (dataset.get("featureVector.offset") != null) {
+        offset = ((Number) dataset.get("featureVector.offset")).doubleValue();
+      }
+      ret.setFeatureCodec(new FeatureCodec(FeatureCodec.Precision
+          .parse((String) dataset.get("featureVector.precision")), scale,
+          offset));
+    }
+
+    return ret;
   }
 
   public static void main(String[] args) {
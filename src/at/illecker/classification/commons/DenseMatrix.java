@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.commons;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Rows of a fixed-width dataset stored in one contiguous row-major array.
+ * Column c of a row holds the feature index firstIndex + c and each row
+ * starts at row * dimension. Values are held in the precision of a
+ * {@link FeatureCodec}. Ids and actual classes are stored in parallel
+ * arrays.
+ */
+public class DenseMatrix {
+  // sentinels of missing ids and labels
+  public static final long NULL_ID = Long.MIN_VALUE;
+  public static final int NULL_LABEL = Integer.MIN_VALUE;
+
+  private int m_rows;
+  private final int m_dimension;
+  private final int m_firstIndex;
+  private FeatureValues m_values;
+  private long[] m_ids;
+  private int[] m_labels;
+
+  public DenseMatrix(int rows, int dimension, int firstIndex) {
+    this(rows, dimension, firstIndex, FeatureCodec.FLOAT64);
+  }
+
+  public DenseMatrix(int rows, int dimension, int firstIndex,
+      FeatureCodec codec) {
+    if ((long) rows * dimension > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Matrix of " + rows + " x "
+          + dimension + " exceeds the maximum array size");
+    }
+    m_rows = rows;
+    m_dimension = dimension;
+    m_firstIndex = firstIndex;
+    m_values = FeatureValues.allocate(codec, rows * dimension);
+    m_ids = new long[rows];
+    m_labels = new int[rows];
+    Arrays.fill(m_ids, NULL_ID);
+    Arrays.fill(m_labels, NULL_LABEL);
+  }
+
+  public static DenseMatrix fromItems(List<Item> items, int firstIndex,
+      int dimension) {
+    return fromItems(items, firstIndex, dimension, FeatureCodec.FLOAT64);
+  }
+
+  public static DenseMatrix fromItems(List<Item> items, int firstIndex,
+      int dimension, FeatureCodec codec) {
+    DenseMatrix matrix = new DenseMatrix(items.size(), dimension, firstIndex,
+        codec);
+    int row = 0;
+    for (Item item : items) {
+      int[] indices = item.getFeatureIndices();
+      SparseVector values = item.getFeatureVector();
+      int offset = row * dimension;
+      for (int i = 0; i < indices.length; i++) {
+        int column = indices[i] - firstIndex;
+        if ((column < 0) || (column >= dimension)) {
+          throw new IllegalArgumentException("Feature index " + indices[i]
+              + " of row " + row + " is out of range");
+        }
+        matrix.m_values.set(offset + column, values.getValue(i));
+      }
+      matrix.setId(row, item.getId());
+      matrix.setActualClass(row, item.getActualClass());
+      row++;
+    }
+    return matrix;
+  }
+
+  public int getRows() {
+    return m_rows;
+  }
+
+  public int getDimension() {
+    return m_dimension;
+  }
+
+  public int getFirstIndex() {
+    return m_firstIndex;
+  }
+
+  public FeatureCodec getCodec() {
+    return m_values.getCodec();
+  }
+
+  /**
+   * Returns the value at position i of the row-major array.
+   */
+  public double getValue(int i) {
+    return m_values.get(i);
+  }
+
+  public void setValue(int i, double value) {
+    m_values.set(i, value);
+  }
+
+  public int getOffset(int row) {
+    return row * m_dimension;
+  }
+
+  public double get(int row, int column) {
+    return m_values.get(row * m_dimension + column);
+  }
+
+  public Long getId(int row) {
+    return (m_ids[row] != NULL_ID) ? m_ids[row] : null;
+  }
+
+  public void setId(int row, Long id) {
+    m_ids[row] = (id != null) ? id : NULL_ID;
+  }
+
+  public Integer getActualClass(int row) {
+    return (m_labels[row] != NULL_LABEL) ? m_labels[row] : null;
+  }
+
+  public void setActualClass(int row, Integer actualClass) {
+    m_labels[row] = (actualClass != null) ? actualClass : NULL_LABEL;
+  }
+
+  /**
+   * Returns the non-zero features of the row.
+   */
+  public SparseVector getFeatureVector(int row) {
+    int offset = row * m_dimension;
+    int nnz = 0;
+    for (int i = offset; i < offset + m_dimension; i++) {
+      if (m_values.get(i) != 0) {
+        nnz++;
+      }
+    }
+    int[] indices = new int[nnz];
+    FeatureValues values = FeatureValues.allocate(m_values.getCodec(), nnz);
+    int j = 0;
+    for (int i = 0; i < m_dimension; i++) {
+      double value = m_values.get(offset + i);
+      if (value != 0) {
+        indices[j] = m_firstIndex + i;
+        values.set(j, value);
+        j++;
+      }
+    }
+    return new SparseVector(indices, values);
+  }
+
+  public Item getItem(int row) {
+    return new Item(getId(row), getFeatureVector(row), getActualClass(row));
+  }
+
+  /**
+   * Returns an iterator which creates the item of every row on access.
+   */
+  public Iterator<Item> itemIterator() {
+    return new Iterator<Item>() {
+      private int m_row = 0;
+
+      @Override
+      public boolean hasNext() {
+        return m_row < m_rows;
+      }
+
+      @Override
+      public Item next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return getItem(m_row++);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Moves the rows [from, from + count) to [to, to + count) with to <= from.
+   */
+  public void moveRows(int from, int to, int count) {
+    m_values.copy(from * m_dimension, m_values, to * m_dimension,
+        count * m_dimension);
+    System.arraycopy(m_ids, from, m_ids, to, count);
+    System.arraycopy(m_labels, from, m_labels, to, count);
+  }
+
+  /**
+   * Drops all rows after the first rows.
+   */
+  public void truncate(int rows) {
+    if (rows < m_rows) {
+      m_rows = rows;
+      m_values = m_values.copyOf(rows * m_dimension);
+      m_ids = Arrays.copyOf(m_ids, rows);
+      m_labels = Arrays.copyOf(m_labels, rows);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "DenseMatrix [rows=" + m_rows + ", dimension=" + m_dimension
+        + ", firstIndex=" + m_firstIndex + "]";
+  }
+
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.commons;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Storage precision of feature values. Values are stored as float64,
+ * float32 or as unsigned 16 or 8 bit levels, which decode to the float
+ * nearest to offset + scale * level by a lookup table, so that every
+ * precision but float64 can be held in float arrays without loss.
+ */
+public class FeatureCodec implements Serializable {
+  private static final long serialVersionUID = 4206183752431716914L;
+
+  public enum Precision {
+    FLOAT64(8), FLOAT32(4), UINT16(2), UINT8(1);
+
+    private final int m_bytes;
+
+    private Precision(int bytes) {
+      m_bytes = bytes;
+    }
+
+    public int getBytes() {
+      return m_bytes;
+    }
+
+    public static Precision parse(String precision) {
+      return valueOf(precision.trim().toUpperCase());
+    }
+  }
+
+  public static final FeatureCodec FLOAT64 = new FeatureCodec(
+      Precision.FLOAT64, 1, 0);
+
+  private final Precision m_precision;
+  private final double m_scale;
+  private final double m_offset;
+  private final int m_maxLevel;
+  // decoded value of every level of unsigned precisions
+  private final double[] m_table;
+
+  public FeatureCodec(Precision precision, double scale, double offset) {
+    if ((scale <= 0) || (Double.isInfinite(scale)) || (Double.isNaN(scale))) {
+      throw new IllegalArgumentException("scale: " + scale);
+    }
+    m_precision = precision;
+    m_scale = scale;
+    m_offset = offset;
+    if (precision == Precision.UINT16) {
+      m_maxLevel = 0xFFFF;
+    } else if (precision == Precision.UINT8) {
+      m_maxLevel = 0xFF;
+    } else {
+      m_maxLevel = 0;
+    }
+    if (m_maxLevel > 0) {
+      m_table = new double[m_maxLevel + 1];
+      for (int i = 0; i <= m_maxLevel; i++) {
+        m_table[i] = (float) (offset + scale * i);
+      }
+    } else {
+      m_table = null;
+    }
+  }
+
+  public Precision getPrecision() {
+    return m_precision;
+  }
+
+  public double getScale() {
+    return m_scale;
+  }
+
+  public double getOffset() {
+    return m_offset;
+  }
+
+  /**
+   * Returns the level of an unsigned precision nearest to the value,
+   * clamped to the range of the precision.
+   */
+  public int encode(double value) {
+    long level = Math.round((value - m_offset) / m_scale);
+    if (level < 0) {
+      return 0;
+    }
+    return (level > m_maxLevel) ? m_maxLevel : (int) level;
+  }
+
+  public double decode(int level) {
+    return m_table[level];
+  }
+
+  /**
+   * Returns the stored representation of the value.
+   */
+  public double quantize(double value) {
+    switch (m_precision) {
+      case FLOAT32:
+        return (float) value;
+      case UINT16:
+      case UINT8:
+        return m_table[encode(value)];
+      default:
+        return value;
+    }
+  }
+
+  public void put(ByteBuffer buffer, double value) {
+    switch (m_precision) {
+      case FLOAT32:
+        buffer.putFloat((float) value);
+        break;
+      case UINT16:
+        buffer.putShort((short) encode(value));
+        break;
+      case UINT8:
+        buffer.put((byte) encode(value));
+        break;
+      default:
+        buffer.putDouble(value);
+    }
+  }
+
+  public double get(ByteBuffer buffer, int pos) {
+    switch (m_precision) {
+      case FLOAT32:
+        return buffer.getFloat(pos);
+      case UINT16:
+        return m_table[buffer.getShort(pos) & 0xFFFF];
+      case UINT8:
+        return m_table[buffer.get(pos) & 0xFF];
+      default:
+        return buffer.getDouble(pos);
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof FeatureCodec)) {
+      return false;
+    }
+    FeatureCodec other = (FeatureCodec) obj;
+    if (m_precision != other.m_precision) {
+      return false;
+    }
+    // scale and offset only matter for unsigned precisions
+    return (m_table == null)
+        || ((m_scale == other.m_scale) && (m_offset == other.m_offset));
+  }
+
+  @Override
+  public int hashCode() {
+    return m_precision.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "FeatureCodec [precision=" + m_precision + ", scale=" + m_scale
+        + ", offset=" + m_offset + "]";
+  }
+
+}
@@ -0,0 +1,242 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.commons;
+
+import java.util.Arrays;
+
+/**
+ * Array of feature values in the precision of a {@link FeatureCodec}, as
+ * double, float or unsigned 16 or 8 bit levels. Values are quantized when
+ * they are set and decoded when they are read. Levels are only stored if
+ * level 0 decodes to zero, so that unset entries read as zero, otherwise
+ * the decoded levels are stored as float.
+ */
+public abstract class FeatureValues {
+  protected final FeatureCodec m_codec;
+
+  protected FeatureValues(FeatureCodec codec) {
+    m_codec = codec;
+  }
+
+  /**
+   * Returns zeros of the length in the precision of the codec.
+   */
+  public static FeatureValues allocate(FeatureCodec codec, int length) {
+    boolean zeroLevel = (codec.getOffset() == 0);
+    switch (codec.getPrecision()) {
+      case UINT16:
+        if (zeroLevel) {
+          return new ShortValues(codec, new short[length]);
+        }
+        return new FloatValues(codec, new float[length]);
+      case UINT8:
+        if (zeroLevel) {
+          return new ByteValues(codec, new byte[length]);
+        }
+        return new FloatValues(codec, new float[length]);
+      case FLOAT32:
+        return new FloatValues(codec, new float[length]);
+      default:
+        return new DoubleValues(new double[length]);
+    }
+  }
+
+  /**
+   * Wraps the float64 values without copying.
+   */
+  public static FeatureValues wrap(double[] values) {
+    return new DoubleValues(values);
+  }
+
+  /**
+   * Returns the first length values in the precision of the codec.
+   */
+  public static FeatureValues copyOf(double[] values, int length,
+      FeatureCodec codec) {
+    if (codec.getPrecision() == FeatureCodec.Precision.FLOAT64) {
+      return wrap(Arrays.copyOf(values, length));
+    }
+    FeatureValues copy = allocate(codec, length);
+    for (int i = 0; i < length; i++) {
+      copy.set(i, values[i]);
+    }
+    return copy;
+  }
+
+  public FeatureCodec getCodec() {
+    return m_codec;
+  }
+
+  public abstract int length();
+
+  public abstract double get(int i);
+
+  public abstract void set(int i, double value);
+
+  /**
+   * Copies count values from position from to position to of dest, which
+   * was allocated by the same codec. The ranges may overlap.
+   */
+  public abstract void copy(int from, FeatureValues dest, int to, int count);
+
+  /**
+   * Returns the first length values, padded with zeros.
+   */
+  public FeatureValues copyOf(int length) {
+    FeatureValues copy = allocate(m_codec, length);
+    copy(0, copy, 0, Math.min(length, length()));
+    return copy;
+  }
+
+  /**
+   * Returns the decoded values. Float64 values return their backing array,
+   * which must not be modified.
+   */
+  public double[] toDoubles() {
+    double[] values = new double[length()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = get(i);
+    }
+    return values;
+  }
+
+  private static class DoubleValues extends FeatureValues {
+    private final double[] m_values;
+
+    public DoubleValues(double[] values) {
+      super(FeatureCodec.FLOAT64);
+      m_values = values;
+    }
+
+    @Override
+    public int length() {
+      return m_values.length;
+    }
+
+    @Override
+    public double get(int i) {
+      return m_values[i];
+    }
+
+    @Override
+    public void set(int i, double value) {
+      m_values[i] = value;
+    }
+
+    @Override
+    public void copy(int from, FeatureValues dest, int to, int count) {
+      System.arraycopy(m_values, from, ((DoubleValues) dest).m_values, to,
+          count);
+    }
+
+    @Override
+    public double[] toDoubles() {
+      return m_values;
+    }
+  }
+
+  private static class FloatValues extends FeatureValues {
+    private final float[] m_values;
+
+    public FloatValues(FeatureCodec codec, float[] values) {
+      super(codec);
+      m_values = values;
+    }
+
+    @Override
+    public int length() {
+      return m_values.length;
+    }
+
+    @Override
+    public double get(int i) {
+      return m_values[i];
+    }
+
+    @Override
+    public void set(int i, double value) {
+      m_values[i] = (value != 0) ? (float) m_codec.quantize(value) : 0;
+    }
+
+    @Override
+    public void copy(int from, FeatureValues dest, int to, int count) {
+      System.arraycopy(m_values, from, ((FloatValues) dest).m_values, to,
+          count);
+    }
+  }
+
+  private static class ShortValues extends FeatureValues {
+    private final short[] m_levels;
+
+    public ShortValues(FeatureCodec codec, short[] levels) {
+      super(codec);
+      m_levels = levels;
+    }
+
+    @Override
+    public int length() {
+      return m_levels.length;
+    }
+
+    @Override
+    public double get(int i) {
+      return m_codec.decode(m_levels[i] & 0xFFFF);
+    }
+
+    @Override
+    public void set(int i, double value) {
+      m_levels[i] = (short) m_codec.encode(value);
+    }
+
+    @Override
+    public void copy(int from, FeatureValues dest, int to, int count) {
+      System.arraycopy(m_levels, from, ((ShortValues) dest).m_levels, to,
+          count);
+    }
+  }
+
+  private static class ByteValues extends FeatureValues {
+    private final byte[] m_levels;
+
+    public ByteValues(FeatureCodec codec, byte[] levels) {
+      super(codec);
+      m_levels = levels;
+    }
+
+    @Override
+    public int length() {
+      return m_levels.length;
+    }
+
+    @Override
+    public double get(int i) {
+      return m_codec.decode(m_levels[i] & 0xFF);
+    }
+
+    @Override
+    public void set(int i, double value) {
+      m_levels[i] = (byte) m_codec.encode(value);
+    }
+
+    @Override
+    public void copy(int from, FeatureValues dest, int to, int count) {
+      System.arraycopy(m_levels, from, ((ByteValues) dest).m_levels, to,
+          count);
+    }
+  }
+
+}
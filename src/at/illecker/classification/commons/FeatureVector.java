@@ -20,20 +20,38 @@ import java.util.Map;
 
 public class FeatureVector {
 
-  private Map<Integer, Double> m_featureVector;
+  private SparseVector m_featureVector;
 
-  public FeatureVector(Map<Integer, Double> featureVector) {
+  public FeatureVector(SparseVector featureVector) {
     this.m_featureVector = featureVector;
   }
 
-  public Map<Integer, Double> getFeatureVector() {
+  public FeatureVector(Map<Integer, Double> featureVector) {
+    this(SparseVector.fromMap(featureVector));
+  }
+
+  public SparseVector getFeatureVector() {
     return m_featureVector;
   }
 
-  public void setFeatureVector(Map<Integer, Double> featureVector) {
+  public void setFeatureVector(SparseVector featureVector) {
     this.m_featureVector = featureVector;
   }
 
+  /**
+   * Returns the sorted feature indices, which must not be modified.
+   */
+  public int[] getFeatureIndices() {
+    return m_featureVector.getIndices();
+  }
+
+  /**
+   * Returns the decoded feature values, which must not be modified.
+   */
+  public double[] getFeatureValues() {
+    return m_featureVector.getValues();
+  }
+
   @Override
   public String toString() {
     return "FeatureVector [featureVector=" + m_featureVector + "]";
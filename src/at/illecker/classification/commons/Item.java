@@ -25,6 +25,12 @@ public class Item extends FeatureVector {
   private Integer m_predictedClass = null;
   private Map<Integer, Double> m_predictedClassProbabilities = null;
 
+  public Item(Long id, SparseVector featureVector, Integer actualClass) {
+    super(featureVector);
+    this.m_id = id;
+    this.m_actualClass = actualClass;
+  }
+
   public Item(Long id, Map<Integer, Double> featureVector, Integer actualClass) {
     super(featureVector);
     this.m_id = id;
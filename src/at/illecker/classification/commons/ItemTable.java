@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.commons;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import at.illecker.classification.io.FeatureStore;
+
+/**
+ * Ids, actual classes and predictions of rows stored in parallel arrays.
+ * The predicted class probabilities of all rows are stored in one row-major
+ * matrix of rows x classes, whose columns follow the sorted class labels.
+ * Features are not part of the table and stay in their source.
+ */
+public class ItemTable {
+  // sentinels of missing ids and labels
+  public static final long NULL_ID = DenseMatrix.NULL_ID;
+  public static final int NULL_LABEL = DenseMatrix.NULL_LABEL;
+
+  private final int m_rows;
+  private final long[] m_ids;
+  private final int[] m_actualClasses;
+  private final int[] m_predictedClasses;
+  // allocated once the class labels are set
+  private int[] m_classLabels;
+  private double[] m_probabilities;
+
+  public ItemTable(int rows) {
+    m_rows = rows;
+    m_ids = new long[rows];
+    m_actualClasses = new int[rows];
+    m_predictedClasses = new int[rows];
+    Arrays.fill(m_ids, NULL_ID);
+    Arrays.fill(m_actualClasses, NULL_LABEL);
+    Arrays.fill(m_predictedClasses, NULL_LABEL);
+  }
+
+  public static ItemTable fromItems(List<Item> items) {
+    ItemTable table = new ItemTable(items.size());
+    int row = 0;
+    for (Item item : items) {
+      table.setId(row, item.getId());
+      table.setActualClass(row, item.getActualClass());
+      table.setPredictedClass(row, item.getPredictedClass());
+      Map<Integer, Double> probabilities = item
+          .getPredictedClassProbabilities();
+      if (probabilities != null) {
+        if (table.m_classLabels == null) {
+          int[] labels = new int[probabilities.size()];
+          int i = 0;
+          for (Integer label : probabilities.keySet()) {
+            labels[i++] = label;
+          }
+          table.setClassLabels(labels);
+        }
+        int offset = table.getOffset(row);
+        for (Double probability : probabilities.values()) {
+          table.m_probabilities[offset++] = probability;
+        }
+      }
+      row++;
+    }
+    return table;
+  }
+
+  public static ItemTable fromMatrix(DenseMatrix matrix) {
+    ItemTable table = new ItemTable(matrix.getRows());
+    for (int row = 0; row < matrix.getRows(); row++) {
+      table.setId(row, matrix.getId(row));
+      table.setActualClass(row, matrix.getActualClass(row));
+    }
+    return table;
+  }
+
+  public static ItemTable fromStore(FeatureStore store) {
+    ItemTable table = new ItemTable(store.getRows());
+    for (int row = 0; row < store.getRows(); row++) {
+      table.setId(row, store.getId(row));
+      table.setActualClass(row, store.getActualClass(row));
+    }
+    return table;
+  }
+
+  public int getRows() {
+    return m_rows;
+  }
+
+  /**
+   * Returns the sorted class labels of the probability columns or null if
+   * no probabilities are stored.
+   */
+  public int[] getClassLabels() {
+    return m_classLabels;
+  }
+
+  /**
+   * Sets the class labels of the probability columns and clears all
+   * probabilities.
+   */
+  public void setClassLabels(int[] classLabels) {
+    m_classLabels = Arrays.copyOf(classLabels, classLabels.length);
+    Arrays.sort(m_classLabels);
+    m_probabilities = new double[m_rows * m_classLabels.length];
+  }
+
+  public int getTotalClasses() {
+    return (m_classLabels != null) ? m_classLabels.length : 0;
+  }
+
+  /**
+   * Returns the column of each label in the order of the given labels.
+   */
+  public int[] getColumns(int[] labels) {
+    int[] columns = new int[labels.length];
+    for (int i = 0; i < labels.length; i++) {
+      columns[i] = Arrays.binarySearch(m_classLabels, labels[i]);
+      if (columns[i] < 0) {
+        throw new IllegalArgumentException("Unknown class label: "
+            + labels[i]);
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Returns the backing row-major array of probabilities.
+   */
+  public double[] getProbabilities() {
+    return m_probabilities;
+  }
+
+  public int getOffset(int row) {
+    return row * m_classLabels.length;
+  }
+
+  public double getProbability(int row, int column) {
+    return m_probabilities[row * m_classLabels.length + column];
+  }
+
+  public void setProbability(int row, int column, double probability) {
+    m_probabilities[row * m_classLabels.length + column] = probability;
+  }
+
+  public Long getId(int row) {
+    return (m_ids[row] != NULL_ID) ? m_ids[row] : null;
+  }
+
+  public void setId(int row, Long id) {
+    m_ids[row] = (id != null) ? id : NULL_ID;
+  }
+
+  public Integer getActualClass(int row) {
+    return (m_actualClasses[row] != NULL_LABEL) ? m_actualClasses[row] : null;
+  }
+
+  public void setActualClass(int row, Integer actualClass) {
+    m_actualClasses[row] = (actualClass != null) ? actualClass : NULL_LABEL;
+  }
+
+  public Integer getPredictedClass(int row) {
+    return (m_predictedClasses[row] != NULL_LABEL) ? m_predictedClasses[row]
+        : null;
+  }
+
+  public void setPredictedClass(int row, Integer predictedClass) {
+    m_predictedClasses[row] = (predictedClass != null) ? predictedClass
+        : NULL_LABEL;
+  }
+
+  /**
+   * Returns the number of rows whose predicted class matches their actual
+   * class.
+   */
+  public long countMatches() {
+    long matches = 0;
+    for (int row = 0; row < m_rows; row++) {
+      if ((m_actualClasses[row] != NULL_LABEL)
+          && (m_actualClasses[row] == m_predictedClasses[row])) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Counts the rows with actual and predicted class into the confusion
+   * matrix.
+   */
+  public void addConfusionMatrix(int[][] confusionMatrix) {
+    for (int row = 0; row < m_rows; row++) {
+      if ((m_actualClasses[row] != NULL_LABEL)
+          && (m_predictedClasses[row] != NULL_LABEL)) {
+        confusionMatrix[m_actualClasses[row]][m_predictedClasses[row]]++;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ItemTable [rows=" + m_rows + ", classLabels="
+        + Arrays.toString(m_classLabels) + "]";
+  }
+
+}
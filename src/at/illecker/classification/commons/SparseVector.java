@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.commons;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sparse vector of non-zero features backed by parallel arrays of strictly
+ * increasing indices and their values. Values are held in the precision of
+ * a {@link FeatureCodec}.
+ */
+public class SparseVector {
+  public static final SparseVector EMPTY = new SparseVector(new int[0],
+      new double[0]);
+
+  private final int[] m_indices;
+  private final FeatureValues m_values;
+
+  /**
+   * Wraps the arrays without copying. The indices must be strictly
+   * increasing and both arrays must have the same length.
+   */
+  public SparseVector(int[] indices, double[] values) {
+    this(indices, FeatureValues.wrap(values));
+  }
+
+  public SparseVector(int[] indices, FeatureValues values) {
+    if (indices.length != values.length()) {
+      throw new IllegalArgumentException("indices.length "
+          + indices.length + " != values.length " + values.length());
+    }
+    m_indices = indices;
+    m_values = values;
+  }
+
+  /**
+   * Copies the first size entries of the arrays.
+   */
+  public SparseVector(int[] indices, double[] values, int size) {
+    this(indices, values, size, FeatureCodec.FLOAT64);
+  }
+
+  /**
+   * Copies the first size entries of the arrays and stores the values in
+   * the precision of the codec.
+   */
+  public SparseVector(int[] indices, double[] values, int size,
+      FeatureCodec codec) {
+    this(Arrays.copyOf(indices, size), FeatureValues.copyOf(values, size,
+        codec));
+  }
+
+  public static SparseVector fromMap(Map<Integer, Double> featureVector) {
+    // sort keys unless the map is already sorted
+    Map<Integer, Double> sorted = featureVector;
+    if (!(featureVector instanceof TreeMap)) {
+      sorted = new TreeMap<Integer, Double>(featureVector);
+    }
+    int[] indices = new int[sorted.size()];
+    double[] values = new double[sorted.size()];
+    int i = 0;
+    for (Map.Entry<Integer, Double> feature : sorted.entrySet()) {
+      indices[i] = feature.getKey();
+      values[i] = feature.getValue();
+      i++;
+    }
+    return new SparseVector(indices, values);
+  }
+
+  public int size() {
+    return m_indices.length;
+  }
+
+  public int getIndex(int i) {
+    return m_indices[i];
+  }
+
+  public double getValue(int i) {
+    return m_values.get(i);
+  }
+
+  /**
+   * Returns the backing array of indices, which must not be modified.
+   */
+  public int[] getIndices() {
+    return m_indices;
+  }
+
+  /**
+   * Returns the decoded values, which must not be modified. Float64 values
+   * return their backing array.
+   */
+  public double[] getValues() {
+    return m_values.toDoubles();
+  }
+
+  public FeatureCodec getCodec() {
+    return m_values.getCodec();
+  }
+
+  /**
+   * Returns the value of the feature index or 0 if it is not set.
+   */
+  public double get(int index) {
+    int i = Arrays.binarySearch(m_indices, index);
+    return (i >= 0) ? m_values.get(i) : 0;
+  }
+
+  public double dot(SparseVector other) {
+    double sum = 0;
+    int i = 0;
+    int j = 0;
+    int[] otherIndices = other.m_indices;
+    while ((i < m_indices.length) && (j < otherIndices.length)) {
+      int a = m_indices[i];
+      int b = otherIndices[j];
+      if (a == b) {
+        sum += m_values.get(i++) * other.m_values.get(j++);
+      } else if (a < b) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    return sum;
+  }
+
+  public Map<Integer, Double> toMap() {
+    Map<Integer, Double> map = new TreeMap<Integer, Double>();
+    for (int i = 0; i < m_indices.length; i++) {
+      map.put(m_indices[i], m_values.get(i));
+    }
+    return map;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("{");
+    for (int i = 0; i < m_indices.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(m_indices[i]).append('=').append(m_values.get(i));
+    }
+    return sb.append('}').toString();
+  }
+
+}
@@ -0,0 +1,263 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.illecker.classification.commons.FeatureCodec;
+import at.illecker.classification.commons.Item;
+import at.illecker.classification.commons.SparseVector;
+
+/**
+ * Binary cache of items in compressed sparse row (CSR) layout. The file
+ * consists of a header followed by the primitive arrays
+ *
+ * <pre>
+ * long[rows] ids, int[rows] labels, long[rows + 1] rowOffsets,
+ * int[nnz] indices, values[nnz]
+ * </pre>
+ *
+ * The values are stored in the precision of a {@link FeatureCodec}, which is
+ * recorded in the header.
+ *
+ * Each array is memory-mapped on load by {@link FeatureStore} and items are
+ * only materialized when they are accessed.
+ */
+public class ColumnarCache {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(ColumnarCache.class);
+  static final int MAGIC = 0x43535231; // "CSR1"
+  static final int VERSION = 2;
+  static final int HEADER_SIZE = 40;
+  // version 1 stores float64 values without scale and offset
+  static final int HEADER_SIZE_V1 = 24;
+  static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+  static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+  // sentinels of missing ids and labels
+  static final long NULL_ID = Long.MIN_VALUE;
+  static final int NULL_LABEL = Integer.MIN_VALUE;
+
+  public static void write(List<Item> items, String file) {
+    write(items, file, FeatureCodec.FLOAT64);
+  }
+
+  public static void write(List<Item> items, String file,
+      FeatureCodec codec) {
+    int rows = items.size();
+    long nnz = 0;
+    for (Item item : items) {
+      nnz += item.getFeatureVector().size();
+    }
+
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(file, "rw");
+      raf.setLength(0);
+      FileChannel channel = raf.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(
+          BYTE_ORDER);
+
+      putHeader(buffer, rows, nnz, codec);
+
+      // ids
+      for (Item item : items) {
+        buffer = ensureRemaining(channel, buffer, 8);
+        buffer.putLong((item.getId() != null) ? item.getId() : NULL_ID);
+      }
+      // labels
+      for (Item item : items) {
+        buffer = ensureRemaining(channel, buffer, 4);
+        buffer.putInt((item.getActualClass() != null) ? item
+            .getActualClass() : NULL_LABEL);
+      }
+      // row offsets
+      long offset = 0;
+      buffer = ensureRemaining(channel, buffer, 8);
+      buffer.putLong(offset);
+      for (Item item : items) {
+        offset += item.getFeatureVector().size();
+        buffer = ensureRemaining(channel, buffer, 8);
+        buffer.putLong(offset);
+      }
+      // indices
+      for (Item item : items) {
+        for (int index : item.getFeatureIndices()) {
+          buffer = ensureRemaining(channel, buffer, 4);
+          buffer.putInt(index);
+        }
+      }
+      // values
+      int valueBytes = codec.getPrecision().getBytes();
+      for (Item item : items) {
+        SparseVector values = item.getFeatureVector();
+        for (int i = 0; i < values.size(); i++) {
+          buffer = ensureRemaining(channel, buffer, valueBytes);
+          codec.put(buffer, values.getValue(i));
+        }
+      }
+      flush(channel, buffer);
+      LOG.info("Cached " + rows + " items in " + file);
+
+    } catch (IOException e) {
+      LOG.error("IOException: " + e.getMessage());
+    } finally {
+      if (raf != null) {
+        try {
+          raf.close();
+        } catch (IOException ignore) {
+        }
+      }
+    }
+  }
+
+  static void putHeader(ByteBuffer buffer, int rows, long nnz,
+      FeatureCodec codec) {
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(rows)
+        .putInt(codec.getPrecision().ordinal()).putLong(nnz)
+        .putDouble(codec.getScale()).putDouble(codec.getOffset());
+  }
+
+  /**
+   * Reads the header of a cache file or returns null if it is invalid.
+   */
+  static Header readHeader(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(BYTE_ORDER);
+    while (header.hasRemaining()) {
+      if (channel.read(header) < 0) {
+        break;
+      }
+    }
+    header.flip();
+    if ((header.remaining() < HEADER_SIZE_V1) || (header.getInt() != MAGIC)) {
+      return null;
+    }
+    int version = header.getInt();
+    int rows = header.getInt();
+    int precision = header.getInt();
+    long nnz = header.getLong();
+    if (version == 1) {
+      return new Header(rows, nnz, FeatureCodec.FLOAT64, HEADER_SIZE_V1);
+    }
+    if ((version != VERSION) || (header.remaining() < 16)
+        || (precision < 0)
+        || (precision >= FeatureCodec.Precision.values().length)) {
+      return null;
+    }
+    double scale = header.getDouble();
+    double offset = header.getDouble();
+    return new Header(rows, nnz, new FeatureCodec(
+        FeatureCodec.Precision.values()[precision], scale, offset),
+        HEADER_SIZE);
+  }
+
+  static final class Header {
+    final int rows;
+    final long nnz;
+    final FeatureCodec codec;
+    final int size;
+
+    Header(int rows, long nnz, FeatureCodec codec, int size) {
+      this.rows = rows;
+      this.nnz = nnz;
+      this.codec = codec;
+      this.size = size;
+    }
+  }
+
+  static ByteBuffer ensureRemaining(FileChannel channel,
+      ByteBuffer buffer, int bytes) throws IOException {
+    if (buffer.remaining() < bytes) {
+      flush(channel, buffer);
+    }
+    return buffer;
+  }
+
+  static void flush(FileChannel channel, ByteBuffer buffer)
+      throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Maps the cache file and returns a list view of its items or null if the
+   * file is not a valid cache.
+   */
+  public static List<Item> read(String file) {
+    return read(file, null);
+  }
+
+  /**
+   * Returns null if codec is set and differs from the codec of the file.
+   */
+  public static List<Item> read(String file, FeatureCodec codec) {
+    FeatureStore store = FeatureStore.open(file);
+    if ((store == null)
+        || ((codec != null) && (!codec.equals(store.getCodec())))) {
+      return null;
+    }
+    return new ColumnarItemList(store);
+  }
+
+  /**
+   * List view of mapped items. An item is created on first access and kept,
+   * so that predictions set on it are retained.
+   */
+  private static class ColumnarItemList extends AbstractList<Item> implements
+      RandomAccess {
+    private final FeatureStore m_store;
+    private final Item[] m_items;
+
+    public ColumnarItemList(FeatureStore store) {
+      m_store = store;
+      m_items = new Item[store.getRows()];
+    }
+
+    @Override
+    public Item get(int row) {
+      if ((row < 0) || (row >= m_items.length)) {
+        throw new IndexOutOfBoundsException("row: " + row + " rows: "
+            + m_items.length);
+      }
+      Item item = m_items[row];
+      if (item == null) {
+        item = m_store.getItem(row);
+        m_items[row] = item;
+      }
+      return item;
+    }
+
+    @Override
+    public int size() {
+      return m_items.length;
+    }
+  }
+
+}
@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.io;
+
+import java.nio.charset.Charset;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Allocation-free formatting of numbers into byte arrays.
+ *
+ * Doubles are rounded to at most maxFractionDigits decimals and printed
+ * without trailing zeros, which yields the shortest decimal representing
+ * the rounded value. The rounding is computed half to even from the exact
+ * binary value using 128-bit integer arithmetic. As long as the integer and
+ * fraction digits fit into the 15 significant digits of a double, the result
+ * equals DecimalFormat("0") with setMaximumFractionDigits(maxFractionDigits)
+ * except for values within one ulp of a decimal tie, which DecimalFormat
+ * rounds based on their shortest representation. All other values are
+ * formatted by DecimalFormat.
+ */
+public class DecimalFormatter {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final long MASK_32 = 0xFFFFFFFFL;
+  // 10^18 is the largest power of ten below 2^63
+  public static final int MAX_FRACTION_DIGITS = 18;
+
+  private static final long[] POWERS_OF_FIVE = new long[19];
+  private static final long[] POWERS_OF_TEN = new long[19];
+  static {
+    POWERS_OF_FIVE[0] = 1;
+    for (int i = 1; i < POWERS_OF_FIVE.length; i++) {
+      POWERS_OF_FIVE[i] = POWERS_OF_FIVE[i - 1] * 5;
+    }
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private final int m_maxFractionDigits;
+  // values of at least this magnitude are formatted by the fallback
+  private final double m_maxExactValue;
+  // used for values outside of the exact range
+  private final DecimalFormat m_fallback;
+
+  public DecimalFormatter(int maxFractionDigits) {
+    if ((maxFractionDigits < 0)
+        || (maxFractionDigits > MAX_FRACTION_DIGITS)) {
+      throw new IllegalArgumentException("maxFractionDigits: "
+          + maxFractionDigits);
+    }
+    m_maxFractionDigits = maxFractionDigits;
+    m_maxExactValue = Math.pow(10, 15 - maxFractionDigits);
+    m_fallback = new DecimalFormat("0",
+        DecimalFormatSymbols.getInstance(Locale.ENGLISH));
+    m_fallback.setMaximumFractionDigits(maxFractionDigits);
+  }
+
+  /**
+   * Writes the value into dst starting at pos and returns the position after
+   * the last written byte. dst must provide at least maxLength() bytes.
+   */
+  public int format(double value, byte[] dst, int pos) {
+    long bits = Double.doubleToRawLongBits(value);
+    boolean negative = (bits < 0);
+    int biasedExponent = (int) ((bits >>> 52) & 0x7FF);
+    long fraction = bits & ((1L << 52) - 1);
+    if ((biasedExponent == 0x7FF) || (Math.abs(value) >= m_maxExactValue)) {
+      return formatFallback(value, dst, pos);
+    }
+
+    long mantissa;
+    int exponent;
+    if (biasedExponent == 0) {
+      mantissa = fraction;
+      exponent = -1074;
+    } else {
+      mantissa = fraction | (1L << 52);
+      exponent = biasedExponent - 1075;
+    }
+
+    // value * 10^k = mantissa * 5^k * 2^(exponent + k)
+    int k = m_maxFractionDigits;
+    long f = POWERS_OF_FIVE[k];
+    long a0 = mantissa & MASK_32;
+    long a1 = mantissa >>> 32;
+    long b0 = f & MASK_32;
+    long b1 = f >>> 32;
+    long p00 = a0 * b0;
+    long p01 = a0 * b1;
+    long p10 = a1 * b0;
+    long p11 = a1 * b1;
+    long mid = (p00 >>> 32) + (p01 & MASK_32) + (p10 & MASK_32);
+    long lo = (mid << 32) | (p00 & MASK_32);
+    long hi = p11 + (p01 >>> 32) + (p10 >>> 32) + (mid >>> 32);
+
+    long scaled;
+    int shift = -(exponent + k);
+    if (shift <= 0) {
+      // integral value, only small shifts fit into a long
+      if ((hi != 0) || (-shift >= Long.numberOfLeadingZeros(lo))) {
+        return formatFallback(value, dst, pos);
+      }
+      scaled = lo << -shift;
+    } else if (shift >= 128) {
+      // below half of the last digit
+      scaled = 0;
+    } else {
+      // quotient and remainder of (hi, lo) / 2^shift
+      long qHi;
+      long qLo;
+      long rHi;
+      long rLo;
+      if (shift >= 64) {
+        qHi = 0;
+        qLo = hi >>> (shift - 64);
+        rHi = (shift == 64) ? 0 : hi & ((1L << (shift - 64)) - 1);
+        rLo = lo;
+      } else {
+        qHi = hi >>> shift;
+        qLo = (lo >>> shift) | (hi << (64 - shift));
+        rHi = 0;
+        rLo = lo & ((1L << shift) - 1);
+      }
+      if ((qHi != 0) || (qLo < 0) || (qLo == Long.MAX_VALUE)) {
+        return formatFallback(value, dst, pos);
+      }
+      // half = 2^(shift - 1)
+      long halfHi = (shift - 1 >= 64) ? 1L << (shift - 1 - 64) : 0;
+      long halfLo = (shift - 1 >= 64) ? 0 : 1L << (shift - 1);
+      int cmp = (rHi != halfHi) ? Long.compare(rHi, halfHi)
+          : compareUnsigned(rLo, halfLo);
+      scaled = qLo;
+      if ((cmp > 0) || ((cmp == 0) && ((scaled & 1) != 0))) {
+        scaled++;
+      }
+    }
+
+    if (negative) {
+      dst[pos++] = '-';
+    }
+    long integerPart = scaled / POWERS_OF_TEN[k];
+    long fractionPart = scaled % POWERS_OF_TEN[k];
+    pos = format(integerPart, dst, pos);
+    if (fractionPart != 0) {
+      int digits = k;
+      // strip trailing zeros
+      while (fractionPart % 10 == 0) {
+        fractionPart /= 10;
+        digits--;
+      }
+      dst[pos++] = '.';
+      for (int i = digits - 1; i >= 0; i--) {
+        dst[pos + i] = (byte) ('0' + (fractionPart % 10));
+        fractionPart /= 10;
+      }
+      pos += digits;
+    }
+    return pos;
+  }
+
+  private static int compareUnsigned(long x, long y) {
+    return Long.compare(x + Long.MIN_VALUE, y + Long.MIN_VALUE);
+  }
+
+  private int formatFallback(double value, byte[] dst, int pos) {
+    byte[] bytes = m_fallback.format(value).getBytes(UTF8);
+    System.arraycopy(bytes, 0, dst, pos, bytes.length);
+    return pos + bytes.length;
+  }
+
+  /**
+   * Writes the decimal digits of the value into dst starting at pos and
+   * returns the position after the last written byte.
+   */
+  public static int format(long value, byte[] dst, int pos) {
+    if (value < 0) {
+      if (value == Long.MIN_VALUE) {
+        byte[] bytes = Long.toString(value).getBytes(UTF8);
+        System.arraycopy(bytes, 0, dst, pos, bytes.length);
+        return pos + bytes.length;
+      }
+      dst[pos++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    while ((digits < 19) && (value >= POWERS_OF_TEN[digits])) {
+      digits++;
+    }
+    for (int i = digits - 1; i >= 0; i--) {
+      dst[pos + i] = (byte) ('0' + (value % 10));
+      value /= 10;
+    }
+    return pos + digits;
+  }
+
+  /**
+   * Returns an upper bound of the number of bytes written by format.
+   */
+  public int maxLength() {
+    // sign, 19 integer digits, point, fraction digits or fallback output
+    return Math.max(21 + m_maxFractionDigits, 400);
+  }
+
+}
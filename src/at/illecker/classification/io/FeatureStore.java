@@ -0,0 +1,320 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.illecker.classification.commons.FeatureCodec;
+import at.illecker.classification.commons.FeatureValues;
+import at.illecker.classification.commons.Item;
+import at.illecker.classification.commons.SparseVector;
+
+/**
+ * Off-heap store of rows in the CSR layout of {@link ColumnarCache}. Every
+ * section of the file is memory-mapped in chunks of CHUNK_SIZE bytes, so
+ * neither the heap nor the 2GB limit of a single mapping bounds the size of
+ * the data. Rows are read directly from the mappings, values are decoded
+ * from the precision of the file and items are only created on request and
+ * not retained.
+ */
+public class FeatureStore {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(FeatureStore.class);
+  // a multiple of 8, so that no element spans two chunks
+  private static final int CHUNK_SHIFT = 30;
+  private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+  private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private final int m_rows;
+  private final long m_nnz;
+  private final FeatureCodec m_codec;
+  private final int m_valueBytes;
+  private final ByteBuffer[] m_ids;
+  private final ByteBuffer[] m_labels;
+  private final ByteBuffer[] m_rowOffsets;
+  private final ByteBuffer[] m_indices;
+  private final ByteBuffer[] m_values;
+
+  private FeatureStore(int rows, long nnz, FeatureCodec codec,
+      ByteBuffer[] ids, ByteBuffer[] labels, ByteBuffer[] rowOffsets,
+      ByteBuffer[] indices, ByteBuffer[] values) {
+    m_rows = rows;
+    m_nnz = nnz;
+    m_codec = codec;
+    m_valueBytes = codec.getPrecision().getBytes();
+    m_ids = ids;
+    m_labels = labels;
+    m_rowOffsets = rowOffsets;
+    m_indices = indices;
+    m_values = values;
+  }
+
+  /**
+   * Maps the store file or returns null if it is not a valid CSR file.
+   */
+  public static FeatureStore open(String file) {
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(file, "r");
+      FileChannel channel = raf.getChannel();
+
+      ColumnarCache.Header header = ColumnarCache.readHeader(channel);
+      if (header == null) {
+        LOG.error("Invalid feature store: " + file);
+        return null;
+      }
+      int rows = header.rows;
+      long nnz = header.nnz;
+      FeatureCodec codec = header.codec;
+
+      long pos = header.size;
+      ByteBuffer[] ids = map(channel, pos, 8L * rows);
+      pos += 8L * rows;
+      ByteBuffer[] labels = map(channel, pos, 4L * rows);
+      pos += 4L * rows;
+      ByteBuffer[] rowOffsets = map(channel, pos, 8L * (rows + 1));
+      pos += 8L * (rows + 1);
+      ByteBuffer[] indices = map(channel, pos, 4L * nnz);
+      pos += 4L * nnz;
+      ByteBuffer[] values = map(channel, pos, (long) codec.getPrecision()
+          .getBytes() * nnz);
+
+      return new FeatureStore(rows, nnz, codec, ids, labels, rowOffsets,
+          indices, values);
+
+    } catch (IOException e) {
+      LOG.error("IOException: " + e.getMessage());
+    } finally {
+      if (raf != null) {
+        try {
+          raf.close();
+        } catch (IOException ignore) {
+        }
+      }
+    }
+    return null;
+  }
+
+  private static ByteBuffer[] map(FileChannel channel, long pos, long size)
+      throws IOException {
+    int count = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+    ByteBuffer[] chunks = new ByteBuffer[count];
+    for (int i = 0; i < chunks.length; i++) {
+      long offset = i * CHUNK_SIZE;
+      chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, pos + offset,
+          Math.min(CHUNK_SIZE, size - offset)).order(ColumnarCache.BYTE_ORDER);
+    }
+    return chunks;
+  }
+
+  /**
+   * Writes the items into a store file while they are consumed, so the
+   * items never have to be held in memory at once. The sections are written
+   * into temporary files first and appended to the header afterwards.
+   */
+  public static boolean write(Iterator<Item> items, String file) {
+    return write(items, file, FeatureCodec.FLOAT64);
+  }
+
+  public static boolean write(Iterator<Item> items, String file,
+      FeatureCodec codec) {
+    int valueBytes = codec.getPrecision().getBytes();
+    String[] sections = new String[] { file + ".ids.tmp",
+        file + ".labels.tmp", file + ".offsets.tmp", file + ".indices.tmp",
+        file + ".values.tmp" };
+    RandomAccessFile[] rafs = new RandomAccessFile[sections.length];
+    RandomAccessFile raf = null;
+    try {
+      FileChannel[] channels = new FileChannel[sections.length];
+      ByteBuffer[] buffers = new ByteBuffer[sections.length];
+      for (int i = 0; i < sections.length; i++) {
+        rafs[i] = new RandomAccessFile(sections[i], "rw");
+        rafs[i].setLength(0);
+        channels[i] = rafs[i].getChannel();
+        buffers[i] = ByteBuffer.allocateDirect(ColumnarCache.WRITE_BUFFER_SIZE)
+            .order(ColumnarCache.BYTE_ORDER);
+      }
+
+      long rows = 0;
+      long nnz = 0;
+      buffers[2].putLong(nnz);
+      while (items.hasNext()) {
+        Item item = items.next();
+        ColumnarCache.ensureRemaining(channels[0], buffers[0], 8).putLong(
+            (item.getId() != null) ? item.getId() : ColumnarCache.NULL_ID);
+        ColumnarCache.ensureRemaining(channels[1], buffers[1], 4).putInt(
+            (item.getActualClass() != null) ? item.getActualClass()
+                : ColumnarCache.NULL_LABEL);
+        int[] indices = item.getFeatureIndices();
+        SparseVector values = item.getFeatureVector();
+        for (int i = 0; i < indices.length; i++) {
+          ColumnarCache.ensureRemaining(channels[3], buffers[3], 4).putInt(
+              indices[i]);
+          codec.put(ColumnarCache.ensureRemaining(channels[4], buffers[4],
+              valueBytes), values.getValue(i));
+        }
+        nnz += indices.length;
+        ColumnarCache.ensureRemaining(channels[2], buffers[2], 8).putLong(nnz);
+        rows++;
+      }
+      if (rows > Integer.MAX_VALUE) {
+        throw new IOException("Feature store exceeds " + Integer.MAX_VALUE
+            + " rows");
+      }
+      for (int i = 0; i < sections.length; i++) {
+        ColumnarCache.flush(channels[i], buffers[i]);
+      }
+
+      // header followed by the sections
+      raf = new RandomAccessFile(file, "rw");
+      raf.setLength(0);
+      FileChannel channel = raf.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(ColumnarCache.HEADER_SIZE)
+          .order(ColumnarCache.BYTE_ORDER);
+      ColumnarCache.putHeader(header, (int) rows, nnz, codec);
+      ColumnarCache.flush(channel, header);
+      for (int i = 0; i < sections.length; i++) {
+        long size = channels[i].size();
+        long pos = 0;
+        while (pos < size) {
+          pos += channels[i].transferTo(pos, size - pos, channel);
+        }
+      }
+      LOG.info("Stored " + rows + " rows in " + file);
+      return true;
+
+    } catch (IOException e) {
+      LOG.error("IOException: " + e.getMessage());
+    } finally {
+      for (int i = 0; i < sections.length; i++) {
+        if (rafs[i] != null) {
+          try {
+            rafs[i].close();
+          } catch (IOException ignore) {
+          }
+        }
+        new File(sections[i]).delete();
+      }
+      if (raf != null) {
+        try {
+          raf.close();
+        } catch (IOException ignore) {
+        }
+      }
+    }
+    return false;
+  }
+
+  public FeatureCodec getCodec() {
+    return m_codec;
+  }
+
+  public int getRows() {
+    return m_rows;
+  }
+
+  public long getNnz() {
+    return m_nnz;
+  }
+
+  public Long getId(int row) {
+    long pos = 8L * row;
+    long id = m_ids[(int) (pos >>> CHUNK_SHIFT)]
+        .getLong((int) (pos & CHUNK_MASK));
+    return (id != ColumnarCache.NULL_ID) ? id : null;
+  }
+
+  public Integer getActualClass(int row) {
+    long pos = 4L * row;
+    int label = m_labels[(int) (pos >>> CHUNK_SHIFT)]
+        .getInt((int) (pos & CHUNK_MASK));
+    return (label != ColumnarCache.NULL_LABEL) ? label : null;
+  }
+
+  /**
+   * Returns the position of the first non-zero of the row. The non-zeros of
+   * the row end at getRowStart(row + 1).
+   */
+  public long getRowStart(int row) {
+    long pos = 8L * row;
+    return m_rowOffsets[(int) (pos >>> CHUNK_SHIFT)]
+        .getLong((int) (pos & CHUNK_MASK));
+  }
+
+  public int getIndex(long i) {
+    long pos = 4L * i;
+    return m_indices[(int) (pos >>> CHUNK_SHIFT)]
+        .getInt((int) (pos & CHUNK_MASK));
+  }
+
+  public double getValue(long i) {
+    long pos = m_valueBytes * i;
+    return m_codec.get(m_values[(int) (pos >>> CHUNK_SHIFT)],
+        (int) (pos & CHUNK_MASK));
+  }
+
+  public SparseVector getFeatureVector(int row) {
+    long start = getRowStart(row);
+    int size = (int) (getRowStart(row + 1) - start);
+    int[] indices = new int[size];
+    FeatureValues values = FeatureValues.allocate(m_codec, size);
+    for (int i = 0; i < size; i++) {
+      indices[i] = getIndex(start + i);
+      values.set(i, getValue(start + i));
+    }
+    return new SparseVector(indices, values);
+  }
+
+  public Item getItem(int row) {
+    return new Item(getId(row), getFeatureVector(row), getActualClass(row));
+  }
+
+  /**
+   * Returns a list view which creates a new item on every access.
+   */
+  public List<Item> asItemList() {
+    return new ItemList();
+  }
+
+  private class ItemList extends AbstractList<Item> implements RandomAccess {
+    @Override
+    public Item get(int row) {
+      if ((row < 0) || (row >= m_rows)) {
+        throw new IndexOutOfBoundsException("row: " + row + " rows: "
+            + m_rows);
+      }
+      return getItem(row);
+    }
+
+    @Override
+    public int size() {
+      return m_rows;
+    }
+  }
+
+}
@@ -17,33 +17,53 @@
 package at.illecker.classification.io;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import at.illecker.classification.commons.Dataset;
+import at.illecker.classification.commons.DenseMatrix;
 import at.illecker.classification.commons.Item;
+import at.illecker.classification.commons.ItemTable;
 
 public class FileUtils {
   private static final Logger LOG = LoggerFactory.getLogger(FileUtils.class);
 
-  public static List<Item> readItems(String file, Dataset property,
+  public static List<Item> readItems(String file, Dataset dataset,
       boolean readActualClass) {
-    return readItems(IOUtils.getInputStream(file), property, readActualClass);
+    // map local files into memory and parse the raw bytes
+    if (MappedItemReader.isSupported(file, dataset)) {
+      return MappedItemReader.readItems(file, dataset, readActualClass,
+          dataset.isParallelIngestion());
+    }
+    return readItems(IOUtils.getInputStream(file, true, true), dataset,
+        readActualClass);
+  }
+
+  /**
+   * Reads all rows of a fixed-width dataset into one dense matrix.
+   */
+  public static DenseMatrix readMatrix(String file, Dataset dataset,
+      boolean readActualClass) {
+    if (MappedItemReader.isSupported(file, dataset)) {
+      return MappedItemReader.readMatrix(file, dataset, readActualClass,
+          dataset.isParallelIngestion());
+    }
+    List<Item> items = readItems(file, dataset, readActualClass);
+    return (items != null) ? DenseMatrix.fromItems(items,
+        dataset.getFeatureVectorStartIdx(), dataset.getDimension(),
+        dataset.getFeatureCodec()) : null;
   }
 
   public static List<Item> readItems(InputStream is, Dataset dataset,
@@ -58,6 +78,7 @@ public class FileUtils {
     try {
       isr = new InputStreamReader(is, "UTF-8");
       br = new BufferedReader(isr);
+      RowDecoder decoder = dataset.getRowDecoder(readActualClass);
       String line = "";
       long lineCounter = 0;
       while ((line = br.readLine()) != null) {
@@ -65,51 +86,10 @@ public class FileUtils {
         if ((lineCounter == 1) && (dataset.skipFirstLine())) {
           continue;
         }
-
-        String[] values = line.split(dataset.getDelimiter());
-        // Parse id
-        Long id = null;
-        try {
-          id = Long.parseLong(values[dataset.getIdIndex()]);
-        } catch (NumberFormatException e) {
-          LOG.error("id \"" + values[dataset.getIdIndex()]
-              + "\" could not be parsed!");
+        Item item = decoder.decode(line);
+        if (item != null) {
+          items.add(item);
         }
-        // Parse actualClass
-        Integer actualClass = null;
-        if (readActualClass) {
-          String actualClassString = values[dataset.getActualClassIndex()];
-          // Use regex
-          if ((dataset.getActualClassRegex() != null)
-              && (!dataset.getActualClassRegex().isEmpty())) {
-            actualClassString = actualClassString.replaceAll(
-                dataset.getActualClassRegex(), "");
-          }
-          try {
-            actualClass = Integer.parseInt(actualClassString);
-          } catch (NumberFormatException e) {
-            LOG.warn("actualClass \"" + actualClassString
-                + "\" could not be parsed!");
-          }
-          // Use offset
-          if (dataset.getActualClassOffset() != null) {
-            actualClass += dataset.getActualClassOffset();
-          }
-        }
-        // Parse FeatureVector
-        Map<Integer, Double> featureVector = new TreeMap<Integer, Double>();
-        for (int i = dataset.getFeatureVectorStartIdx(); i <= dataset
-            .getFeatureVectorEndIdx(); i++) {
-          double value = Double.parseDouble(values[i]);
-          if (value != 0) {
-            featureVector.put(i, value);
-          }
-        }
-
-        // Debug
-        // LOG.info(line);
-        // LOG.info(new Item(id, featureVector, actualClass).toString());
-        items.add(new Item(id, featureVector, actualClass));
       }
 
     } catch (IOException e) {
@@ -138,68 +118,123 @@ public class FileUtils {
     return items;
   }
 
-  public static void writeItems(String file, Dataset dataset) {
-    DecimalFormat df = new DecimalFormat("0",
-        DecimalFormatSymbols.getInstance(Locale.ENGLISH));
-    df.setMaximumFractionDigits(8);
-    List<Item> items = dataset.getTestItems();
-    String sep = dataset.getDelimiter();
-    OutputStream os = null;
-    OutputStreamWriter osw = null;
-    BufferedWriter bw = null;
-    try {
-      os = new FileOutputStream(file);
-      osw = new OutputStreamWriter(os, "UTF-8");
-      bw = new BufferedWriter(osw);
-
-      int i = 0;
-      for (Item item : items) {
-        // write header
-        if (i == 0) {
-          StringBuilder sbHeader = new StringBuilder("id");
-          for (Map.Entry<Integer, Double> prob : item
-              .getPredictedClassProbabilities().entrySet()) {
-            int classLabel = prob.getKey()
-                + (dataset.getActualClassOffset() * -1);
-            sbHeader.append(sep + dataset.getActualClassRegex() + classLabel);
-          }
-          bw.write(sbHeader.toString());
-          bw.newLine();
-        }
-        // write item
-        StringBuilder sb = new StringBuilder();
-        sb.append(item.getId());
-        for (Map.Entry<Integer, Double> prob : item
-            .getPredictedClassProbabilities().entrySet()) {
-          sb.append(sep + df.format(prob.getValue()));
+  /**
+   * Returns a lazily parsing item source. Local files are mapped into memory
+   * and can be split for parallel streams, all other sources are read line
+   * by line.
+   */
+  public static Spliterator<Item> spliterator(String file, Dataset dataset,
+      boolean readActualClass) {
+    if (MappedItemReader.isSupported(file, dataset)) {
+      return MappedItemReader.spliterator(file, dataset, readActualClass);
+    }
+    return Spliterators.spliteratorUnknownSize(new LineItemIterator(
+        IOUtils.getInputStream(file, true, true), dataset, readActualClass),
+        Spliterator.ORDERED | Spliterator.NONNULL);
+  }
+
+  public static Iterator<Item> iterator(String file, Dataset dataset,
+      boolean readActualClass) {
+    return Spliterators.iterator(spliterator(file, dataset, readActualClass));
+  }
+
+  public static Stream<Item> stream(String file, Dataset dataset,
+      boolean readActualClass, boolean parallel) {
+    return StreamSupport.stream(spliterator(file, dataset, readActualClass),
+        parallel);
+  }
+
+  private static class LineItemIterator implements Iterator<Item> {
+    private BufferedReader m_reader;
+    private RowDecoder m_decoder;
+    private Item m_nextItem;
+
+    public LineItemIterator(InputStream is, Dataset dataset,
+        boolean readActualClass) {
+      m_decoder = dataset.getRowDecoder(readActualClass);
+      if (is == null) {
+        LOG.error("InputStream is null! File could not be found!");
+        return;
+      }
+      try {
+        m_reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+        if (dataset.skipFirstLine()) {
+          m_reader.readLine();
         }
-        bw.write(sb.toString());
-        bw.newLine();
-        i++;
+      } catch (IOException e) {
+        LOG.error("IOException: " + e.getMessage());
       }
+      advance();
+    }
 
-    } catch (IOException e) {
-      LOG.error("IOException: " + e.getMessage());
-    } finally {
-      if (bw != null) {
+    private void advance() {
+      m_nextItem = null;
+      while ((m_nextItem == null) && (m_reader != null)) {
+        String line = null;
         try {
-          bw.close();
-        } catch (IOException ignore) {
+          line = m_reader.readLine();
+        } catch (IOException e) {
+          LOG.error("IOException: " + e.getMessage());
         }
-      }
-      if (osw != null) {
-        try {
-          osw.close();
-        } catch (IOException ignore) {
+        if (line == null) {
+          try {
+            m_reader.close();
+          } catch (IOException ignore) {
+          }
+          m_reader = null;
+        } else {
+          m_nextItem = m_decoder.decode(line);
         }
       }
-      if (os != null) {
-        try {
-          os.close();
-        } catch (IOException ignore) {
-        }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return m_nextItem != null;
+    }
+
+    @Override
+    public Item next() {
+      if (m_nextItem == null) {
+        throw new NoSuchElementException();
       }
+      Item item = m_nextItem;
+      advance();
+      return item;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  public static void writeItems(String file, Dataset dataset) {
+    writeItems(file, dataset, false);
+  }
+
+  /**
+   * Writes the predicted class probabilities of the test table of the
+   * dataset.
+   */
+  public static void writeItems(String file, Dataset dataset,
+      boolean parallel) {
+    ItemTable table = dataset.getTestTable();
+    if (table == null) {
+      LOG.error("TestItems are not available");
+      return;
     }
+    ItemWriter.writeTable(file, dataset, table, parallel);
+  }
+
+  /**
+   * Writes the predicted class probabilities of the items while iterating,
+   * so that the items need not be held in memory. If parallel is set, chunks
+   * of rows are formatted in parallel.
+   */
+  public static void writeItems(String file, Dataset dataset,
+      Iterator<Item> items, boolean parallel) {
+    ItemWriter.writeItems(file, dataset, items, parallel);
   }
 
 }
@@ -53,8 +53,20 @@ public class IOUtils {
   }
 
   public static InputStream getInputStream(String fileOrUrl, boolean unzip) {
+    return getInputStream(fileOrUrl, unzip, false);
+  }
+
+  /**
+   * Opens the file or URL. If pipelined is set, gzip files are inflated on
+   * background threads. Local multi-member gzip files are inflated member by
+   * member in parallel, all others by a single reader thread that runs ahead
+   * of the consumer.
+   */
+  public static InputStream getInputStream(String fileOrUrl, boolean unzip,
+      boolean pipelined) {
     InputStream in = null;
     try {
+      boolean localFile = false;
       if (fileOrUrl.matches("https?://.*")) {
         URL u = new URL(fileOrUrl);
         URLConnection uc = u.openConnection();
@@ -72,11 +84,22 @@ public class IOUtils {
         // 2) if not found in jar, load from the file system
         if (in == null) {
           in = new FileInputStream(fileOrUrl);
+          localFile = true;
         }
       }
 
       // unzip if necessary
       if ((unzip) && (fileOrUrl.endsWith(".gz"))) {
+        if (pipelined) {
+          InputStream parallel = (localFile) ? ParallelGZIPInputStream
+              .open(fileOrUrl) : null;
+          if (parallel != null) {
+            in.close();
+            return parallel;
+          }
+          return new PipelinedInputStream(new GZIPInputStream(in,
+              GZIP_FILE_BUFFER_SIZE));
+        }
         in = new GZIPInputStream(in, GZIP_FILE_BUFFER_SIZE);
       }
 
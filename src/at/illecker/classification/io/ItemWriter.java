@@ -0,0 +1,383 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.io;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.illecker.classification.commons.Dataset;
+import at.illecker.classification.commons.Item;
+import at.illecker.classification.commons.ItemTable;
+
+/**
+ * Writes the predicted class probabilities of items or item tables as CSV.
+ * Rows are formatted into reusable byte buffers by {@link DecimalFormatter}
+ * and written through a FileChannel. Optionally, chunks of rows are
+ * formatted in parallel and written in their original order.
+ */
+public class ItemWriter {
+  private static final Logger LOG = LoggerFactory.getLogger(ItemWriter.class);
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int FRACTION_DIGITS = 8;
+  private static final int FLUSH_SIZE = 1 << 20;
+  private static final int ROWS_PER_CHUNK = 8192;
+  private static final byte[] NULL_BYTES = "null".getBytes(UTF8);
+  private static final byte[] NEW_LINE = System.getProperty("line.separator")
+      .getBytes(UTF8);
+
+  public static void writeItems(String file, Dataset dataset,
+      Iterator<Item> items, boolean parallel) {
+    byte[] separator = dataset.getDelimiter().getBytes(UTF8);
+    FileOutputStream os = null;
+    try {
+      os = new FileOutputStream(file);
+      FileChannel channel = os.getChannel();
+
+      if (!items.hasNext()) {
+        return;
+      }
+      Item first = items.next();
+      write(channel, header(first, dataset).getBytes(UTF8));
+
+      if (parallel) {
+        writeParallel(channel, first, items, separator);
+      } else {
+        RowFormatter formatter = new RowFormatter(separator);
+        formatter.append(first);
+        while (items.hasNext()) {
+          formatter.append(items.next());
+          if (formatter.length() >= FLUSH_SIZE) {
+            formatter.writeTo(channel);
+          }
+        }
+        formatter.writeTo(channel);
+      }
+
+    } catch (IOException e) {
+      LOG.error("IOException: " + e.getMessage());
+    } finally {
+      if (os != null) {
+        try {
+          os.close();
+        } catch (IOException ignore) {
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the predicted class probabilities of all rows of the table. If
+   * parallel is set, chunks of rows are formatted in parallel.
+   */
+  public static void writeTable(String file, Dataset dataset,
+      ItemTable table, boolean parallel) {
+    byte[] separator = dataset.getDelimiter().getBytes(UTF8);
+    FileOutputStream os = null;
+    try {
+      os = new FileOutputStream(file);
+      FileChannel channel = os.getChannel();
+
+      if (table.getRows() == 0) {
+        return;
+      }
+      write(channel, header(table.getClassLabels(), dataset).getBytes(UTF8));
+
+      if (parallel) {
+        writeParallel(channel, table, separator);
+      } else {
+        RowFormatter formatter = new RowFormatter(separator);
+        for (int row = 0; row < table.getRows(); row++) {
+          formatter.append(table, row);
+          if (formatter.length() >= FLUSH_SIZE) {
+            formatter.writeTo(channel);
+          }
+        }
+        formatter.writeTo(channel);
+      }
+
+    } catch (IOException e) {
+      LOG.error("IOException: " + e.getMessage());
+    } finally {
+      if (os != null) {
+        try {
+          os.close();
+        } catch (IOException ignore) {
+        }
+      }
+    }
+  }
+
+  private static String header(Item item, Dataset dataset) {
+    Set<Integer> labels = item.getPredictedClassProbabilities().keySet();
+    int[] classLabels = new int[labels.size()];
+    int i = 0;
+    for (Integer label : labels) {
+      classLabels[i++] = label;
+    }
+    return header(classLabels, dataset);
+  }
+
+  private static String header(int[] classLabels, Dataset dataset) {
+    int offset = (dataset.getActualClassOffset() != null) ? dataset
+        .getActualClassOffset() : 0;
+    String sep = dataset.getDelimiter();
+    StringBuilder sbHeader = new StringBuilder("id");
+    for (int label : classLabels) {
+      int classLabel = label + (offset * -1);
+      sbHeader.append(sep).append(dataset.getActualClassRegex())
+          .append(classLabel);
+    }
+    sbHeader.append(System.getProperty("line.separator"));
+    return sbHeader.toString();
+  }
+
+  private static void writeParallel(FileChannel channel, Item first,
+      Iterator<Item> items, byte[] separator) throws IOException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    // formatters are reused for the chunks of every batch
+    RowFormatter[] formatters = new RowFormatter[threads];
+    for (int i = 0; i < threads; i++) {
+      formatters[i] = new RowFormatter(separator);
+    }
+    List<List<Item>> chunks = new ArrayList<List<Item>>();
+    for (int i = 0; i < threads; i++) {
+      chunks.add(new ArrayList<Item>(ROWS_PER_CHUNK));
+    }
+
+    try {
+      chunks.get(0).add(first);
+      boolean hasNext = true;
+      while (hasNext) {
+        // fill one batch of chunks
+        int filled = 0;
+        for (int i = 0; i < threads; i++) {
+          List<Item> chunk = chunks.get(i);
+          while ((chunk.size() < ROWS_PER_CHUNK) && (items.hasNext())) {
+            chunk.add(items.next());
+          }
+          if (!chunk.isEmpty()) {
+            filled = i + 1;
+          }
+        }
+        hasNext = items.hasNext();
+
+        List<Future<RowFormatter>> futures;
+        futures = new ArrayList<Future<RowFormatter>>(filled);
+        for (int i = 0; i < filled; i++) {
+          futures.add(executorService.submit(new FormatCallable(formatters[i],
+              chunks.get(i))));
+        }
+        // write in order
+        for (int i = 0; i < filled; i++) {
+          futures.get(i).get().writeTo(channel);
+          chunks.get(i).clear();
+        }
+      }
+    } catch (InterruptedException e) {
+      LOG.error("InterruptedException: " + e.getMessage());
+    } catch (ExecutionException e) {
+      LOG.error("ExecutionException: " + e.getMessage());
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
+  private static void writeParallel(FileChannel channel, ItemTable table,
+      byte[] separator) throws IOException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    // formatters are reused for the chunks of every batch
+    RowFormatter[] formatters = new RowFormatter[threads];
+    for (int i = 0; i < threads; i++) {
+      formatters[i] = new RowFormatter(separator);
+    }
+
+    try {
+      int rows = table.getRows();
+      int row = 0;
+      while (row < rows) {
+        List<Future<RowFormatter>> futures;
+        futures = new ArrayList<Future<RowFormatter>>(threads);
+        for (int i = 0; (i < threads) && (row < rows); i++) {
+          int end = Math.min(row + ROWS_PER_CHUNK, rows);
+          futures.add(executorService.submit(new FormatTableCallable(
+              formatters[i], table, row, end)));
+          row = end;
+        }
+        // write in order
+        for (Future<RowFormatter> future : futures) {
+          future.get().writeTo(channel);
+        }
+      }
+    } catch (InterruptedException e) {
+      LOG.error("InterruptedException: " + e.getMessage());
+    } catch (ExecutionException e) {
+      LOG.error("ExecutionException: " + e.getMessage());
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
+  private static void write(FileChannel channel, byte[] bytes)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static class FormatCallable implements Callable<RowFormatter> {
+    private RowFormatter m_formatter;
+    private List<Item> m_items;
+
+    public FormatCallable(RowFormatter formatter, List<Item> items) {
+      m_formatter = formatter;
+      m_items = items;
+    }
+
+    @Override
+    public RowFormatter call() throws Exception {
+      for (Item item : m_items) {
+        m_formatter.append(item);
+      }
+      return m_formatter;
+    }
+  }
+
+  private static class FormatTableCallable implements Callable<RowFormatter> {
+    private RowFormatter m_formatter;
+    private ItemTable m_table;
+    private int m_start;
+    private int m_end;
+
+    public FormatTableCallable(RowFormatter formatter, ItemTable table,
+        int start, int end) {
+      m_formatter = formatter;
+      m_table = table;
+      m_start = start;
+      m_end = end;
+    }
+
+    @Override
+    public RowFormatter call() throws Exception {
+      for (int row = m_start; row < m_end; row++) {
+        m_formatter.append(m_table, row);
+      }
+      return m_formatter;
+    }
+  }
+
+  /**
+   * Formats rows of id and class probabilities into a growing byte buffer,
+   * which is reused after it was written.
+   */
+  private static class RowFormatter {
+    private final DecimalFormatter m_decimalFormatter;
+    private final byte[] m_separator;
+    private byte[] m_buffer = new byte[FLUSH_SIZE];
+    private int m_length = 0;
+
+    public RowFormatter(byte[] separator) {
+      m_decimalFormatter = new DecimalFormatter(FRACTION_DIGITS);
+      m_separator = separator;
+    }
+
+    public void append(Item item) {
+      Map<Integer, Double> probabilities = item
+          .getPredictedClassProbabilities();
+      ensureCapacity(20 + NEW_LINE.length + probabilities.size()
+          * (m_separator.length + m_decimalFormatter.maxLength()));
+
+      appendId(item.getId());
+      // write probabilities
+      for (Double probability : probabilities.values()) {
+        m_length = put(m_separator, m_length);
+        m_length = m_decimalFormatter.format(probability, m_buffer, m_length);
+      }
+      m_length = put(NEW_LINE, m_length);
+    }
+
+    public void append(ItemTable table, int row) {
+      int classes = table.getTotalClasses();
+      ensureCapacity(20 + NEW_LINE.length + classes
+          * (m_separator.length + m_decimalFormatter.maxLength()));
+
+      appendId(table.getId(row));
+      // write probabilities
+      double[] probabilities = table.getProbabilities();
+      int offset = table.getOffset(row);
+      for (int i = offset; i < offset + classes; i++) {
+        m_length = put(m_separator, m_length);
+        m_length = m_decimalFormatter.format(probabilities[i], m_buffer,
+            m_length);
+      }
+      m_length = put(NEW_LINE, m_length);
+    }
+
+    private void appendId(Long id) {
+      if (id != null) {
+        m_length = DecimalFormatter.format(id, m_buffer, m_length);
+      } else {
+        m_length = put(NULL_BYTES, m_length);
+      }
+    }
+
+    private int put(byte[] bytes, int pos) {
+      System.arraycopy(bytes, 0, m_buffer, pos, bytes.length);
+      return pos + bytes.length;
+    }
+
+    private void ensureCapacity(int bytes) {
+      if (m_length + bytes > m_buffer.length) {
+        byte[] buffer = new byte[Math.max(2 * m_buffer.length, m_length
+            + bytes)];
+        System.arraycopy(m_buffer, 0, buffer, 0, m_length);
+        m_buffer = buffer;
+      }
+    }
+
+    public int length() {
+      return m_length;
+    }
+
+    public void writeTo(FileChannel channel) throws IOException {
+      ByteBuffer buffer = ByteBuffer.wrap(m_buffer, 0, m_length);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      m_length = 0;
+    }
+  }
+
+}
@@ -0,0 +1,253 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import libsvm.svm_node;
+import libsvm.svm_problem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.illecker.classification.io.MappedItemReader.Segment;
+
+/**
+ * Reads a local file in libSVM / svmlight format directly into an
+ * svm_problem. Each line has the form
+ * <label> [qid:<n>] <index1>:<value1> <index2>:<value2> ... [# comment]
+ * The file is memory-mapped and line-aligned byte ranges are parsed in
+ * parallel on a fork-join pool.
+ */
+public class LibSVMReader {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(LibSVMReader.class);
+
+  // minimum size of a byte range parsed by one parallel task
+  private static final int MIN_CHUNK_SIZE = 1 << 20;
+  private static final int CHUNKS_PER_THREAD = 4;
+  private static final ForkJoinPool POOL = new ForkJoinPool(Runtime
+      .getRuntime().availableProcessors());
+
+  public static svm_problem readProblem(String file) {
+    return readProblem(file, true);
+  }
+
+  /**
+   * Reads all lines of the file into an svm_problem. Malformed lines are
+   * logged and skipped. Returns null if the file could not be read.
+   */
+  public static svm_problem readProblem(String file, boolean parallel) {
+    List<ProblemChunk> chunks = new ArrayList<ProblemChunk>();
+    try {
+      for (Segment segment : MappedItemReader.mapSegments(file, false)) {
+        if (parallel) {
+          readChunksParallel(segment.buffer, segment.start, segment.end,
+              chunks);
+        } else {
+          chunks.add(readChunk(segment.buffer, segment.start, segment.end));
+        }
+      }
+    } catch (IOException e) {
+      LOG.error("IOException: " + e.getMessage());
+      return null;
+    }
+
+    // stitch chunks together in file order
+    int total = 0;
+    for (ProblemChunk chunk : chunks) {
+      total += chunk.size;
+    }
+    svm_problem svmProb = new svm_problem();
+    svmProb.l = total;
+    svmProb.y = new double[total];
+    svmProb.x = new svm_node[total][];
+    int i = 0;
+    for (ProblemChunk chunk : chunks) {
+      System.arraycopy(chunk.y, 0, svmProb.y, i, chunk.size);
+      System.arraycopy(chunk.x, 0, svmProb.x, i, chunk.size);
+      i += chunk.size;
+    }
+    LOG.info("Loaded svm_problem with " + total + " rows from " + file);
+    return svmProb;
+  }
+
+  private static void readChunksParallel(ByteBuffer buffer, int start,
+      int end, List<ProblemChunk> chunks) {
+    int count = POOL.getParallelism() * CHUNKS_PER_THREAD;
+    int chunkSize = Math.max(MIN_CHUNK_SIZE, (end - start) / count + 1);
+
+    // split into ranges aligned to line ends
+    List<ReadChunkTask> tasks = new ArrayList<ReadChunkTask>();
+    int pos = start;
+    while (pos < end) {
+      int rangeEnd = (end - pos > chunkSize) ? MappedItemReader.nextLine(
+          buffer, pos + chunkSize, end) : end;
+      tasks.add(new ReadChunkTask(buffer, pos, rangeEnd));
+      pos = rangeEnd;
+    }
+
+    for (ReadChunkTask task : tasks) {
+      POOL.execute(task);
+    }
+    for (ReadChunkTask task : tasks) {
+      chunks.add(task.join());
+    }
+  }
+
+  private static class ReadChunkTask extends RecursiveTask<ProblemChunk> {
+    private static final long serialVersionUID = -1874926630270157318L;
+    private final ByteBuffer m_buffer;
+    private final int m_start;
+    private final int m_end;
+
+    public ReadChunkTask(ByteBuffer buffer, int start, int end) {
+      m_buffer = buffer;
+      m_start = start;
+      m_end = end;
+    }
+
+    @Override
+    protected ProblemChunk compute() {
+      return readChunk(m_buffer, m_start, m_end);
+    }
+  }
+
+  /**
+   * Rows of a line-aligned byte range.
+   */
+  private static final class ProblemChunk {
+    double[] y = new double[1024];
+    svm_node[][] x = new svm_node[1024][];
+    int size = 0;
+
+    void add(double label, svm_node[] nodes) {
+      if (size == y.length) {
+        double[] newY = new double[2 * size];
+        System.arraycopy(y, 0, newY, 0, size);
+        y = newY;
+        svm_node[][] newX = new svm_node[2 * size][];
+        System.arraycopy(x, 0, newX, 0, size);
+        x = newX;
+      }
+      y[size] = label;
+      x[size] = nodes;
+      size++;
+    }
+  }
+
+  private static ProblemChunk readChunk(ByteBuffer buffer, int start,
+      int end) {
+    ProblemChunk chunk = new ProblemChunk();
+    // reusable buffers of the current line
+    int[] indices = new int[64];
+    double[] values = new double[64];
+
+    int pos = start;
+    while (pos < end) {
+      int next = MappedItemReader.nextLine(buffer, pos, end);
+      int lineEnd = MappedItemReader.trimLineEnd(buffer, pos, next);
+      // strip comment
+      int comment = RowDecoder.indexOf(buffer, (byte) '#', pos, lineEnd);
+      if (comment >= 0) {
+        lineEnd = comment;
+      }
+
+      int tokenStart = skipBlanks(buffer, pos, lineEnd);
+      if (tokenStart < lineEnd) {
+        try {
+          // <label>
+          int tokenEnd = nextBlank(buffer, tokenStart, lineEnd);
+          double label = RowDecoder.parseDouble(buffer, tokenStart, tokenEnd);
+
+          // <index>:<value> pairs
+          int n = 0;
+          tokenStart = skipBlanks(buffer, tokenEnd, lineEnd);
+          while (tokenStart < lineEnd) {
+            tokenEnd = nextBlank(buffer, tokenStart, lineEnd);
+            int colon = RowDecoder.indexOf(buffer, (byte) ':', tokenStart,
+                tokenEnd);
+            if (colon < 0) {
+              throw new NumberFormatException("Missing ':' in \""
+                  + RowDecoder.toString(buffer, tokenStart, tokenEnd) + "\"");
+            }
+            // svmlight query ids are not part of the feature vector
+            if (!isQid(buffer, tokenStart, colon)) {
+              if (n == indices.length) {
+                int[] newIndices = new int[2 * n];
+                System.arraycopy(indices, 0, newIndices, 0, n);
+                indices = newIndices;
+                double[] newValues = new double[2 * n];
+                System.arraycopy(values, 0, newValues, 0, n);
+                values = newValues;
+              }
+              indices[n] = (int) RowDecoder.parseLong(buffer, tokenStart,
+                  colon);
+              values[n] = RowDecoder.parseDouble(buffer, colon + 1, tokenEnd);
+              n++;
+            }
+            tokenStart = skipBlanks(buffer, tokenEnd, lineEnd);
+          }
+
+          svm_node[] nodes = new svm_node[n];
+          for (int j = 0; j < n; j++) {
+            svm_node node = new svm_node();
+            node.index = indices[j];
+            node.value = values[j];
+            nodes[j] = node;
+          }
+          chunk.add(label, nodes);
+
+        } catch (NumberFormatException e) {
+          LOG.error("Invalid line \"" + RowDecoder.toString(buffer, pos,
+              lineEnd) + "\": " + e.getMessage());
+        }
+      }
+      pos = next;
+    }
+    return chunk;
+  }
+
+  private static boolean isBlank(byte b) {
+    return (b == ' ') || (b == '\t');
+  }
+
+  private static int skipBlanks(ByteBuffer buffer, int pos, int end) {
+    while ((pos < end) && (isBlank(buffer.get(pos)))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static int nextBlank(ByteBuffer buffer, int pos, int end) {
+    while ((pos < end) && (!isBlank(buffer.get(pos)))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static boolean isQid(ByteBuffer buffer, int start, int end) {
+    return (end - start == 3) && (buffer.get(start) == 'q')
+        && (buffer.get(start + 1) == 'i') && (buffer.get(start + 2) == 'd');
+  }
+
+}
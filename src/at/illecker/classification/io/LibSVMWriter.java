@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.io;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import libsvm.svm_node;
+import libsvm.svm_problem;
+
+/**
+ * Writes an svm_problem in libSVM format
+ * <label> <index1>:<value1> <index2>:<value2> ...
+ * Rows are encoded into a reusable byte buffer, which is written through a
+ * FileChannel whenever it is full. Labels and values are printed by
+ * Double.toString and can be read back exactly by {@link LibSVMReader}.
+ */
+public class LibSVMWriter {
+  private static final int BUFFER_SIZE = 1 << 20;
+  // longest output of Double.toString is 24 characters
+  private static final int MAX_DOUBLE_LENGTH = 24;
+  private static final byte[] NEW_LINE = System.getProperty(
+      "line.separator").getBytes(Charset.forName("UTF-8"));
+
+  private static final ExecutorService EXEC_SERV = Executors
+      .newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "LibSVMWriter");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  /**
+   * Writes the problem on a background thread. The problem must not be
+   * modified until the returned future has completed.
+   */
+  public static Future<Void> writeProblemAsync(final svm_problem svmProb,
+      final String file) {
+    return EXEC_SERV.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        writeProblem(svmProb, file);
+        return null;
+      }
+    });
+  }
+
+  public static void writeProblem(svm_problem svmProb, String file)
+      throws IOException {
+    FileOutputStream os = new FileOutputStream(file);
+    try {
+      FileChannel channel = os.getChannel();
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int length = 0;
+      for (int i = 0; i < svmProb.l; i++) {
+        // <label>
+        if (length + MAX_DOUBLE_LENGTH > buffer.length) {
+          length = write(channel, buffer, length);
+        }
+        length = put(Double.toString(svmProb.y[i]), buffer, length);
+
+        for (svm_node node : svmProb.x[i]) {
+          if (node.value != 0) {
+            // <index>:<value>
+            if (length + MAX_DOUBLE_LENGTH + 14 > buffer.length) {
+              length = write(channel, buffer, length);
+            }
+            buffer[length++] = ' ';
+            length = DecimalFormatter.format(node.index, buffer, length);
+            buffer[length++] = ':';
+            length = put(Double.toString(node.value), buffer, length);
+          }
+        }
+
+        if (length + NEW_LINE.length > buffer.length) {
+          length = write(channel, buffer, length);
+        }
+        System.arraycopy(NEW_LINE, 0, buffer, length, NEW_LINE.length);
+        length += NEW_LINE.length;
+      }
+      write(channel, buffer, length);
+    } finally {
+      os.close();
+    }
+  }
+
+  private static int put(String s, byte[] buffer, int pos) {
+    // Double.toString returns ASCII characters only
+    for (int i = 0; i < s.length(); i++) {
+      buffer[pos++] = (byte) s.charAt(i);
+    }
+    return pos;
+  }
+
+  private static int write(FileChannel channel, byte[] buffer, int length)
+      throws IOException {
+    ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, length);
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+    return 0;
+  }
+
+}
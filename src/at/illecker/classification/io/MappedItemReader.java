@@ -0,0 +1,418 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.illecker.classification.commons.Dataset;
+import at.illecker.classification.commons.DenseMatrix;
+import at.illecker.classification.commons.Item;
+
+/**
+ * Reads items from a local CSV file by mapping it into memory and scanning
+ * the raw bytes for line ends. Each line is decoded directly from the mapped
+ * buffer by the {@link RowDecoder} of the dataset.
+ */
+public class MappedItemReader {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MappedItemReader.class);
+  // a single mapping is limited to Integer.MAX_VALUE bytes
+  static final long MAX_MAPPING_SIZE = Integer.MAX_VALUE;
+
+  // minimum size of a byte range parsed by one parallel task
+  private static final int MIN_CHUNK_SIZE = 1 << 20;
+  private static final int CHUNKS_PER_THREAD = 4;
+  private static final ForkJoinPool POOL = new ForkJoinPool(Runtime
+      .getRuntime().availableProcessors());
+
+  public static boolean isSupported(String file, Dataset dataset) {
+    if ((file == null) || (file.endsWith(".gz"))) {
+      return false;
+    }
+    if (!RowDecoder.isByteDelimiter(dataset.getDelimiter())) {
+      return false;
+    }
+    return new File(file).isFile();
+  }
+
+  public static List<Item> readItems(String file, Dataset dataset,
+      boolean readActualClass) {
+    return readItems(file, dataset, readActualClass, false);
+  }
+
+  /**
+   * Reads all items of the file. If parallel is set, each mapping is split
+   * into byte ranges aligned to line ends, which are parsed on a fork-join
+   * pool and concatenated in file order.
+   */
+  public static List<Item> readItems(String file, Dataset dataset,
+      boolean readActualClass, boolean parallel) {
+    List<Item> items = new ArrayList<Item>();
+    RowDecoder decoder = dataset.getRowDecoder(readActualClass);
+    try {
+      for (Segment segment : mapSegments(file, dataset.skipFirstLine())) {
+        if (parallel) {
+          readItemsParallel(segment.buffer, segment.start, segment.end,
+              decoder, items);
+        } else {
+          readItems(segment.buffer, segment.start, segment.end, decoder, items);
+        }
+      }
+    } catch (IOException e) {
+      LOG.error("IOException: " + e.getMessage());
+    }
+    LOG.info("Loaded total " + items.size() + " items");
+    return items;
+  }
+
+  /**
+   * Reads all rows of the file into a dense matrix. The lines of each
+   * line-aligned range are counted first, so that every range is decoded
+   * directly into its final rows. Rows of malformed lines are removed
+   * afterwards.
+   */
+  public static DenseMatrix readMatrix(String file, Dataset dataset,
+      boolean readActualClass, boolean parallel) {
+    RowDecoder decoder = dataset.getRowDecoder(readActualClass);
+    List<Segment> ranges = new ArrayList<Segment>();
+    try {
+      for (Segment segment : mapSegments(file, dataset.skipFirstLine())) {
+        if (parallel) {
+          splitRanges(segment, ranges);
+        } else {
+          ranges.add(segment);
+        }
+      }
+    } catch (IOException e) {
+      LOG.error("IOException: " + e.getMessage());
+      return null;
+    }
+
+    // count lines of each range
+    int[] rowStarts = new int[ranges.size() + 1];
+    List<CountLinesTask> countTasks = new ArrayList<CountLinesTask>();
+    for (Segment range : ranges) {
+      countTasks.add(new CountLinesTask(range));
+    }
+    invokeAll(countTasks, parallel);
+    for (int i = 0; i < countTasks.size(); i++) {
+      rowStarts[i + 1] = rowStarts[i] + countTasks.get(i).join();
+    }
+
+    // decode each range into its rows
+    DenseMatrix matrix = decoder.createMatrix(rowStarts[ranges.size()]);
+    List<DecodeMatrixTask> decodeTasks = new ArrayList<DecodeMatrixTask>();
+    for (int i = 0; i < ranges.size(); i++) {
+      decodeTasks.add(new DecodeMatrixTask(ranges.get(i), decoder, matrix,
+          rowStarts[i]));
+    }
+    invokeAll(decodeTasks, parallel);
+
+    // close the gaps of empty or malformed lines
+    int rows = 0;
+    for (int i = 0; i < decodeTasks.size(); i++) {
+      int decoded = decodeTasks.get(i).join();
+      if (rows != rowStarts[i]) {
+        matrix.moveRows(rowStarts[i], rows, decoded);
+      }
+      rows += decoded;
+    }
+    matrix.truncate(rows);
+    LOG.info("Loaded total " + rows + " rows");
+    return matrix;
+  }
+
+  private static void splitRanges(Segment segment, List<Segment> ranges) {
+    int chunks = POOL.getParallelism() * CHUNKS_PER_THREAD;
+    int chunkSize = Math.max(MIN_CHUNK_SIZE, (segment.end - segment.start)
+        / chunks + 1);
+    int pos = segment.start;
+    while (pos < segment.end) {
+      int rangeEnd = (segment.end - pos > chunkSize) ? nextLine(
+          segment.buffer, pos + chunkSize, segment.end) : segment.end;
+      ranges.add(new Segment(segment.buffer, pos, rangeEnd));
+      pos = rangeEnd;
+    }
+  }
+
+  private static void invokeAll(List<? extends RecursiveTask<Integer>> tasks,
+      boolean parallel) {
+    for (RecursiveTask<Integer> task : tasks) {
+      if (parallel) {
+        POOL.execute(task);
+      } else {
+        task.invoke();
+      }
+    }
+  }
+
+  private static class CountLinesTask extends RecursiveTask<Integer> {
+    private static final long serialVersionUID = -2264870592931620118L;
+    private final Segment m_range;
+
+    public CountLinesTask(Segment range) {
+      m_range = range;
+    }
+
+    @Override
+    protected Integer compute() {
+      ByteBuffer buffer = m_range.buffer;
+      int lines = 0;
+      for (int pos = m_range.start; pos < m_range.end; pos++) {
+        if (buffer.get(pos) == '\n') {
+          lines++;
+        }
+      }
+      // last line without terminator
+      if ((m_range.end > m_range.start)
+          && (buffer.get(m_range.end - 1) != '\n')) {
+        lines++;
+      }
+      return lines;
+    }
+  }
+
+  private static class DecodeMatrixTask extends RecursiveTask<Integer> {
+    private static final long serialVersionUID = 6053183129419402874L;
+    private final Segment m_range;
+    private final RowDecoder m_decoder;
+    private final DenseMatrix m_matrix;
+    private final int m_rowStart;
+
+    public DecodeMatrixTask(Segment range, RowDecoder decoder,
+        DenseMatrix matrix, int rowStart) {
+      m_range = range;
+      m_decoder = decoder;
+      m_matrix = matrix;
+      m_rowStart = rowStart;
+    }
+
+    @Override
+    protected Integer compute() {
+      ByteBuffer buffer = m_range.buffer;
+      int row = m_rowStart;
+      int pos = m_range.start;
+      while (pos < m_range.end) {
+        int next = nextLine(buffer, pos, m_range.end);
+        int lineEnd = trimLineEnd(buffer, pos, next);
+        if ((lineEnd > pos)
+            && (m_decoder.decode(buffer, pos, lineEnd, m_matrix, row))) {
+          row++;
+        }
+        pos = next;
+      }
+      return row - m_rowStart;
+    }
+  }
+
+  /**
+   * Returns a spliterator which parses the items of the file lazily. It
+   * splits at line ends and can therefore be consumed by parallel streams.
+   */
+  public static Spliterator<Item> spliterator(String file, Dataset dataset,
+      boolean readActualClass) {
+    List<Segment> segments = null;
+    try {
+      segments = mapSegments(file, dataset.skipFirstLine());
+    } catch (IOException e) {
+      LOG.error("IOException: " + e.getMessage());
+      segments = new ArrayList<Segment>();
+    }
+    return new MappedItemSpliterator(segments,
+        dataset.getRowDecoder(readActualClass));
+  }
+
+  /**
+   * Maps the file into segments of at most MAX_MAPPING_SIZE bytes. Each
+   * segment holds complete lines only. The mappings stay valid after the
+   * underlying channel is closed.
+   */
+  static List<Segment> mapSegments(String file, boolean skipFirstLine)
+      throws IOException {
+    List<Segment> segments = new ArrayList<Segment>();
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(file, "r");
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      long offset = 0;
+      boolean skipLine = skipFirstLine;
+      while (offset < size) {
+        long length = Math.min(MAX_MAPPING_SIZE, size - offset);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+            offset, length);
+        // only process complete lines unless this is the last mapping
+        int end = (int) length;
+        if (offset + length < size) {
+          end = lastLineEnd(buffer, end);
+          if (end <= 0) {
+            throw new IOException("Line exceeds maximum mapping size at offset "
+                + offset);
+          }
+        }
+
+        int pos = 0;
+        if (skipLine) {
+          pos = nextLine(buffer, pos, end);
+          skipLine = false;
+        }
+        segments.add(new Segment(buffer, pos, end));
+
+        offset += end;
+      }
+    } finally {
+      if (raf != null) {
+        try {
+          raf.close();
+        } catch (IOException ignore) {
+        }
+      }
+    }
+    return segments;
+  }
+
+  static final class Segment {
+    final ByteBuffer buffer;
+    final int start;
+    final int end;
+
+    Segment(ByteBuffer buffer, int start, int end) {
+      this.buffer = buffer;
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  /**
+   * Parses all lines within [start, end) of the buffer and appends the items
+   * to the given list.
+   */
+  static void readItems(ByteBuffer buffer, int start, int end,
+      RowDecoder decoder, List<Item> items) {
+    int pos = start;
+    while (pos < end) {
+      int next = nextLine(buffer, pos, end);
+      int lineEnd = trimLineEnd(buffer, pos, next);
+      if (lineEnd > pos) {
+        Item item = decoder.decode(buffer, pos, lineEnd);
+        if (item != null) {
+          items.add(item);
+        }
+      }
+      pos = next;
+    }
+  }
+
+  private static void readItemsParallel(ByteBuffer buffer, int start,
+      int end, RowDecoder decoder, List<Item> items) {
+    int chunks = POOL.getParallelism() * CHUNKS_PER_THREAD;
+    int chunkSize = Math.max(MIN_CHUNK_SIZE, (end - start) / chunks + 1);
+
+    // split into ranges aligned to line ends
+    List<ReadItemsTask> tasks = new ArrayList<ReadItemsTask>();
+    int pos = start;
+    while (pos < end) {
+      int rangeEnd = (end - pos > chunkSize) ? nextLine(buffer, pos
+          + chunkSize, end) : end;
+      tasks.add(new ReadItemsTask(buffer, pos, rangeEnd, decoder));
+      pos = rangeEnd;
+    }
+
+    for (ReadItemsTask task : tasks) {
+      POOL.execute(task);
+    }
+    // stitch results together in file order
+    for (ReadItemsTask task : tasks) {
+      items.addAll(task.join());
+    }
+  }
+
+  private static class ReadItemsTask extends RecursiveTask<List<Item>> {
+    private static final long serialVersionUID = 3120479556151858716L;
+    private final ByteBuffer m_buffer;
+    private final int m_start;
+    private final int m_end;
+    private final RowDecoder m_decoder;
+
+    public ReadItemsTask(ByteBuffer buffer, int start, int end,
+        RowDecoder decoder) {
+      m_buffer = buffer;
+      m_start = start;
+      m_end = end;
+      m_decoder = decoder;
+    }
+
+    @Override
+    protected List<Item> compute() {
+      List<Item> items = new ArrayList<Item>();
+      readItems(m_buffer, m_start, m_end, m_decoder, items);
+      return items;
+    }
+  }
+
+  /**
+   * Returns the position after the next line terminator or end.
+   */
+  static int nextLine(ByteBuffer buffer, int pos, int end) {
+    while (pos < end) {
+      if (buffer.get(pos++) == '\n') {
+        break;
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * Returns the end of a line [start, next) without the line terminator.
+   */
+  static int trimLineEnd(ByteBuffer buffer, int start, int next) {
+    int end = next;
+    if ((end > start) && (buffer.get(end - 1) == '\n')) {
+      end--;
+    }
+    if ((end > start) && (buffer.get(end - 1) == '\r')) {
+      end--;
+    }
+    return end;
+  }
+
+  /**
+   * Returns the position after the last line terminator before end or 0.
+   */
+  static int lastLineEnd(ByteBuffer buffer, int end) {
+    for (int pos = end - 1; pos >= 0; pos--) {
+      if (buffer.get(pos) == '\n') {
+        return pos + 1;
+      }
+    }
+    return 0;
+  }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.io;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import at.illecker.classification.commons.Item;
+import at.illecker.classification.io.MappedItemReader.Segment;
+
+/**
+ * Lazily parses the items of mapped segments. Splitting happens at segment
+ * boundaries first and then at line ends within a segment, so every split
+ * covers a prefix of complete lines.
+ */
+class MappedItemSpliterator implements Spliterator<Item> {
+  // do not split ranges smaller than this
+  private static final int MIN_SPLIT_SIZE = 1 << 16;
+  // assumed average line length used for size estimates
+  private static final int ESTIMATED_LINE_LENGTH = 256;
+
+  private final List<Segment> m_segments;
+  private final RowDecoder m_decoder;
+
+  private int m_segment; // current segment
+  private int m_pos; // position within current segment
+  private int m_end; // end within current segment
+  private final int m_lastSegment; // inclusive
+
+  MappedItemSpliterator(List<Segment> segments, RowDecoder decoder) {
+    this(segments, decoder, 0, segments.size() - 1,
+        (segments.isEmpty()) ? 0 : segments.get(0).start,
+        (segments.isEmpty()) ? 0 : segments.get(0).end);
+  }
+
+  private MappedItemSpliterator(List<Segment> segments, RowDecoder decoder,
+      int segment, int lastSegment, int pos, int end) {
+    m_segments = segments;
+    m_decoder = decoder;
+    m_segment = segment;
+    m_lastSegment = lastSegment;
+    m_pos = pos;
+    m_end = end;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super Item> action) {
+    while (m_segment <= m_lastSegment) {
+      Segment segment = m_segments.get(m_segment);
+      while (m_pos < m_end) {
+        int next = MappedItemReader.nextLine(segment.buffer, m_pos, m_end);
+        int lineEnd = MappedItemReader.trimLineEnd(segment.buffer, m_pos, next);
+        int lineStart = m_pos;
+        m_pos = next;
+        if (lineEnd > lineStart) {
+          Item item = m_decoder.decode(segment.buffer, lineStart, lineEnd);
+          if (item != null) {
+            action.accept(item);
+            return true;
+          }
+        }
+      }
+      // move to next segment
+      m_segment++;
+      if (m_segment <= m_lastSegment) {
+        m_pos = m_segments.get(m_segment).start;
+        m_end = m_segments.get(m_segment).end;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Spliterator<Item> trySplit() {
+    if (m_segment < m_lastSegment) {
+      // split off the first half of the remaining segments
+      int mid = m_segment + (m_lastSegment - m_segment) / 2;
+      MappedItemSpliterator prefix = new MappedItemSpliterator(m_segments,
+          m_decoder, m_segment, mid, m_pos, m_end);
+      m_segment = mid + 1;
+      m_pos = m_segments.get(m_segment).start;
+      m_end = m_segments.get(m_segment).end;
+      return prefix;
+    }
+    if ((m_segment == m_lastSegment) && (m_end - m_pos >= 2 * MIN_SPLIT_SIZE)) {
+      // split the current segment at a line end
+      Segment segment = m_segments.get(m_segment);
+      int split = MappedItemReader.nextLine(segment.buffer, m_pos
+          + (m_end - m_pos) / 2, m_end);
+      if (split >= m_end) {
+        return null;
+      }
+      MappedItemSpliterator prefix = new MappedItemSpliterator(m_segments,
+          m_decoder, m_segment, m_segment, m_pos, split);
+      m_pos = split;
+      return prefix;
+    }
+    return null;
+  }
+
+  @Override
+  public long estimateSize() {
+    if (m_segment > m_lastSegment) {
+      return 0;
+    }
+    long bytes = m_end - m_pos;
+    for (int i = m_segment + 1; i <= m_lastSegment; i++) {
+      bytes += m_segments.get(i).end - m_segments.get(i).start;
+    }
+    return (bytes + ESTIMATED_LINE_LENGTH - 1) / ESTIMATED_LINE_LENGTH;
+  }
+
+  @Override
+  public int characteristics() {
+    return ORDERED | NONNULL | IMMUTABLE;
+  }
+
+}
@@ -0,0 +1,431 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates the members of a multi-member gzip file (e.g., written by bgzip
+ * or by concatenating gzip files) in parallel. The compressed file is
+ * memory-mapped and scanned for gzip headers. Every header is speculatively
+ * inflated as a member on a thread pool, but only members which start at the
+ * verified end of their predecessor are returned, so false header matches
+ * within compressed data are discarded. A member is inflated into memory only
+ * up to MAX_MEMBER_SIZE bytes, which bounds the heap to the window of members
+ * in flight. The first larger member switches the rest of the file to a
+ * sequential {@link PipelinedInputStream}.
+ */
+public class ParallelGZIPInputStream extends InputStream {
+  // bytes scanned to decide whether a file has multiple members
+  private static final int PROBE_SIZE = 4 << 20;
+  private static final int INFLATE_BUFFER_SIZE = 65536;
+  // inflated bytes of a member which are held in memory
+  private static final int MAX_MEMBER_SIZE = 16 << 20;
+
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+
+  private static final int THREADS = Runtime.getRuntime()
+      .availableProcessors();
+  private static final ExecutorService EXEC_SERV = Executors
+      .newFixedThreadPool(THREADS, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "ParallelGZIPInputStream-inflater");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private final ByteBuffer m_compressed;
+  private final int m_size;
+  // speculative members by start offset
+  private final TreeMap<Integer, Future<Member>> m_inflight;
+  private final int m_window;
+  private int m_scanPos = 0;
+  private int m_nextMember = 0;
+
+  private byte[] m_data = new byte[0];
+  private int m_length = 0;
+  private int m_pos = 0;
+  // sequential stream of the remaining members once one is too large
+  private InputStream m_sequential = null;
+
+  private static final class Member {
+    final byte[] data;
+    final int length;
+    final int end;
+
+    Member(byte[] data, int length, int end) {
+      this.data = data;
+      this.length = length;
+      this.end = end;
+    }
+  }
+
+  private ParallelGZIPInputStream(ByteBuffer compressed) {
+    m_compressed = compressed;
+    m_size = compressed.limit();
+    m_inflight = new TreeMap<Integer, Future<Member>>();
+    m_window = 2 * THREADS;
+  }
+
+  /**
+   * Opens the local gzip file with parallel member inflation if it contains
+   * more than one member, otherwise returns null.
+   */
+  public static InputStream open(String file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      if (channel.size() > MappedItemReader.MAX_MAPPING_SIZE) {
+        return null;
+      }
+      ByteBuffer compressed = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          channel.size());
+      int probeEnd = Math.min(PROBE_SIZE, compressed.limit());
+      if ((!isHeader(compressed, 0))
+          || (nextHeader(compressed, 1, probeEnd) < 0)) {
+        return null;
+      }
+      return new ParallelGZIPInputStream(compressed);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Returns true if a plausible gzip member header starts at pos.
+   */
+  static boolean isHeader(ByteBuffer buffer, int pos) {
+    if (pos + 10 > buffer.limit()) {
+      return false;
+    }
+    if (((buffer.get(pos) & 0xFF) != 0x1F)
+        || ((buffer.get(pos + 1) & 0xFF) != 0x8B)
+        || (buffer.get(pos + 2) != 8)) {
+      return false;
+    }
+    int flags = buffer.get(pos + 3) & 0xFF;
+    int xfl = buffer.get(pos + 8) & 0xFF;
+    int os = buffer.get(pos + 9) & 0xFF;
+    return ((flags & 0xE0) == 0) && ((xfl == 0) || (xfl == 2) || (xfl == 4))
+        && ((os <= 13) || (os == 255));
+  }
+
+  private static int nextHeader(ByteBuffer buffer, int start, int end) {
+    for (int pos = start; pos < end; pos++) {
+      if (((buffer.get(pos) & 0xFF) == 0x1F) && (isHeader(buffer, pos))) {
+        return pos;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Speculatively schedules members at the next header candidates.
+   */
+  private void schedule() {
+    if (m_scanPos < m_nextMember) {
+      m_scanPos = m_nextMember;
+    }
+    while ((m_inflight.size() < m_window) && (m_scanPos < m_size)) {
+      int pos = nextHeader(m_compressed, m_scanPos, m_size);
+      if (pos < 0) {
+        m_scanPos = m_size;
+        break;
+      }
+      m_scanPos = pos + 1;
+      if (!m_inflight.containsKey(pos)) {
+        m_inflight.put(pos, EXEC_SERV.submit(new InflateCallable(
+            m_compressed, pos)));
+      }
+    }
+  }
+
+  private boolean ensureData() throws IOException {
+    while ((m_sequential == null) && (m_pos >= m_length)) {
+      if (m_nextMember >= m_size) {
+        return false;
+      }
+      // discard false candidates before the next member
+      Map<Integer, Future<Member>> skipped = m_inflight.headMap(m_nextMember);
+      for (Future<Member> future : skipped.values()) {
+        future.cancel(false);
+      }
+      skipped.clear();
+
+      schedule();
+      Future<Member> future = m_inflight.remove(m_nextMember);
+      if (future == null) {
+        // trailing garbage after the last member
+        if (!isHeader(m_compressed, m_nextMember)) {
+          m_nextMember = m_size;
+          return false;
+        }
+        future = EXEC_SERV.submit(new InflateCallable(m_compressed,
+            m_nextMember));
+      }
+      try {
+        Member member = future.get();
+        if (member == null) {
+          streamSequentially();
+          return true;
+        }
+        m_data = member.data;
+        m_length = member.length;
+        m_pos = 0;
+        m_nextMember = member.end;
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException(e.getMessage());
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Streams the members from the next member on by a single inflater.
+   */
+  private void streamSequentially() throws IOException {
+    for (Future<Member> future : m_inflight.values()) {
+      future.cancel(false);
+    }
+    m_inflight.clear();
+    ByteBuffer remaining = m_compressed.duplicate();
+    remaining.position(m_nextMember);
+    m_sequential = new PipelinedInputStream(new GZIPInputStream(
+        new BufferInputStream(remaining.slice()), INFLATE_BUFFER_SIZE));
+    m_nextMember = m_size;
+    m_length = 0;
+    m_pos = 0;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureData()) {
+      return -1;
+    }
+    if (m_sequential != null) {
+      return m_sequential.read();
+    }
+    return m_data[m_pos++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureData()) {
+      return -1;
+    }
+    if (m_sequential != null) {
+      return m_sequential.read(b, off, len);
+    }
+    int n = Math.min(len, m_length - m_pos);
+    System.arraycopy(m_data, m_pos, b, off, n);
+    m_pos += n;
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+    if (m_sequential != null) {
+      return m_sequential.available();
+    }
+    return m_length - m_pos;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Future<Member> future : m_inflight.values()) {
+      future.cancel(false);
+    }
+    m_inflight.clear();
+    m_nextMember = m_size;
+    m_length = 0;
+    m_pos = 0;
+    if (m_sequential != null) {
+      m_sequential.close();
+    }
+  }
+
+  /**
+   * Input stream of the remaining bytes of a buffer.
+   */
+  private static class BufferInputStream extends InputStream {
+    private final ByteBuffer m_buffer;
+
+    public BufferInputStream(ByteBuffer buffer) {
+      m_buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return (m_buffer.hasRemaining()) ? m_buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!m_buffer.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(len, m_buffer.remaining());
+      m_buffer.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return m_buffer.remaining();
+    }
+  }
+
+  private static class InflateCallable implements Callable<Member> {
+    private final ByteBuffer m_compressed;
+    private final int m_start;
+
+    public InflateCallable(ByteBuffer compressed, int start) {
+      m_compressed = compressed;
+      m_start = start;
+    }
+
+    /**
+     * Returns the inflated member or null if it exceeds MAX_MEMBER_SIZE.
+     */
+    @Override
+    public Member call() throws Exception {
+      ByteBuffer in = m_compressed.duplicate();
+      int pos = skipHeader(in, m_start);
+
+      Inflater inflater = new Inflater(true);
+      CRC32 crc = new CRC32();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(
+          INFLATE_BUFFER_SIZE);
+      byte[] input = new byte[INFLATE_BUFFER_SIZE];
+      byte[] output = new byte[INFLATE_BUFFER_SIZE];
+      try {
+        while (!inflater.finished()) {
+          if (inflater.needsInput()) {
+            int n = Math.min(input.length, in.limit() - pos);
+            if (n <= 0) {
+              throw new IOException("Unexpected end of gzip member at "
+                  + m_start);
+            }
+            in.position(pos);
+            in.get(input, 0, n);
+            pos += n;
+            inflater.setInput(input, 0, n);
+          }
+          int n = inflater.inflate(output);
+          if ((n == 0) && (inflater.needsDictionary())) {
+            throw new IOException("Invalid gzip member at " + m_start);
+          }
+          if (out.size() + n > MAX_MEMBER_SIZE) {
+            // too large to be held in memory
+            return null;
+          }
+          crc.update(output, 0, n);
+          out.write(output, 0, n);
+        }
+        // rewind unused input to the trailer
+        pos -= inflater.getRemaining();
+      } catch (DataFormatException e) {
+        throw new IOException("Invalid gzip member at " + m_start + ": "
+            + e.getMessage());
+      } finally {
+        inflater.end();
+      }
+
+      // verify trailer
+      if (pos + 8 > in.limit()) {
+        throw new IOException("Missing gzip trailer at " + m_start);
+      }
+      long expectedCrc = readInt(in, pos) & 0xFFFFFFFFL;
+      long expectedSize = readInt(in, pos + 4) & 0xFFFFFFFFL;
+      if ((expectedCrc != crc.getValue())
+          || (expectedSize != (out.size() & 0xFFFFFFFFL))) {
+        throw new IOException("Corrupt gzip member at " + m_start);
+      }
+      return new Member(out.toByteArray(), out.size(), pos + 8);
+    }
+
+    private static int skipHeader(ByteBuffer in, int start)
+        throws IOException {
+      int flags = in.get(start + 3) & 0xFF;
+      int pos = start + 10;
+      if ((flags & FEXTRA) != 0) {
+        int xlen = (in.get(pos) & 0xFF) | ((in.get(pos + 1) & 0xFF) << 8);
+        pos += 2 + xlen;
+      }
+      if ((flags & FNAME) != 0) {
+        while ((pos < in.limit()) && (in.get(pos) != 0)) {
+          pos++;
+        }
+        pos++;
+      }
+      if ((flags & FCOMMENT) != 0) {
+        while ((pos < in.limit()) && (in.get(pos) != 0)) {
+          pos++;
+        }
+        pos++;
+      }
+      if ((flags & FHCRC) != 0) {
+        pos += 2;
+      }
+      if (pos >= in.limit()) {
+        throw new IOException("Invalid gzip header at " + start);
+      }
+      return pos;
+    }
+
+    private static int readInt(ByteBuffer in, int pos) {
+      return (in.get(pos) & 0xFF) | ((in.get(pos + 1) & 0xFF) << 8)
+          | ((in.get(pos + 2) & 0xFF) << 16)
+          | ((in.get(pos + 3) & 0xFF) << 24);
+    }
+  }
+
+}
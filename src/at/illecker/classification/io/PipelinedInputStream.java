@@ -0,0 +1,194 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the underlying stream (e.g., a GZIPInputStream) on a background
+ * thread into a ring of reusable buffers, so that decompression and the
+ * consumer run on different cores. The underlying stream is read and closed
+ * by the reader thread only.
+ */
+public class PipelinedInputStream extends InputStream {
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+  public static final int DEFAULT_BUFFER_COUNT = 4;
+
+  private final InputStream m_in;
+  // empty buffers to be filled by the reader thread
+  private final BlockingQueue<Chunk> m_free;
+  // filled buffers in stream order
+  private final BlockingQueue<Chunk> m_filled;
+  private final Thread m_reader;
+
+  private Chunk m_current = null;
+  private int m_pos = 0;
+  private boolean m_eof = false;
+  private volatile boolean m_closed = false;
+
+  private static final class Chunk {
+    final byte[] data;
+    int length;
+    IOException exception;
+
+    Chunk(int size) {
+      data = new byte[size];
+    }
+  }
+
+  public PipelinedInputStream(InputStream in) {
+    this(in, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+  }
+
+  public PipelinedInputStream(InputStream in, int bufferSize, int bufferCount) {
+    m_in = in;
+    m_free = new ArrayBlockingQueue<Chunk>(bufferCount);
+    m_filled = new ArrayBlockingQueue<Chunk>(bufferCount);
+    for (int i = 0; i < bufferCount; i++) {
+      m_free.add(new Chunk(bufferSize));
+    }
+    m_reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        fill();
+      }
+    }, "PipelinedInputStream-reader");
+    m_reader.setDaemon(true);
+    m_reader.start();
+  }
+
+  private void fill() {
+    try {
+      while (!m_closed) {
+        Chunk chunk = m_free.take();
+        chunk.exception = null;
+        try {
+          // fill the whole chunk unless the stream ends
+          int length = 0;
+          int n = 0;
+          while ((length < chunk.data.length)
+              && ((n = m_in.read(chunk.data, length, chunk.data.length
+                  - length)) >= 0)) {
+            length += n;
+          }
+          chunk.length = (length == 0) ? -1 : length;
+          if ((n < 0) && (length > 0)) {
+            m_filled.put(chunk);
+            chunk = m_free.take();
+            chunk.exception = null;
+            chunk.length = -1;
+          }
+        } catch (IOException e) {
+          chunk.length = -1;
+          chunk.exception = e;
+        }
+        m_filled.put(chunk);
+        if (chunk.length < 0) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      // closed by consumer
+    } finally {
+      // the stream is only used by this thread
+      try {
+        m_in.close();
+      } catch (IOException ignore) {
+      }
+    }
+  }
+
+  /**
+   * Returns true if data is available in the current chunk or false at the
+   * end of the stream.
+   */
+  private boolean ensureData() throws IOException {
+    if ((m_current != null) && (m_pos < m_current.length)) {
+      return true;
+    }
+    if (m_eof) {
+      return false;
+    }
+    if (m_closed) {
+      throw new IOException("Stream closed");
+    }
+    // recycle current chunk
+    if (m_current != null) {
+      m_free.add(m_current);
+      m_current = null;
+    }
+    try {
+      Chunk chunk = m_filled.take();
+      if (chunk.length < 0) {
+        m_eof = true;
+        if (chunk.exception != null) {
+          throw chunk.exception;
+        }
+        return false;
+      }
+      m_current = chunk;
+      m_pos = 0;
+      return true;
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException(e.getMessage());
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureData()) {
+      return -1;
+    }
+    return m_current.data[m_pos++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureData()) {
+      return -1;
+    }
+    int n = Math.min(len, m_current.length - m_pos);
+    System.arraycopy(m_current.data, m_pos, b, off, n);
+    m_pos += n;
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return (m_current != null) ? m_current.length - m_pos : 0;
+  }
+
+  /**
+   * Stops the reader thread, which closes the underlying stream once its
+   * current read returns.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!m_closed) {
+      m_closed = true;
+      m_reader.interrupt();
+    }
+  }
+
+}
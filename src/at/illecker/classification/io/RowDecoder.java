@@ -0,0 +1,512 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.illecker.classification.commons.Dataset;
+import at.illecker.classification.commons.DenseMatrix;
+import at.illecker.classification.commons.FeatureCodec;
+import at.illecker.classification.commons.Item;
+import at.illecker.classification.commons.SparseVector;
+
+/**
+ * Row decoder compiled once from the column schema of a {@link Dataset}. The
+ * role of every column is resolved into a lookup table, the label regex is
+ * either reduced to a literal prefix or precompiled and columns which are
+ * not used are skipped without parsing.
+ */
+public class RowDecoder {
+  private static final Logger LOG = LoggerFactory.getLogger(RowDecoder.class);
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}";
+
+  // column roles, a column may have several roles
+  private static final byte SKIP = 0;
+  private static final byte ID = 1;
+  private static final byte LABEL = 2;
+  private static final byte FEATURE = 4;
+
+  // 10^0 ... 10^22 are exactly representable as double
+  private static final double[] POWERS_OF_TEN = new double[23];
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+  private final byte[] m_columns;
+  private final int m_lastColumn;
+  private final int m_featureStart;
+  private final int m_featureCount;
+  // storage precision of feature values
+  private final FeatureCodec m_codec;
+  private final boolean m_quantize;
+  private final byte m_delimiter;
+  private final Pattern m_delimiterPattern;
+  // literal label prefix or null
+  private final byte[] m_labelPrefix;
+  // label regex if it is not a literal prefix or null
+  private final Pattern m_labelPattern;
+  private final boolean m_hasLabelOffset;
+  private final int m_labelOffset;
+  // scratch row of every parsing thread, the decoder is shared by them
+  private final ThreadLocal<Scratch> m_scratch;
+
+  /**
+   * Feature indices and values of the row being decoded.
+   */
+  private static final class Scratch {
+    final int[] indices;
+    final double[] values;
+
+    Scratch(int featureCount) {
+      indices = new int[featureCount];
+      values = new double[featureCount];
+    }
+  }
+
+  public RowDecoder(Dataset dataset, boolean readActualClass) {
+    int idIndex = dataset.getIdIndex();
+    int labelIndex = (readActualClass) ? dataset.getActualClassIndex() : -1;
+    int featureStart = dataset.getFeatureVectorStartIdx();
+    int featureEnd = dataset.getFeatureVectorEndIdx();
+
+    m_lastColumn = Math.max(Math.max(idIndex, labelIndex), featureEnd);
+    m_columns = new byte[m_lastColumn + 1];
+    m_columns[idIndex] |= ID;
+    if (labelIndex >= 0) {
+      m_columns[labelIndex] |= LABEL;
+    }
+    for (int i = featureStart; i <= featureEnd; i++) {
+      m_columns[i] |= FEATURE;
+    }
+    m_featureStart = featureStart;
+    m_featureCount = Math.max(featureEnd - featureStart + 1, 0);
+    m_codec = dataset.getFeatureCodec();
+    m_quantize = (m_codec.getPrecision() != FeatureCodec.Precision.FLOAT64);
+
+    String delimiter = dataset.getDelimiter();
+    m_delimiter = (isByteDelimiter(delimiter)) ? (byte) delimiter.charAt(0)
+        : 0;
+    m_delimiterPattern = Pattern.compile(delimiter);
+
+    String regex = dataset.getActualClassRegex();
+    if ((regex == null) || (regex.isEmpty())) {
+      m_labelPrefix = null;
+      m_labelPattern = null;
+    } else if (isLiteral(regex)) {
+      m_labelPrefix = regex.getBytes(UTF8);
+      m_labelPattern = Pattern.compile(regex, Pattern.LITERAL);
+    } else {
+      m_labelPrefix = null;
+      m_labelPattern = Pattern.compile(regex);
+    }
+
+    m_hasLabelOffset = (dataset.getActualClassOffset() != null);
+    m_labelOffset = (m_hasLabelOffset) ? dataset.getActualClassOffset() : 0;
+
+    m_scratch = new ThreadLocal<Scratch>() {
+      @Override
+      protected Scratch initialValue() {
+        return new Scratch(m_featureCount);
+      }
+    };
+  }
+
+  /**
+   * Returns true if the delimiter is a single ASCII character which has no
+   * special meaning as regex, so that rows can be split on raw bytes.
+   */
+  public static boolean isByteDelimiter(String delimiter) {
+    return (delimiter != null) && (delimiter.length() == 1)
+        && (isLiteral(delimiter));
+  }
+
+  /**
+   * Decodes a row [start, end) of the buffer excluding the line terminator.
+   * Requires a byte delimiter.
+   */
+  public Item decode(ByteBuffer buffer, int start, int end) {
+    Long id = null;
+    Integer actualClass = null;
+    // columns are visited in order, so the indices are sorted
+    Scratch scratch = m_scratch.get();
+    int[] indices = scratch.indices;
+    double[] values = scratch.values;
+    int features = 0;
+
+    int pos = start;
+    for (int column = 0; column <= m_lastColumn; column++) {
+      if (pos > end) {
+        LOG.error("Line \"" + toString(buffer, start, end) + "\" has only "
+            + column + " columns!");
+        return null;
+      }
+      int columnEnd = indexOf(buffer, m_delimiter, pos, end);
+      byte role = m_columns[column];
+      if (role != SKIP) {
+        if ((role & FEATURE) != 0) {
+          double value = parseDouble(buffer, pos, columnEnd);
+          if ((value != 0) && (m_quantize)) {
+            value = m_codec.quantize(value);
+          }
+          if (value != 0) {
+            indices[features] = column;
+            values[features] = value;
+            features++;
+          }
+        }
+        if ((role & ID) != 0) {
+          try {
+            id = parseLong(buffer, pos, columnEnd);
+          } catch (NumberFormatException e) {
+            LOG.error("id \"" + toString(buffer, pos, columnEnd)
+                + "\" could not be parsed!");
+          }
+        }
+        if ((role & LABEL) != 0) {
+          actualClass = decodeLabel(buffer, pos, columnEnd);
+        }
+      }
+      pos = columnEnd + 1;
+    }
+    // copy only the decoded features out of the scratch row
+    return new Item(id, new SparseVector(indices, values, features, m_codec),
+        actualClass);
+  }
+
+  /**
+   * Decodes a row [start, end) of the buffer directly into the given row of
+   * the matrix, whose columns must match the feature columns of this decoder.
+   * Returns false if the row has missing columns. Requires a byte delimiter.
+   */
+  public boolean decode(ByteBuffer buffer, int start, int end,
+      DenseMatrix matrix, int row) {
+    // column c of the row is stored at offset + c, quantized by the matrix
+    int offset = matrix.getOffset(row) - m_featureStart;
+    matrix.setId(row, null);
+    matrix.setActualClass(row, null);
+
+    int pos = start;
+    for (int column = 0; column <= m_lastColumn; column++) {
+      if (pos > end) {
+        LOG.error("Line \"" + toString(buffer, start, end) + "\" has only "
+            + column + " columns!");
+        return false;
+      }
+      int columnEnd = indexOf(buffer, m_delimiter, pos, end);
+      byte role = m_columns[column];
+      if (role != SKIP) {
+        if ((role & FEATURE) != 0) {
+          matrix.setValue(offset + column, parseDouble(buffer, pos,
+              columnEnd));
+        }
+        if ((role & ID) != 0) {
+          try {
+            matrix.setId(row, parseLong(buffer, pos, columnEnd));
+          } catch (NumberFormatException e) {
+            LOG.error("id \"" + toString(buffer, pos, columnEnd)
+                + "\" could not be parsed!");
+          }
+        }
+        if ((role & LABEL) != 0) {
+          matrix.setActualClass(row, decodeLabel(buffer, pos, columnEnd));
+        }
+      }
+      pos = columnEnd + 1;
+    }
+    return true;
+  }
+
+  /**
+   * Returns a matrix of the given rows with one column per feature column.
+   */
+  public DenseMatrix createMatrix(int rows) {
+    return new DenseMatrix(rows, m_featureCount, m_featureStart, m_codec);
+  }
+
+  private Integer decodeLabel(ByteBuffer buffer, int start, int end) {
+    Integer actualClass = null;
+    try {
+      if (m_labelPrefix == null) {
+        if (m_labelPattern == null) {
+          actualClass = (int) parseLong(buffer, start, end);
+        } else {
+          actualClass = Integer.parseInt(m_labelPattern.matcher(
+              toString(buffer, start, end)).replaceAll(""));
+        }
+      } else if ((startsWith(buffer, start, end, m_labelPrefix))
+          && (indexOf(buffer, m_labelPrefix, start + m_labelPrefix.length,
+              end) < 0)) {
+        // strip the literal prefix
+        actualClass = (int) parseLong(buffer, start + m_labelPrefix.length,
+            end);
+      } else {
+        actualClass = Integer.parseInt(m_labelPattern.matcher(
+            toString(buffer, start, end)).replaceAll(""));
+      }
+    } catch (NumberFormatException e) {
+      LOG.warn("actualClass \"" + toString(buffer, start, end)
+          + "\" could not be parsed!");
+    }
+    if ((actualClass != null) && (m_hasLabelOffset)) {
+      actualClass += m_labelOffset;
+    }
+    return actualClass;
+  }
+
+  /**
+   * Decodes a row given as String.
+   */
+  public Item decode(String line) {
+    String[] values = m_delimiterPattern.split(line);
+    if (values.length <= m_lastColumn) {
+      LOG.error("Line \"" + line + "\" has only " + values.length
+          + " columns!");
+      return null;
+    }
+
+    Long id = null;
+    Integer actualClass = null;
+    // columns are visited in order, so the indices are sorted
+    Scratch scratch = m_scratch.get();
+    int[] featureIndices = scratch.indices;
+    double[] featureValues = scratch.values;
+    int features = 0;
+
+    for (int column = 0; column <= m_lastColumn; column++) {
+      byte role = m_columns[column];
+      if (role == SKIP) {
+        continue;
+      }
+      String value = values[column];
+      if ((role & FEATURE) != 0) {
+        double d = Double.parseDouble(value);
+        if ((d != 0) && (m_quantize)) {
+          d = m_codec.quantize(d);
+        }
+        if (d != 0) {
+          featureIndices[features] = column;
+          featureValues[features] = d;
+          features++;
+        }
+      }
+      if ((role & ID) != 0) {
+        try {
+          id = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+          LOG.error("id \"" + value + "\" could not be parsed!");
+        }
+      }
+      if ((role & LABEL) != 0) {
+        String actualClassString = (m_labelPattern != null) ? m_labelPattern
+            .matcher(value).replaceAll("") : value;
+        try {
+          actualClass = Integer.parseInt(actualClassString);
+          if (m_hasLabelOffset) {
+            actualClass += m_labelOffset;
+          }
+        } catch (NumberFormatException e) {
+          LOG.warn("actualClass \"" + actualClassString
+              + "\" could not be parsed!");
+        }
+      }
+    }
+    // copy only the decoded features out of the scratch row
+    return new Item(id, new SparseVector(featureIndices, featureValues,
+        features, m_codec), actualClass);
+  }
+
+  static long parseLong(ByteBuffer buffer, int start, int end) {
+    int pos = start;
+    boolean negative = false;
+    if (pos < end) {
+      byte b = buffer.get(pos);
+      if ((b == '-') || (b == '+')) {
+        negative = (b == '-');
+        pos++;
+      }
+    }
+    // at most 18 digits cannot overflow a long
+    if ((pos == end) || (end - pos > 18)) {
+      return Long.parseLong(toString(buffer, start, end));
+    }
+    long value = 0;
+    for (; pos < end; pos++) {
+      int digit = buffer.get(pos) - '0';
+      if ((digit < 0) || (digit > 9)) {
+        return Long.parseLong(toString(buffer, start, end));
+      }
+      value = value * 10 + digit;
+    }
+    return (negative) ? -value : value;
+  }
+
+  /**
+   * Parses a decimal number of the form [+-]digits[.digits][(e|E)[+-]digits].
+   * Values with a mantissa below 2^53 and a decimal exponent within [-22, 22]
+   * are computed exactly by a single multiplication or division, all others
+   * fall back to Double.parseDouble.
+   */
+  static double parseDouble(ByteBuffer buffer, int start, int end) {
+    int pos = start;
+    boolean negative = false;
+    if (pos < end) {
+      byte b = buffer.get(pos);
+      if ((b == '-') || (b == '+')) {
+        negative = (b == '-');
+        pos++;
+      }
+    }
+
+    long mantissa = 0;
+    int exponent = 0;
+    int digits = 0;
+    boolean exact = true;
+
+    // integer part
+    for (; pos < end; pos++) {
+      int digit = buffer.get(pos) - '0';
+      if ((digit < 0) || (digit > 9)) {
+        break;
+      }
+      if (mantissa < MAX_EXACT_MANTISSA / 10) {
+        mantissa = mantissa * 10 + digit;
+      } else {
+        exact = false;
+      }
+      digits++;
+    }
+    // fraction part
+    if ((pos < end) && (buffer.get(pos) == '.')) {
+      pos++;
+      for (; pos < end; pos++) {
+        int digit = buffer.get(pos) - '0';
+        if ((digit < 0) || (digit > 9)) {
+          break;
+        }
+        if (mantissa < MAX_EXACT_MANTISSA / 10) {
+          mantissa = mantissa * 10 + digit;
+          exponent--;
+        } else if (digit != 0) {
+          exact = false;
+        }
+        digits++;
+      }
+    }
+    // exponent part
+    if ((digits > 0) && (pos < end)
+        && ((buffer.get(pos) == 'e') || (buffer.get(pos) == 'E'))) {
+      pos++;
+      boolean negativeExponent = false;
+      if ((pos < end)
+          && ((buffer.get(pos) == '-') || (buffer.get(pos) == '+'))) {
+        negativeExponent = (buffer.get(pos) == '-');
+        pos++;
+      }
+      int exp = 0;
+      int expDigits = 0;
+      for (; pos < end; pos++) {
+        int digit = buffer.get(pos) - '0';
+        if ((digit < 0) || (digit > 9) || (expDigits > 4)) {
+          exact = false;
+          break;
+        }
+        exp = exp * 10 + digit;
+        expDigits++;
+      }
+      if (expDigits == 0) {
+        exact = false;
+      }
+      exponent += (negativeExponent) ? -exp : exp;
+    }
+
+    if ((!exact) || (digits == 0) || (pos != end)
+        || (exponent < -22) || (exponent > 22)) {
+      return Double.parseDouble(toString(buffer, start, end));
+    }
+
+    double value = mantissa;
+    if (exponent < 0) {
+      value /= POWERS_OF_TEN[-exponent];
+    } else if (exponent > 0) {
+      value *= POWERS_OF_TEN[exponent];
+    }
+    return (negative) ? -value : value;
+  }
+
+  static int indexOf(ByteBuffer buffer, byte b, int start, int end) {
+    for (int pos = start; pos < end; pos++) {
+      if (buffer.get(pos) == b) {
+        return pos;
+      }
+    }
+    return end;
+  }
+
+  private static int indexOf(ByteBuffer buffer, byte[] s, int start, int end) {
+    for (int pos = start; pos <= end - s.length; pos++) {
+      if (startsWith(buffer, pos, end, s)) {
+        return pos;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean startsWith(ByteBuffer buffer, int start, int end,
+      byte[] prefix) {
+    if (end - start < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (buffer.get(start + i) != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean isLiteral(String regex) {
+    if (regex == null) {
+      return false;
+    }
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if ((c > 0x7F) || (REGEX_META_CHARS.indexOf(c) >= 0)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static String toString(ByteBuffer buffer, int start, int end) {
+    byte[] bytes = new byte[end - start];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(start + i);
+    }
+    return new String(bytes, UTF8);
+  }
+
+}
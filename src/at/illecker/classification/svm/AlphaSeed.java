@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.svm;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import libsvm.svm_model;
+
+/**
+ * Alphas of the binary problems of a training by {@link SMOTrainer}, which
+ * seed the next training of the same kernel rows (DeCoste and Wagstaff,
+ * 2000). Neighboring values of C or overlapping folds have nearly the same
+ * solution, so SMO starts close to the optimum instead of alpha = 0. The
+ * non-zero alphas of every pair of labels are stored sorted by kernel row.
+ */
+public class AlphaSeed {
+  private final Map<Long, PairAlpha> m_alphas;
+
+  /**
+   * Returns an empty seed.
+   */
+  public AlphaSeed() {
+    m_alphas = new HashMap<Long, PairAlpha>();
+  }
+
+  /**
+   * Returns a copy of the seed.
+   */
+  public AlphaSeed(AlphaSeed seed) {
+    synchronized (seed) {
+      m_alphas = new HashMap<Long, PairAlpha>(seed.m_alphas);
+    }
+  }
+
+  /**
+   * Non-zero alphas of one pair of labels in increasing order of rows.
+   */
+  private static class PairAlpha {
+    private final int[] m_rows;
+    private final double[] m_alpha;
+
+    // the alphas of duplicate rows are summed
+    public PairAlpha(final int[] rows, double[] alpha, int length) {
+      Integer[] order = new Integer[length];
+      for (int i = 0; i < length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          return Integer.compare(rows[a], rows[b]);
+        }
+      });
+      int[] sortedRows = new int[length];
+      double[] sortedAlpha = new double[length];
+      int n = 0;
+      for (int i = 0; i < length; i++) {
+        int k = order[i];
+        if ((n > 0) && (sortedRows[n - 1] == rows[k])) {
+          sortedAlpha[n - 1] += alpha[k];
+        } else {
+          sortedRows[n] = rows[k];
+          sortedAlpha[n] = alpha[k];
+          n++;
+        }
+      }
+      m_rows = Arrays.copyOf(sortedRows, n);
+      m_alpha = Arrays.copyOf(sortedAlpha, n);
+    }
+
+    public double get(int row) {
+      int k = Arrays.binarySearch(m_rows, row);
+      return (k >= 0) ? m_alpha[k] : 0;
+    }
+  }
+
+  // the alphas of a pair do not depend on the order of its labels
+  private static long key(int label1, int label2) {
+    int min = Math.min(label1, label2);
+    int max = Math.max(label1, label2);
+    return ((long) min << 32) | (max & 0xffffffffL);
+  }
+
+  /**
+   * Returns the feasible start alpha of the kernel rows of the pair of
+   * labels. The seeded alphas are clipped to the bounds Cp and Cn, and the
+   * side of the larger sum is scaled down, so that y'a = 0 holds. Rows
+   * without a seed start from zero.
+   */
+  public synchronized double[] getAlpha(int label1, int label2, int[] rows,
+      byte[] y, double Cp, double Cn) {
+    double[] alpha = new double[rows.length];
+    PairAlpha seed = m_alphas.get(key(label1, label2));
+    if (seed == null) {
+      return alpha;
+    }
+
+    double positiveSum = 0;
+    double negativeSum = 0;
+    for (int i = 0; i < rows.length; i++) {
+      if (y[i] > 0) {
+        alpha[i] = Math.min(seed.get(rows[i]), Cp);
+        positiveSum += alpha[i];
+      } else {
+        alpha[i] = Math.min(seed.get(rows[i]), Cn);
+        negativeSum += alpha[i];
+      }
+    }
+
+    if (positiveSum != negativeSum) {
+      byte side = (positiveSum > negativeSum) ? (byte) +1 : (byte) -1;
+      double scale = (side > 0) ? negativeSum / positiveSum : positiveSum
+          / negativeSum;
+      for (int i = 0; i < rows.length; i++) {
+        if (y[i] == side) {
+          alpha[i] *= scale;
+        }
+      }
+    }
+    return alpha;
+  }
+
+  /**
+   * Stores the coefficients alpha_i * y_i of the kernel rows of the pair of
+   * labels. Other rows of the pair are reset to zero.
+   */
+  public synchronized void putAlpha(int label1, int label2, int[] rows,
+      double[] coefficients) {
+    m_alphas.remove(key(label1, label2));
+    addAlpha(label1, label2, rows, coefficients);
+  }
+
+  /**
+   * Adds the coefficients alpha_i * y_i of the kernel rows of the pair of
+   * labels to the stored alphas.
+   */
+  public synchronized void addAlpha(int label1, int label2, int[] rows,
+      double[] coefficients) {
+    long key = key(label1, label2);
+    PairAlpha stored = m_alphas.get(key);
+    int offset = (stored != null) ? stored.m_rows.length : 0;
+    int[] allRows = new int[offset + rows.length];
+    double[] allAlpha = new double[allRows.length];
+    if (stored != null) {
+      System.arraycopy(stored.m_rows, 0, allRows, 0, offset);
+      System.arraycopy(stored.m_alpha, 0, allAlpha, 0, offset);
+    }
+    int n = offset;
+    for (int i = 0; i < rows.length; i++) {
+      if (coefficients[i] != 0) {
+        allRows[n] = rows[i];
+        allAlpha[n] = Math.abs(coefficients[i]);
+        n++;
+      }
+    }
+    m_alphas.put(key, new PairAlpha(allRows, allAlpha, n));
+  }
+
+  /**
+   * Adds the alphas of the support vectors of the model, whose support
+   * vector k is the kernel row rows[k].
+   */
+  public synchronized void addModel(svm_model model, int[] rows) {
+    // support vectors are grouped by class in the order of the labels
+    int nrClass = model.nr_class;
+    int[] svStart = new int[nrClass];
+    for (int c = 1; c < nrClass; c++) {
+      svStart[c] = svStart[c - 1] + model.nSV[c - 1];
+    }
+    // coefficients of class i in pair (i, j) are in row j - 1 of sv_coef
+    // and of class j in row i
+    for (int i = 0; i < nrClass; i++) {
+      for (int j = i + 1; j < nrClass; j++) {
+        int[] pairRows = new int[model.nSV[i] + model.nSV[j]];
+        double[] coefficients = new double[pairRows.length];
+        for (int k = 0; k < model.nSV[i]; k++) {
+          pairRows[k] = rows[svStart[i] + k];
+          coefficients[k] = model.sv_coef[j - 1][svStart[i] + k];
+        }
+        for (int k = 0; k < model.nSV[j]; k++) {
+          int r = model.nSV[i] + k;
+          pairRows[r] = rows[svStart[j] + k];
+          coefficients[r] = model.sv_coef[i][svStart[j] + k];
+        }
+        addAlpha(model.label[i], model.label[j], pairRows, coefficients);
+      }
+    }
+  }
+
+  public synchronized boolean isEmpty() {
+    return m_alphas.isEmpty();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "AlphaSeed [pairs=" + m_alphas.size() + "]";
+  }
+
+}
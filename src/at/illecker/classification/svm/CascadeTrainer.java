@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.svm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import libsvm.svm_model;
+import libsvm.svm_parameter;
+import libsvm.svm_problem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cascade SVM (Graf et al., 2005) of the C-SVC problem. The rows are split
+ * into stratified shards, which are solved independently by
+ * {@link SMOTrainer}. The support vectors of two solutions are merged and
+ * solved again, up a binary tree until one solution is left. A feedback
+ * pass adds the support vectors of the last solution to every shard and
+ * runs the cascade again, until the support vectors do not change. Every
+ * merged solve starts from the alphas of its two solutions, and all solves
+ * share the kernel rows of the problem. The result is a standard svm_model.
+ */
+public class CascadeTrainer {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(CascadeTrainer.class);
+
+  /**
+   * Trains the model by a cascade of the shards with at most the feedback
+   * passes. Probability estimates are calibrated by a held-out split.
+   */
+  public static svm_model train(svm_problem prob, svm_parameter param,
+      int shards, int feedbackPasses) {
+    KernelFunction kernel = KernelRowCache.getInstance().getKernel(prob,
+        param);
+    svm_parameter plainParam = (svm_parameter) param.clone();
+    plainParam.probability = 0;
+    if (param.probability == 0) {
+      svm_model model = train(prob, kernel, SMOTrainer.range(prob.l),
+          plainParam, shards, feedbackPasses);
+      if (model != null) {
+        model.param = param;
+      }
+      return model;
+    }
+
+    int[][] split = ProbabilityCalibration.split(prob,
+        ProbabilityCalibration.DEFAULT_HOLDOUT_FRACTION);
+    svm_model model = train(prob, kernel, split[0], plainParam, shards,
+        feedbackPasses);
+    if (model == null) {
+      return null;
+    }
+    int[] holdout = split[1];
+    int count = ProbabilityCalibration.getDecisionValueCount(model);
+    double[] y = new double[holdout.length];
+    double[][] decValues = new double[holdout.length][count];
+    for (int i = 0; i < holdout.length; i++) {
+      y[i] = prob.y[holdout[i]];
+      ProbabilityCalibration.decisionValues(model, model, prob.x[holdout[i]],
+          decValues[i]);
+    }
+    ProbabilityCalibration.fit(model, y, decValues);
+    model.param = param;
+    return model;
+  }
+
+  private static svm_model train(svm_problem prob, KernelFunction kernel,
+      int[] rows, svm_parameter param, int shards, int feedbackPasses) {
+    List<int[]> shardRows = split(prob, rows, shards);
+    TrainingScheduler scheduler = TrainingScheduler.getInstance();
+
+    svm_model model = null;
+    int[] supportVectors = new int[0];
+    for (int pass = 0; pass <= feedbackPasses; pass++) {
+      // every shard starts from the support vectors of the last pass
+      List<Node> layer = new ArrayList<Node>(shardRows.size());
+      for (int[] shard : shardRows) {
+        AlphaSeed seed = new AlphaSeed();
+        if (model != null) {
+          seed.addModel(model, getRows(model));
+        }
+        layer.add(new Node(union(shard, supportVectors), seed));
+      }
+
+      while (layer.size() > 1) {
+        List<NodeCallable> callables = new ArrayList<NodeCallable>();
+        double[] costs = new double[layer.size()];
+        for (Node node : layer) {
+          costs[callables.size()] = (double) node.rows.length
+              * node.rows.length;
+          callables.add(new NodeCallable(prob, kernel, node, param));
+        }
+        List<svm_model> models;
+        try {
+          models = scheduler.invokeAll(callables, costs);
+        } catch (InterruptedException e) {
+          LOG.error("InterruptedException: " + e.getMessage());
+          return null;
+        } catch (ExecutionException e) {
+          LOG.error("ExecutionException: " + e.getMessage());
+          return null;
+        }
+
+        // merge the support vectors of two solutions
+        List<Node> nextLayer = new ArrayList<Node>();
+        for (int i = 0; i < models.size(); i += 2) {
+          AlphaSeed seed = new AlphaSeed();
+          seed.addModel(models.get(i), getRows(models.get(i)));
+          int[] merged = getSupportVectors(models.get(i));
+          if (i + 1 < models.size()) {
+            seed.addModel(models.get(i + 1), getRows(models.get(i + 1)));
+            merged = union(merged, getSupportVectors(models.get(i + 1)));
+          }
+          nextLayer.add(new Node(merged, seed));
+        }
+        LOG.info("Cascade pass " + pass + " merged " + layer.size()
+            + " solutions into " + nextLayer.size());
+        layer = nextLayer;
+      }
+
+      Node top = layer.get(0);
+      model = SMOTrainer.train(prob, kernel, top.rows, param, top.seed);
+      int[] previous = supportVectors;
+      supportVectors = getSupportVectors(model);
+      LOG.info("Cascade pass " + pass + " finished with "
+          + supportVectors.length + " support vectors");
+      if (Arrays.equals(previous, supportVectors)) {
+        break;
+      }
+    }
+    return model;
+  }
+
+  /**
+   * Rows and start alphas of one solve of the cascade.
+   */
+  private static class Node {
+    int[] rows;
+    AlphaSeed seed;
+
+    Node(int[] rows, AlphaSeed seed) {
+      this.rows = rows;
+      this.seed = seed;
+    }
+  }
+
+  private static class NodeCallable implements Callable<svm_model> {
+    private svm_problem m_prob;
+    private KernelFunction m_kernel;
+    private Node m_node;
+    private svm_parameter m_param;
+
+    public NodeCallable(svm_problem prob, KernelFunction kernel, Node node,
+        svm_parameter param) {
+      m_prob = prob;
+      m_kernel = kernel;
+      m_node = node;
+      m_param = param;
+    }
+
+    @Override
+    public svm_model call() throws Exception {
+      return SMOTrainer.train(m_prob, m_kernel, m_node.rows, m_param,
+          m_node.seed);
+    }
+  }
+
+  /**
+   * Returns the rows split into stratified shards.
+   */
+  private static List<int[]> split(svm_problem prob, int[] rows, int shards) {
+    List<List<Integer>> folds = SMOTrainer.getFolds(
+        ProbabilityCalibration.getProblem(prob, rows), shards);
+    List<int[]> shardRows = new ArrayList<int[]>(folds.size());
+    for (List<Integer> fold : folds) {
+      if (fold.isEmpty()) {
+        continue;
+      }
+      int[] shard = new int[fold.size()];
+      for (int i = 0; i < shard.length; i++) {
+        shard[i] = rows[fold.get(i)];
+      }
+      Arrays.sort(shard);
+      shardRows.add(shard);
+    }
+    return shardRows;
+  }
+
+  // kernel row of every support vector of the model
+  private static int[] getRows(svm_model model) {
+    int[] rows = new int[model.l];
+    for (int i = 0; i < model.l; i++) {
+      rows[i] = model.sv_indices[i] - 1;
+    }
+    return rows;
+  }
+
+  // kernel rows of the support vectors in increasing order
+  private static int[] getSupportVectors(svm_model model) {
+    int[] rows = getRows(model);
+    Arrays.sort(rows);
+    return rows;
+  }
+
+  // union of two sorted rows
+  private static int[] union(int[] a, int[] b) {
+    int[] union = new int[a.length + b.length];
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while ((i < a.length) || (j < b.length)) {
+      if ((j == b.length) || ((i < a.length) && (a[i] < b[j]))) {
+        union[n++] = a[i++];
+      } else if ((i == a.length) || (b[j] < a[i])) {
+        union[n++] = b[j++];
+      } else {
+        union[n++] = a[i++];
+        j++;
+      }
+    }
+    return Arrays.copyOf(union, n);
+  }
+
+}
@@ -0,0 +1,328 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.svm;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+import libsvm.svm_problem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Explicit feature map z(x) into D dimensions, whose dot products
+ * approximate a kernel, so that a linear model of the mapped rows
+ * approximates the kernel model. Random Fourier features (Rahimi and Recht,
+ * 2007) sample the Fourier transform of the RBF kernel. Nystroem features
+ * (Williams and Seeger, 2001) whiten the kernel values of D landmarks of the
+ * training rows by the Cholesky factor of their kernel matrix.
+ */
+public abstract class FeatureMap implements Serializable {
+  private static final long serialVersionUID = -5170464530924178290L;
+  private static final Logger LOG = LoggerFactory.getLogger(FeatureMap.class);
+  private static final int ROWS_PER_TASK = 1024;
+  private static final Random RAND = new Random();
+
+  /**
+   * Random Fourier features of RBF or Nystroem features of any kernel.
+   */
+  public enum Type {
+    RFF, NYSTROEM;
+
+    public static Type parse(String type) {
+      return valueOf(type.trim().toUpperCase());
+    }
+  }
+
+  protected final int m_dimension;
+
+  protected FeatureMap(int dimension) {
+    m_dimension = dimension;
+  }
+
+  /**
+   * Returns the feature map of the type into the dimension, which
+   * approximates the kernel of the parameter on the rows of the problem.
+   */
+  public static FeatureMap create(Type type, svm_problem prob,
+      svm_parameter param, int dimension) {
+    if ((type == Type.RFF) && (param.kernel_type != svm_parameter.RBF)) {
+      LOG.warn("Random Fourier features approximate the RBF kernel only, "
+          + "using Nystroem features of kernel_type " + param.kernel_type);
+      type = Type.NYSTROEM;
+    }
+    if (type == Type.RFF) {
+      FeatureRows rows = KernelRowCache.getInstance().getFeatureRows(prob);
+      return new RandomFourier(rows.getFirstIndex(), rows.getDimension(),
+          param.gamma, dimension);
+    }
+    return new Nystroem(prob.x, param, Math.min(dimension, prob.l));
+  }
+
+  public int getDimension() {
+    return m_dimension;
+  }
+
+  /**
+   * Stores the features of x in z.
+   */
+  public abstract void map(svm_node[] x, double[] z);
+
+  /**
+   * Returns the features of x as nodes of the indices 1 to D.
+   */
+  public svm_node[] map(svm_node[] x) {
+    double[] z = new double[m_dimension];
+    map(x, z);
+    svm_node[] nodes = new svm_node[m_dimension];
+    for (int k = 0; k < m_dimension; k++) {
+      nodes[k] = new svm_node();
+      nodes[k].index = k + 1;
+      nodes[k].value = z[k];
+    }
+    return nodes;
+  }
+
+  /**
+   * Maps all rows in parallel into dense rows of the features 1 to D.
+   */
+  public FeatureRows map(svm_node[][] x) {
+    long cells = (long) x.length * m_dimension;
+    if (cells > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Mapping of " + cells
+          + " features exceeds the maximum array size");
+    }
+    double[] dense = new double[(int) cells];
+
+    int threads = TrainingScheduler.getInstance().getThreads();
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    List<Callable<Void>> callables = new ArrayList<Callable<Void>>();
+    for (int start = 0; start < x.length; start += ROWS_PER_TASK) {
+      callables.add(new MapCallable(this, x, dense, start,
+          Math.min(start + ROWS_PER_TASK, x.length)));
+    }
+    try {
+      for (Future<Void> future : executorService.invokeAll(callables)) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      LOG.error("InterruptedException: " + e.getMessage());
+      return null;
+    } catch (ExecutionException e) {
+      LOG.error("ExecutionException: " + e.getMessage());
+      return null;
+    } finally {
+      executorService.shutdown();
+    }
+    return FeatureRows.fromDense(dense, x.length, 1, m_dimension);
+  }
+
+  private static class MapCallable implements Callable<Void> {
+    private FeatureMap m_featureMap;
+    private svm_node[][] m_x;
+    private double[] m_dense;
+    private int m_start;
+    private int m_end;
+
+    public MapCallable(FeatureMap featureMap, svm_node[][] x, double[] dense,
+        int start, int end) {
+      m_featureMap = featureMap;
+      m_x = x;
+      m_dense = dense;
+      m_start = start;
+      m_end = end;
+    }
+
+    @Override
+    public Void call() throws Exception {
+      int dimension = m_featureMap.m_dimension;
+      double[] z = new double[dimension];
+      for (int i = m_start; i < m_end; i++) {
+        m_featureMap.map(m_x[i], z);
+        System.arraycopy(z, 0, m_dense, i * dimension, dimension);
+      }
+      return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + " [dimension=" + m_dimension + "]";
+  }
+
+  /**
+   * Random Fourier features z_k(x) = sqrt(2 / D) * cos(w_k * x + b_k) of the
+   * RBF kernel with w_k drawn from N(0, 2 * gamma * I) and b_k from [0, 2pi).
+   */
+  static class RandomFourier extends FeatureMap {
+    private static final long serialVersionUID = 2838157021684427530L;
+
+    private final int m_firstIndex;
+    private final int m_inputDimension;
+    // entry k of w_k of input column c at position c * D + k
+    private final double[] m_weights;
+    private final double[] m_offsets;
+    private final double m_scale;
+
+    RandomFourier(int firstIndex, int inputDimension, double gamma,
+        int dimension) {
+      super(dimension);
+      m_firstIndex = firstIndex;
+      m_inputDimension = inputDimension;
+      m_weights = new double[inputDimension * dimension];
+      m_offsets = new double[dimension];
+      m_scale = Math.sqrt(2.0 / dimension);
+
+      double deviation = Math.sqrt(2 * gamma);
+      synchronized (RAND) {
+        for (int i = 0; i < m_weights.length; i++) {
+          m_weights[i] = deviation * RAND.nextGaussian();
+        }
+        for (int k = 0; k < dimension; k++) {
+          m_offsets[k] = 2 * Math.PI * RAND.nextDouble();
+        }
+      }
+    }
+
+    @Override
+    public void map(svm_node[] x, double[] z) {
+      System.arraycopy(m_offsets, 0, z, 0, m_dimension);
+      for (svm_node node : x) {
+        int c = node.index - m_firstIndex;
+        if ((c >= 0) && (c < m_inputDimension)) {
+          int offset = c * m_dimension;
+          for (int k = 0; k < m_dimension; k++) {
+            z[k] += m_weights[offset + k] * node.value;
+          }
+        }
+      }
+      for (int k = 0; k < m_dimension; k++) {
+        z[k] = m_scale * Math.cos(z[k]);
+      }
+    }
+  }
+
+  /**
+   * Nystroem features z(x) = L^-1 * k(x), where k(x) holds the kernel values
+   * of x and D landmarks and L L^T is the kernel matrix of the landmarks.
+   * Landmarks are drawn uniformly from the training rows.
+   */
+  static class Nystroem extends FeatureMap {
+    private static final long serialVersionUID = -1029437725146418866L;
+    // relative pivot below which a direction of the landmarks is dropped
+    private static final double PIVOT_TOLERANCE = 1e-10;
+
+    private final svm_node[][] m_landmarks;
+    private final svm_parameter m_param;
+    // lower triangular Cholesky factor, row-major
+    private final double[] m_factor;
+    private transient FeatureRows m_rows;
+    private transient KernelFunction m_kernel;
+
+    Nystroem(svm_node[][] x, svm_parameter param, int dimension) {
+      super(dimension);
+      // partial shuffle of the first D rows
+      int[] perm = SMOTrainer.range(x.length);
+      synchronized (RAND) {
+        for (int i = 0; i < dimension; i++) {
+          int j = i + RAND.nextInt(x.length - i);
+          int tmp = perm[i];
+          perm[i] = perm[j];
+          perm[j] = tmp;
+        }
+      }
+      m_landmarks = new svm_node[dimension][];
+      for (int i = 0; i < dimension; i++) {
+        m_landmarks[i] = x[perm[i]];
+      }
+      m_param = (svm_parameter) param.clone();
+      init();
+      m_factor = cholesky();
+    }
+
+    private void init() {
+      m_rows = FeatureRows.fromNodes(m_landmarks);
+      m_kernel = new KernelFunction(m_rows, m_param);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+        ClassNotFoundException {
+      in.defaultReadObject();
+      init();
+    }
+
+    private double[] cholesky() {
+      int m = m_dimension;
+      double[] L = new double[m * m];
+      for (int j = 0; j < m; j++) {
+        double kjj = m_kernel.value(j, j);
+        double s = kjj - FeatureRows.dot(L, j * m, L, j * m, j);
+        if (s <= PIVOT_TOLERANCE * Math.abs(kjj)) {
+          // column j stays zero
+          continue;
+        }
+        double ljj = Math.sqrt(s);
+        L[j * m + j] = ljj;
+        for (int i = j + 1; i < m; i++) {
+          L[i * m + j] = (m_kernel.value(i, j) - FeatureRows.dot(L, i * m, L,
+              j * m, j)) / ljj;
+        }
+      }
+      return L;
+    }
+
+    @Override
+    public void map(svm_node[] x, double[] z) {
+      int firstIndex = m_rows.getFirstIndex();
+      double[] dense = new double[m_rows.getDimension()];
+      double squaredNorm = 0;
+      for (svm_node node : x) {
+        squaredNorm += node.value * node.value;
+        int c = node.index - firstIndex;
+        if ((c >= 0) && (c < dense.length)) {
+          dense[c] = node.value;
+        }
+      }
+
+      // forward substitution of L z = k(x)
+      int m = m_dimension;
+      for (int j = 0; j < m; j++) {
+        double ljj = m_factor[j * m + j];
+        if (ljj == 0) {
+          z[j] = 0;
+          continue;
+        }
+        double k = m_kernel.value(m_rows.dot(j, dense), squaredNorm,
+            m_rows.getSquaredNorm(j));
+        z[j] = (k - FeatureRows.dot(m_factor, j * m, z, 0, j)) / ljj;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,352 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.svm;
+
+import libsvm.svm_node;
+
+/**
+ * Rows of an svm_problem in primitive arrays for kernel evaluation. Rows are
+ * stored in CSR arrays, or in one dense row-major array if most entries are
+ * non-zero. Values are stored as float if every value is a float, as all
+ * values of the narrower feature codecs are, and products are summed in
+ * double either way. The squared norm of every row is precomputed.
+ */
+public class FeatureRows {
+  // minimal fraction of non-zeros to store rows densely
+  private static final double DENSE_RATIO = 0.5;
+
+  private final int m_rows;
+  private final int m_firstIndex;
+  private final int m_dimension;
+  // CSR rows, null if dense
+  private final int[] m_rowStart;
+  private final int[] m_indices;
+  private final double[] m_values;
+  private final float[] m_floatValues;
+  // dense row-major rows, null if sparse
+  private final double[] m_dense;
+  private final float[] m_floatDense;
+  private final double[] m_squaredNorms;
+
+  private FeatureRows(int rows, int firstIndex, int dimension,
+      int[] rowStart, int[] indices, double[] values, double[] dense) {
+    this(rows, firstIndex, dimension, rowStart, indices, values, null, dense,
+        null);
+  }
+
+  private FeatureRows(int rows, int firstIndex, int dimension,
+      int[] rowStart, int[] indices, double[] values, float[] floatValues,
+      double[] dense, float[] floatDense) {
+    m_rows = rows;
+    m_firstIndex = firstIndex;
+    m_dimension = dimension;
+    m_rowStart = rowStart;
+    m_indices = indices;
+    m_values = values;
+    m_floatValues = floatValues;
+    m_dense = dense;
+    m_floatDense = floatDense;
+    m_squaredNorms = new double[rows];
+    for (int i = 0; i < rows; i++) {
+      m_squaredNorms[i] = dot(i, i);
+    }
+  }
+
+  public static FeatureRows fromNodes(svm_node[][] x) {
+    long nnz = 0;
+    int minIndex = Integer.MAX_VALUE;
+    int maxIndex = Integer.MIN_VALUE;
+    boolean floats = true;
+    for (svm_node[] row : x) {
+      nnz += row.length;
+      for (svm_node node : row) {
+        minIndex = Math.min(minIndex, node.index);
+        maxIndex = Math.max(maxIndex, node.index);
+        floats &= ((float) node.value == node.value);
+      }
+    }
+    if (nnz == 0) {
+      minIndex = 0;
+      maxIndex = -1;
+    }
+    int dimension = maxIndex - minIndex + 1;
+
+    long cells = (long) x.length * dimension;
+    if ((nnz >= DENSE_RATIO * cells) && (cells <= Integer.MAX_VALUE)) {
+      if (floats) {
+        float[] dense = new float[(int) cells];
+        for (int i = 0; i < x.length; i++) {
+          int offset = i * dimension - minIndex;
+          for (svm_node node : x[i]) {
+            dense[offset + node.index] = (float) node.value;
+          }
+        }
+        return new FeatureRows(x.length, minIndex, dimension, null, null,
+            null, null, null, dense);
+      }
+      double[] dense = new double[(int) cells];
+      for (int i = 0; i < x.length; i++) {
+        int offset = i * dimension - minIndex;
+        for (svm_node node : x[i]) {
+          dense[offset + node.index] = node.value;
+        }
+      }
+      return new FeatureRows(x.length, minIndex, dimension, null, null,
+          null, dense);
+    }
+
+    if (nnz > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Problem of " + nnz
+          + " non-zeros exceeds the maximum array size");
+    }
+    int[] rowStart = new int[x.length + 1];
+    int[] indices = new int[(int) nnz];
+    double[] values = floats ? null : new double[(int) nnz];
+    float[] floatValues = floats ? new float[(int) nnz] : null;
+    int pos = 0;
+    for (int i = 0; i < x.length; i++) {
+      rowStart[i] = pos;
+      for (svm_node node : x[i]) {
+        indices[pos] = node.index;
+        if (floats) {
+          floatValues[pos] = (float) node.value;
+        } else {
+          values[pos] = node.value;
+        }
+        pos++;
+      }
+    }
+    rowStart[x.length] = pos;
+    return new FeatureRows(x.length, minIndex, dimension, rowStart, indices,
+        values, floatValues, null, null);
+  }
+
+  /**
+   * Returns the rows of the dense row-major array, whose first column is the
+   * feature of index firstIndex.
+   */
+  public static FeatureRows fromDense(double[] dense, int rows,
+      int firstIndex, int dimension) {
+    return new FeatureRows(rows, firstIndex, dimension, null, null, null,
+        dense);
+  }
+
+  public int getRows() {
+    return m_rows;
+  }
+
+  public int getFirstIndex() {
+    return m_firstIndex;
+  }
+
+  public int getDimension() {
+    return m_dimension;
+  }
+
+  public boolean isDense() {
+    return (m_dense != null) || (m_floatDense != null);
+  }
+
+  public double getSquaredNorm(int i) {
+    return m_squaredNorms[i];
+  }
+
+  public double dot(int i, int j) {
+    if (m_floatDense != null) {
+      return dot(m_floatDense, i * m_dimension, m_floatDense,
+          j * m_dimension, m_dimension);
+    }
+    if (m_dense != null) {
+      return dot(m_dense, i * m_dimension, m_dense, j * m_dimension,
+          m_dimension);
+    }
+    if (m_floatValues != null) {
+      return dot(m_indices, m_floatValues, m_rowStart[i], m_rowStart[i + 1],
+          m_indices, m_floatValues, m_rowStart[j], m_rowStart[j + 1]);
+    }
+    return dot(m_indices, m_values, m_rowStart[i], m_rowStart[i + 1],
+        m_indices, m_values, m_rowStart[j], m_rowStart[j + 1]);
+  }
+
+  /**
+   * Returns the dot product of row i and the dense vector w, which holds the
+   * feature of index getFirstIndex() + k at position k.
+   */
+  public double dot(int i, double[] w) {
+    if (m_floatDense != null) {
+      return dot(w, 0, m_floatDense, i * m_dimension, m_dimension);
+    }
+    if (m_dense != null) {
+      return dot(m_dense, i * m_dimension, w, 0, m_dimension);
+    }
+    double sum = 0;
+    if (m_floatValues != null) {
+      for (int k = m_rowStart[i]; k < m_rowStart[i + 1]; k++) {
+        sum += m_floatValues[k] * w[m_indices[k] - m_firstIndex];
+      }
+      return sum;
+    }
+    for (int k = m_rowStart[i]; k < m_rowStart[i + 1]; k++) {
+      sum += m_values[k] * w[m_indices[k] - m_firstIndex];
+    }
+    return sum;
+  }
+
+  /**
+   * Adds a times row i to the dense vector w.
+   */
+  public void axpy(double a, int i, double[] w) {
+    if (m_floatDense != null) {
+      int offset = i * m_dimension;
+      for (int k = 0; k < m_dimension; k++) {
+        w[k] += a * m_floatDense[offset + k];
+      }
+    } else if (m_dense != null) {
+      int offset = i * m_dimension;
+      for (int k = 0; k < m_dimension; k++) {
+        w[k] += a * m_dense[offset + k];
+      }
+    } else if (m_floatValues != null) {
+      for (int k = m_rowStart[i]; k < m_rowStart[i + 1]; k++) {
+        w[m_indices[k] - m_firstIndex] += a * m_floatValues[k];
+      }
+    } else {
+      for (int k = m_rowStart[i]; k < m_rowStart[i + 1]; k++) {
+        w[m_indices[k] - m_firstIndex] += a * m_values[k];
+      }
+    }
+  }
+
+  /**
+   * Returns the dot product of two dense ranges. The loop is unrolled into
+   * four independent sums, so that the JIT can pipeline and vectorize it.
+   */
+  public static double dot(double[] a, int aOffset, double[] b, int bOffset,
+      int length) {
+    double s0 = 0;
+    double s1 = 0;
+    double s2 = 0;
+    double s3 = 0;
+    int k = 0;
+    for (; k + 3 < length; k += 4) {
+      s0 += a[aOffset + k] * b[bOffset + k];
+      s1 += a[aOffset + k + 1] * b[bOffset + k + 1];
+      s2 += a[aOffset + k + 2] * b[bOffset + k + 2];
+      s3 += a[aOffset + k + 3] * b[bOffset + k + 3];
+    }
+    for (; k < length; k++) {
+      s0 += a[aOffset + k] * b[bOffset + k];
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  /**
+   * Returns the dot product of two dense float ranges, summed in double.
+   */
+  public static double dot(float[] a, int aOffset, float[] b, int bOffset,
+      int length) {
+    double s0 = 0;
+    double s1 = 0;
+    double s2 = 0;
+    double s3 = 0;
+    int k = 0;
+    for (; k + 3 < length; k += 4) {
+      s0 += (double) a[aOffset + k] * b[bOffset + k];
+      s1 += (double) a[aOffset + k + 1] * b[bOffset + k + 1];
+      s2 += (double) a[aOffset + k + 2] * b[bOffset + k + 2];
+      s3 += (double) a[aOffset + k + 3] * b[bOffset + k + 3];
+    }
+    for (; k < length; k++) {
+      s0 += (double) a[aOffset + k] * b[bOffset + k];
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  /**
+   * Returns the dot product of a dense double and a dense float range.
+   */
+  public static double dot(double[] a, int aOffset, float[] b, int bOffset,
+      int length) {
+    double s0 = 0;
+    double s1 = 0;
+    double s2 = 0;
+    double s3 = 0;
+    int k = 0;
+    for (; k + 3 < length; k += 4) {
+      s0 += a[aOffset + k] * b[bOffset + k];
+      s1 += a[aOffset + k + 1] * b[bOffset + k + 1];
+      s2 += a[aOffset + k + 2] * b[bOffset + k + 2];
+      s3 += a[aOffset + k + 3] * b[bOffset + k + 3];
+    }
+    for (; k < length; k++) {
+      s0 += a[aOffset + k] * b[bOffset + k];
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  /**
+   * Returns the dot product of two sparse ranges with increasing indices.
+   */
+  public static double dot(int[] aIndices, double[] aValues, int aStart,
+      int aEnd, int[] bIndices, double[] bValues, int bStart, int bEnd) {
+    double sum = 0;
+    int i = aStart;
+    int j = bStart;
+    while ((i < aEnd) && (j < bEnd)) {
+      int a = aIndices[i];
+      int b = bIndices[j];
+      if (a == b) {
+        sum += aValues[i++] * bValues[j++];
+      } else if (a < b) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Returns the dot product of two sparse float ranges, summed in double.
+   */
+  public static double dot(int[] aIndices, float[] aValues, int aStart,
+      int aEnd, int[] bIndices, float[] bValues, int bStart, int bEnd) {
+    double sum = 0;
+    int i = aStart;
+    int j = bStart;
+    while ((i < aEnd) && (j < bEnd)) {
+      int a = aIndices[i];
+      int b = bIndices[j];
+      if (a == b) {
+        sum += (double) aValues[i++] * bValues[j++];
+      } else if (a < b) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    return sum;
+  }
+
+  @Override
+  public String toString() {
+    return "FeatureRows [rows=" + m_rows + ", firstIndex=" + m_firstIndex
+        + ", dimension=" + m_dimension + ", dense=" + isDense() + ", float="
+        + ((m_floatValues != null) || (m_floatDense != null)) + "]";
+  }
+
+}
@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.svm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import libsvm.svm_parameter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Precomputed kernel matrix of all rows of a problem. The upper triangle
+ * including the diagonal is packed row by row into direct buffers of
+ * CHUNK_SIZE bytes, so the matrix lives outside of the heap. Entries are
+ * computed in square tiles of TILE_SIZE rows on the threads of the
+ * {@link TrainingScheduler}, so that the rows of a tile stay in the CPU
+ * cache.
+ */
+public class GramMatrix {
+  private static final Logger LOG = LoggerFactory.getLogger(GramMatrix.class);
+  private static final int TILE_SIZE = 128;
+  // a multiple of 4, so that no entry spans two chunks
+  private static final int CHUNK_SHIFT = 30;
+  private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+  private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private final int m_rows;
+  private final int m_kernelType;
+  private final int m_degree;
+  private final double m_gamma;
+  private final double m_coef0;
+  private final ByteBuffer[] m_chunks;
+
+  private GramMatrix(int rows, svm_parameter param) {
+    m_rows = rows;
+    m_kernelType = param.kernel_type;
+    m_degree = param.degree;
+    m_gamma = param.gamma;
+    m_coef0 = param.coef0;
+
+    long size = 4L * getEntries();
+    int count = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+    m_chunks = new ByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      m_chunks[i] = ByteBuffer.allocateDirect(
+          (int) Math.min(CHUNK_SIZE, size - i * CHUNK_SIZE)).order(
+          ByteOrder.nativeOrder());
+    }
+  }
+
+  /**
+   * Computes the kernel of the parameter between all rows.
+   */
+  public static GramMatrix compute(FeatureRows rows, svm_parameter param) {
+    final GramMatrix gram = new GramMatrix(rows.getRows(), param);
+    final KernelFunction kernel = new KernelFunction(rows, param);
+    LOG.info("Compute Gram matrix of " + gram.m_rows + " rows ("
+        + (4L * gram.getEntries() >> 20) + " MB)");
+    long startTime = System.currentTimeMillis();
+
+    int tiles = (gram.m_rows + TILE_SIZE - 1) / TILE_SIZE;
+    int threads = TrainingScheduler.getInstance().getThreads();
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    List<Callable<Void>> callables = new ArrayList<Callable<Void>>();
+    for (int ti = 0; ti < tiles; ti++) {
+      for (int tj = ti; tj < tiles; tj++) {
+        callables.add(new TileCallable(gram, kernel, ti * TILE_SIZE, tj
+            * TILE_SIZE));
+      }
+    }
+    try {
+      for (Future<Void> future : executorService.invokeAll(callables)) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      LOG.error("InterruptedException: " + e.getMessage());
+      return null;
+    } catch (ExecutionException e) {
+      LOG.error("ExecutionException: " + e.getMessage());
+      return null;
+    } finally {
+      executorService.shutdown();
+    }
+
+    LOG.info("Compute Gram matrix finished after "
+        + (System.currentTimeMillis() - startTime) + " ms");
+    return gram;
+  }
+
+  private static class TileCallable implements Callable<Void> {
+    private GramMatrix m_gram;
+    private KernelFunction m_kernel;
+    private int m_rowStart;
+    private int m_columnStart;
+
+    public TileCallable(GramMatrix gram, KernelFunction kernel, int rowStart,
+        int columnStart) {
+      m_gram = gram;
+      m_kernel = kernel;
+      m_rowStart = rowStart;
+      m_columnStart = columnStart;
+    }
+
+    @Override
+    public Void call() throws Exception {
+      int rowEnd = Math.min(m_rowStart + TILE_SIZE, m_gram.m_rows);
+      int columnEnd = Math.min(m_columnStart + TILE_SIZE, m_gram.m_rows);
+      for (int i = m_rowStart; i < rowEnd; i++) {
+        // only the upper triangle of diagonal tiles
+        int j = Math.max(i, m_columnStart);
+        long pos = 4L * m_gram.getOffset(i, j);
+        for (; j < columnEnd; j++) {
+          m_gram.m_chunks[(int) (pos >>> CHUNK_SHIFT)].putFloat(
+              (int) (pos & CHUNK_MASK), (float) m_kernel.value(i, j));
+          pos += 4;
+        }
+      }
+      return null;
+    }
+  }
+
+  public int getRows() {
+    return m_rows;
+  }
+
+  public long getEntries() {
+    return (long) m_rows * (m_rows + 1) / 2;
+  }
+
+  /**
+   * Returns true if the matrix was computed with the kernel of the
+   * parameter.
+   */
+  public boolean matches(svm_parameter param) {
+    return (param.kernel_type == m_kernelType) && (param.degree == m_degree)
+        && (param.gamma == m_gamma) && (param.coef0 == m_coef0);
+  }
+
+  private long getOffset(int i, int j) {
+    // rows i' < i hold m_rows - i' entries each
+    return (long) i * m_rows - (long) i * (i - 1) / 2 + (j - i);
+  }
+
+  public double get(int i, int j) {
+    long pos = 4L * ((i <= j) ? getOffset(i, j) : getOffset(j, i));
+    return m_chunks[(int) (pos >>> CHUNK_SHIFT)]
+        .getFloat((int) (pos & CHUNK_MASK));
+  }
+
+  @Override
+  public String toString() {
+    return "GramMatrix [rows=" + m_rows + ", kernelType=" + m_kernelType
+        + ", gamma=" + m_gamma + "]";
+  }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.svm;
+
+import libsvm.svm_parameter;
+
+/**
+ * Kernel of the svm_parameter evaluated between rows of {@link FeatureRows}.
+ * The RBF kernel is expanded into squared norms and one dot product. A
+ * kernel of a {@link GramMatrix} looks up precomputed values instead.
+ */
+public class KernelFunction {
+  private final FeatureRows m_rows;
+  private final int m_kernelType;
+  private final int m_degree;
+  private final double m_gamma;
+  private final double m_coef0;
+  private final GramMatrix m_gram;
+  // shared rows of the kernel, null if not cached
+  private final KernelRowCache.KernelRows m_cache;
+
+  public KernelFunction(FeatureRows rows, svm_parameter param) {
+    this(rows, param, null);
+  }
+
+  public KernelFunction(FeatureRows rows, svm_parameter param,
+      KernelRowCache.KernelRows cache) {
+    switch (param.kernel_type) {
+      case svm_parameter.LINEAR:
+      case svm_parameter.POLY:
+      case svm_parameter.RBF:
+      case svm_parameter.SIGMOID:
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported kernel type: "
+            + param.kernel_type);
+    }
+    m_rows = rows;
+    m_kernelType = param.kernel_type;
+    m_degree = param.degree;
+    m_gamma = param.gamma;
+    m_coef0 = param.coef0;
+    m_gram = null;
+    m_cache = cache;
+  }
+
+  public KernelFunction(GramMatrix gram) {
+    m_rows = null;
+    m_kernelType = svm_parameter.PRECOMPUTED;
+    m_degree = 0;
+    m_gamma = 0;
+    m_coef0 = 0;
+    m_gram = gram;
+    m_cache = null;
+  }
+
+  /**
+   * Returns the rows of the kernel or null if it is precomputed.
+   */
+  public FeatureRows getRows() {
+    return m_rows;
+  }
+
+  /**
+   * Returns the shared row i of the kernel, whose entries are NaN until
+   * they are computed, or null if the row is not cached.
+   */
+  public float[] getCachedRow(int i) {
+    return (m_cache != null) ? m_cache.getRow(i) : null;
+  }
+
+  public double value(int i, int j) {
+    if (m_kernelType == svm_parameter.PRECOMPUTED) {
+      return m_gram.get(i, j);
+    }
+    return value(m_rows.dot(i, j), m_rows.getSquaredNorm(i),
+        m_rows.getSquaredNorm(j));
+  }
+
+  /**
+   * Returns the kernel value of two vectors of the dot product and squared
+   * norms, which are only used by RBF.
+   */
+  public double value(double dot, double squaredNorm1, double squaredNorm2) {
+    switch (m_kernelType) {
+      case svm_parameter.LINEAR:
+        return dot;
+      case svm_parameter.POLY:
+        return powi(m_gamma * dot + m_coef0, m_degree);
+      case svm_parameter.RBF:
+        return Math.exp(-m_gamma * (squaredNorm1 + squaredNorm2 - 2 * dot));
+      default:
+        return Math.tanh(m_gamma * dot + m_coef0);
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    int result = System.identityHashCode(m_rows);
+    result = 31 * result + System.identityHashCode(m_gram);
+    result = 31 * result + m_kernelType;
+    result = 31 * result + m_degree;
+    long bits = Double.doubleToLongBits(m_gamma);
+    result = 31 * result + (int) (bits ^ (bits >>> 32));
+    bits = Double.doubleToLongBits(m_coef0);
+    return 31 * result + (int) (bits ^ (bits >>> 32));
+  }
+
+  /**
+   * Returns true if the other kernel has the same parameters and rows.
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof KernelFunction)) {
+      return false;
+    }
+    KernelFunction other = (KernelFunction) obj;
+    return (m_rows == other.m_rows) && (m_gram == other.m_gram)
+        && (m_kernelType == other.m_kernelType)
+        && (m_degree == other.m_degree) && (m_gamma == other.m_gamma)
+        && (m_coef0 == other.m_coef0);
+  }
+
+  private static double powi(double base, int times) {
+    double tmp = base;
+    double ret = 1.0;
+    for (int t = times; t > 0; t /= 2) {
+      if (t % 2 == 1) {
+        ret *= tmp;
+      }
+      tmp = tmp * tmp;
+    }
+    return ret;
+  }
+
+}
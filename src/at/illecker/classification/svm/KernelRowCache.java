@@ -0,0 +1,310 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.svm;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import libsvm.svm_parameter;
+import libsvm.svm_problem;
+
+/**
+ * Process-wide LRU cache of kernel rows. A row holds the kernel values of
+ * one row of a problem against all rows of the problem and is keyed by the
+ * problem, the kernel parameters and the row index. Every training and
+ * cross validation of the same problem and kernel shares the rows,
+ * regardless of C, the class pair or the fold. Entries of a row are
+ * computed on demand and are NaN until then. Rows are spread over STRIPES
+ * LRU maps by their key, each with its own lock and an equal share of the
+ * capacity, so that concurrent solvers rarely wait for each other. Rows
+ * only hold their problem weakly and are dropped once it is collected.
+ */
+public class KernelRowCache {
+  private static final int STRIPES = 16;
+  private static final KernelRowCache INSTANCE = new KernelRowCache(Runtime
+      .getRuntime().maxMemory() / 4);
+
+  // rows of each problem, released with the problem
+  private final Map<svm_problem, FeatureRows> m_featureRows;
+  private final Stripe[] m_stripes;
+  // weak references of collected problems
+  private final ReferenceQueue<svm_problem> m_released;
+  private volatile long m_capacity;
+
+  public KernelRowCache(long capacity) {
+    m_featureRows = new WeakHashMap<svm_problem, FeatureRows>();
+    m_stripes = new Stripe[STRIPES];
+    for (int i = 0; i < STRIPES; i++) {
+      m_stripes[i] = new Stripe();
+    }
+    m_released = new ReferenceQueue<svm_problem>();
+    setCapacity(capacity);
+  }
+
+  public static KernelRowCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the kernel of the parameter between the rows of the problem.
+   * Its rows are cached unless the capacity is 0.
+   */
+  public KernelFunction getKernel(svm_problem prob, svm_parameter param) {
+    purge();
+    return new KernelFunction(getFeatureRows(prob), param,
+        (getCapacity() > 0) ? new KernelRows(this, prob, param) : null);
+  }
+
+  /**
+   * Returns the rows of the problem, which are converted once per problem.
+   */
+  public FeatureRows getFeatureRows(svm_problem prob) {
+    synchronized (m_featureRows) {
+      FeatureRows rows = m_featureRows.get(prob);
+      if (rows == null) {
+        rows = FeatureRows.fromNodes(prob.x);
+        m_featureRows.put(prob, rows);
+      }
+      return rows;
+    }
+  }
+
+  /**
+   * Returns the cached row of the kernel or null if the row does not fit
+   * into the cache.
+   */
+  public float[] getRow(KernelRows kernel, int row) {
+    RowKey key = new RowKey(kernel, row);
+    int hash = key.hashCode();
+    hash ^= (hash >>> 16);
+    return m_stripes[hash & (STRIPES - 1)].getRow(key, kernel.m_length);
+  }
+
+  /**
+   * Drops the rows of collected problems.
+   */
+  private void purge() {
+    if (m_released.poll() == null) {
+      return;
+    }
+    // one pass over the stripes drops the rows of all released problems
+    while (m_released.poll() != null) {
+      continue;
+    }
+    for (Stripe stripe : m_stripes) {
+      stripe.purge();
+    }
+  }
+
+  public long getCapacity() {
+    return m_capacity;
+  }
+
+  public void setCapacity(long capacity) {
+    m_capacity = capacity;
+    for (Stripe stripe : m_stripes) {
+      stripe.setCapacity(capacity / STRIPES);
+    }
+  }
+
+  public void clear() {
+    synchronized (m_featureRows) {
+      m_featureRows.clear();
+    }
+    for (Stripe stripe : m_stripes) {
+      stripe.clear();
+    }
+  }
+
+  @Override
+  public String toString() {
+    int rows = 0;
+    long size = 0;
+    long hits = 0;
+    long misses = 0;
+    for (Stripe stripe : m_stripes) {
+      synchronized (stripe) {
+        rows += stripe.m_rows.size();
+        size += stripe.m_size;
+        hits += stripe.m_hits;
+        misses += stripe.m_misses;
+      }
+    }
+    return "KernelRowCache [rows=" + rows + ", size=" + size + ", capacity="
+        + m_capacity + ", hits=" + hits + ", misses=" + misses + "]";
+  }
+
+  private static class Stripe {
+    private final LinkedHashMap<RowKey, float[]> m_rows;
+    private long m_capacity = 0;
+    private long m_size = 0;
+    private long m_hits = 0;
+    private long m_misses = 0;
+
+    public Stripe() {
+      m_rows = new LinkedHashMap<RowKey, float[]>(16, 0.75f, true);
+    }
+
+    public synchronized float[] getRow(RowKey key, int length) {
+      float[] values = m_rows.get(key);
+      if (values != null) {
+        m_hits++;
+        return values;
+      }
+      m_misses++;
+
+      long bytes = 4L * length;
+      if (bytes > m_capacity) {
+        return null;
+      }
+      m_size += bytes;
+      evict();
+      values = new float[length];
+      Arrays.fill(values, Float.NaN);
+      m_rows.put(key, values);
+      return values;
+    }
+
+    public synchronized void setCapacity(long capacity) {
+      m_capacity = capacity;
+      evict();
+    }
+
+    public synchronized void purge() {
+      Iterator<Map.Entry<RowKey, float[]>> it = m_rows.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<RowKey, float[]> entry = it.next();
+        if (entry.getKey().m_kernel.isReleased()) {
+          m_size -= 4L * entry.getValue().length;
+          it.remove();
+        }
+      }
+    }
+
+    public synchronized void clear() {
+      m_rows.clear();
+      m_size = 0;
+      m_hits = 0;
+      m_misses = 0;
+    }
+
+    private void evict() {
+      Iterator<float[]> it = m_rows.values().iterator();
+      while ((m_size > m_capacity) && (it.hasNext())) {
+        m_size -= 4L * it.next().length;
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Cached rows of the kernel of a parameter between the rows of a problem,
+   * which is only held weakly. Equal kernels of the same problem share their
+   * rows.
+   */
+  public static class KernelRows {
+    private final KernelRowCache m_cache;
+    private final WeakReference<svm_problem> m_problem;
+    private final int m_problemHash;
+    private final int m_length;
+    private final int m_kernelType;
+    private final int m_degree;
+    private final double m_gamma;
+    private final double m_coef0;
+
+    private KernelRows(KernelRowCache cache, svm_problem prob,
+        svm_parameter param) {
+      m_cache = cache;
+      m_problem = new WeakReference<svm_problem>(prob, cache.m_released);
+      m_problemHash = System.identityHashCode(prob);
+      m_length = prob.l;
+      m_kernelType = param.kernel_type;
+      m_degree = param.degree;
+      m_gamma = param.gamma;
+      m_coef0 = param.coef0;
+    }
+
+    /**
+     * Returns the shared row i, whose entries are NaN until they are
+     * computed, or null if the row does not fit into the cache.
+     */
+    public float[] getRow(int i) {
+      return m_cache.getRow(this, i);
+    }
+
+    private boolean isReleased() {
+      return m_problem.get() == null;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = m_problemHash;
+      result = 31 * result + m_kernelType;
+      result = 31 * result + m_degree;
+      long bits = Double.doubleToLongBits(m_gamma);
+      result = 31 * result + (int) (bits ^ (bits >>> 32));
+      bits = Double.doubleToLongBits(m_coef0);
+      return 31 * result + (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof KernelRows)) {
+        return false;
+      }
+      KernelRows other = (KernelRows) obj;
+      svm_problem prob = m_problem.get();
+      return (prob != null) && (prob == other.m_problem.get())
+          && (m_kernelType == other.m_kernelType)
+          && (m_degree == other.m_degree) && (m_gamma == other.m_gamma)
+          && (m_coef0 == other.m_coef0);
+    }
+  }
+
+  private static class RowKey {
+    private final KernelRows m_kernel;
+    private final int m_row;
+
+    public RowKey(KernelRows kernel, int row) {
+      m_kernel = kernel;
+      m_row = row;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * m_kernel.hashCode() + m_row;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof RowKey)) {
+        return false;
+      }
+      RowKey other = (RowKey) obj;
+      return (m_row == other.m_row) && (m_kernel.equals(other.m_kernel));
+    }
+  }
+
+}
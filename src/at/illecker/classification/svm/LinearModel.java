@@ -0,0 +1,168 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.svm;
+
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+/**
+ * Linear model of explicit weight vectors, trained by {@link LinearTrainer}.
+ * A binary model holds one vector of label[0] against label[1], a
+ * multi-class model one vector of every class against the rest, and an item
+ * is scored in O(nnz) per vector. The model has no support vectors, so it is
+ * evaluated by {@link SVM#predict} and {@link SVM#predictProbability}
+ * instead of libsvm. probA and probB hold the sigmoid of every vector. A
+ * model of a {@link FeatureMap} maps every item before scoring it.
+ */
+public class LinearModel extends svm_model {
+  private static final long serialVersionUID = 7720386457014238321L;
+
+  // feature of index firstIndex + k at position k, the bias weight last
+  private final double[][] m_weights;
+  private final int m_firstIndex;
+  private final double m_bias;
+  // map of the items into the features of the weights, null if none
+  private FeatureMap m_featureMap;
+
+  public LinearModel(svm_parameter param, int[] label, double[][] weights,
+      int firstIndex, double bias) {
+    this.param = param;
+    this.nr_class = label.length;
+    this.label = label;
+    this.l = 0;
+    this.SV = new svm_node[0][];
+    this.nSV = new int[label.length];
+    m_weights = weights;
+    m_firstIndex = firstIndex;
+    m_bias = bias;
+  }
+
+  public double[][] getWeights() {
+    return m_weights;
+  }
+
+  public int getFirstIndex() {
+    return m_firstIndex;
+  }
+
+  public double getBias() {
+    return m_bias;
+  }
+
+  public FeatureMap getFeatureMap() {
+    return m_featureMap;
+  }
+
+  public void setFeatureMap(FeatureMap featureMap) {
+    this.m_featureMap = featureMap;
+  }
+
+  /**
+   * Stores the decision value of every weight vector in decValues.
+   */
+  public void decisionValues(svm_node[] x, double[] decValues) {
+    if (m_featureMap != null) {
+      // the weights of the features 1 to D start at position 0
+      int dimension = m_featureMap.getDimension();
+      double[] z = new double[dimension];
+      m_featureMap.map(x, z);
+      for (int c = 0; c < m_weights.length; c++) {
+        double[] w = m_weights[c];
+        decValues[c] = FeatureRows.dot(w, 0, z, 0, dimension)
+            + w[w.length - 1] * m_bias;
+      }
+      return;
+    }
+    for (int c = 0; c < m_weights.length; c++) {
+      double[] w = m_weights[c];
+      int dimension = w.length - 1;
+      double sum = w[dimension] * m_bias;
+      for (svm_node node : x) {
+        int k = node.index - m_firstIndex;
+        if ((k >= 0) && (k < dimension)) {
+          sum += w[k] * node.value;
+        }
+      }
+      decValues[c] = sum;
+    }
+  }
+
+  public double predict(svm_node[] x) {
+    double[] decValues = new double[m_weights.length];
+    decisionValues(x, decValues);
+    if (nr_class == 2) {
+      return (decValues[0] > 0) ? label[0] : label[1];
+    }
+    return label[argmax(decValues)];
+  }
+
+  /**
+   * Returns the label of the highest probability and stores the probability
+   * of every label in probEstimates. Models without sigmoid parameters only
+   * predict the label.
+   */
+  public double predictProbability(svm_node[] x, double[] probEstimates) {
+    if ((probA == null) || (probB == null)) {
+      return predict(x);
+    }
+    double[] decValues = new double[m_weights.length];
+    decisionValues(x, decValues);
+    if (nr_class == 2) {
+      probEstimates[0] = sigmoidPredict(decValues[0], probA[0], probB[0]);
+      probEstimates[1] = 1 - probEstimates[0];
+    } else {
+      // normalize the one-vs-rest probabilities
+      double sum = 0;
+      for (int c = 0; c < nr_class; c++) {
+        probEstimates[c] = sigmoidPredict(decValues[c], probA[c], probB[c]);
+        sum += probEstimates[c];
+      }
+      for (int c = 0; c < nr_class; c++) {
+        probEstimates[c] = (sum > 0) ? probEstimates[c] / sum
+            : 1.0 / nr_class;
+      }
+    }
+    return label[argmax(probEstimates)];
+  }
+
+  private static double sigmoidPredict(double decValue, double A, double B) {
+    double fApB = decValue * A + B;
+    if (fApB >= 0) {
+      return Math.exp(-fApB) / (1.0 + Math.exp(-fApB));
+    }
+    return 1.0 / (1 + Math.exp(fApB));
+  }
+
+  private int argmax(double[] values) {
+    int best = 0;
+    for (int c = 1; c < nr_class; c++) {
+      if (values[c] > values[best]) {
+        best = c;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public String toString() {
+    return "LinearModel [nr_class=" + nr_class + ", vectors="
+        + m_weights.length + ", firstIndex=" + m_firstIndex + ", bias="
+        + m_bias + ", featureMap=" + m_featureMap + "]";
+  }
+
+}
@@ -0,0 +1,471 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.svm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import libsvm.svm_parameter;
+import libsvm.svm_problem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Training engine of linear C-SVC by dual coordinate descent as in liblinear
+ * (Hsieh et al., ICML 2008). Every coordinate step updates the weight vector
+ * directly, so a pass over the rows costs O(nnz) instead of kernel rows.
+ * Multi-class problems are solved one-vs-rest in parallel, and every row is
+ * extended by a bias feature of value BIAS like liblinear -B 1.
+ */
+public class LinearTrainer {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(LinearTrainer.class);
+  private static final int PROBABILITY_FOLDS = 5;
+  private static final int MAX_ITERATIONS = 1000;
+  // stopping tolerance of the projected gradient, the default of liblinear,
+  // which is not comparable to the eps of libsvm
+  private static final double EPS = 0.1;
+  private static final double BIAS = 1;
+  // seed of the random order of every solver, the default seed of
+  // liblinear, so that results do not depend on the order of the solvers
+  private static final long SEED = 0;
+
+  /**
+   * Loss of the linear SVM, the hinge loss L1 or the squared hinge loss L2.
+   */
+  public enum Loss {
+    L1, L2;
+
+    public static Loss parse(String loss) {
+      return valueOf(loss.trim().toUpperCase());
+    }
+  }
+
+  /**
+   * Returns true if the svm type and kernel are trained by this engine.
+   */
+  public static boolean isSupported(svm_parameter param) {
+    return (param.svm_type == svm_parameter.C_SVC)
+        && (param.kernel_type == svm_parameter.LINEAR);
+  }
+
+  public static LinearModel train(svm_problem prob, svm_parameter param) {
+    return train(prob, param, Loss.L2);
+  }
+
+  public static LinearModel train(svm_problem prob, svm_parameter param,
+      Loss loss) {
+    return train(prob, KernelRowCache.getInstance().getFeatureRows(prob),
+        SMOTrainer.range(prob.l), param, loss);
+  }
+
+  /**
+   * Trains a model of the rows mapped by the feature map, which the model
+   * applies to every item it predicts.
+   */
+  public static LinearModel train(svm_problem prob, svm_parameter param,
+      FeatureMap featureMap, Loss loss) {
+    LinearModel model = train(prob, featureMap.map(prob.x),
+        SMOTrainer.range(prob.l), param, loss);
+    if (model != null) {
+      model.setFeatureMap(featureMap);
+    }
+    return model;
+  }
+
+  /**
+   * Trains a model on the rows of the problem, which index the feature rows
+   * as well.
+   */
+  static LinearModel train(svm_problem prob, FeatureRows x, int[] rows,
+      svm_parameter param, Loss loss) {
+    // labels in order of first appearance, -1 and +1 as +1 and -1
+    List<Integer> labelList = new ArrayList<Integer>();
+    int[] classOf = new int[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      int label = (int) prob.y[rows[i]];
+      int c = labelList.indexOf(label);
+      if (c < 0) {
+        c = labelList.size();
+        labelList.add(label);
+      }
+      classOf[i] = c;
+    }
+    int nrClass = labelList.size();
+    if ((nrClass == 2) && (labelList.get(0) == -1)
+        && (labelList.get(1) == +1)) {
+      labelList.set(0, +1);
+      labelList.set(1, -1);
+      for (int i = 0; i < classOf.length; i++) {
+        classOf[i] = 1 - classOf[i];
+      }
+    }
+    int[] label = new int[nrClass];
+    for (int c = 0; c < nrClass; c++) {
+      label[c] = labelList.get(c);
+    }
+
+    // weighted C of each class
+    double[] weightedC = new double[nrClass];
+    Arrays.fill(weightedC, param.C);
+    for (int i = 0; i < param.nr_weight; i++) {
+      int c = labelList.indexOf(param.weight_label[i]);
+      if (c < 0) {
+        LOG.warn("class label " + param.weight_label[i]
+            + " specified in weight is not found");
+      } else {
+        weightedC[c] *= param.weight[i];
+      }
+    }
+
+    // one vector of label[0] against label[1] or of every class against the
+    // rest, the rest is weighted by C like in liblinear
+    int vectors = (nrClass == 2) ? 1 : nrClass;
+    List<BinaryCallable> callables = new ArrayList<BinaryCallable>(vectors);
+    // every vector passes over all rows
+    double[] costs = new double[vectors];
+    for (int c = 0; c < vectors; c++) {
+      byte[] y = new byte[rows.length];
+      for (int i = 0; i < rows.length; i++) {
+        y[i] = (byte) ((classOf[i] == c) ? +1 : -1);
+      }
+      double Cn = (nrClass == 2) ? weightedC[1] : param.C;
+      costs[c] = rows.length;
+      callables.add(new BinaryCallable(x, rows, y, weightedC[c], Cn, param,
+          loss));
+    }
+
+    WeightVector[] f;
+    try {
+      f = TrainingScheduler.getInstance().invokeAll(callables, costs)
+          .toArray(new WeightVector[vectors]);
+    } catch (InterruptedException e) {
+      LOG.error("InterruptedException: " + e.getMessage());
+      return null;
+    } catch (ExecutionException e) {
+      LOG.error("ExecutionException: " + e.getMessage());
+      return null;
+    }
+
+    double[][] weights = new double[vectors][];
+    for (int c = 0; c < vectors; c++) {
+      weights[c] = f[c].w;
+    }
+    LinearModel model = new LinearModel(param, label, weights,
+        x.getFirstIndex(), BIAS);
+    if (param.probability == 1) {
+      model.probA = new double[vectors];
+      model.probB = new double[vectors];
+      for (int c = 0; c < vectors; c++) {
+        model.probA[c] = f[c].probA;
+        model.probB[c] = f[c].probB;
+      }
+    }
+    return model;
+  }
+
+  /**
+   * Weight vector of a binary problem, the bias weight last.
+   */
+  static class WeightVector {
+    double[] w;
+    double probA;
+    double probB;
+
+    double decisionValue(FeatureRows x, int row) {
+      return x.dot(row, w) + w[w.length - 1] * BIAS;
+    }
+  }
+
+  private static class BinaryCallable implements Callable<WeightVector> {
+    private FeatureRows m_x;
+    private int[] m_rows;
+    private byte[] m_y;
+    private double m_Cp;
+    private double m_Cn;
+    private svm_parameter m_param;
+    private Loss m_loss;
+
+    public BinaryCallable(FeatureRows x, int[] rows, byte[] y, double Cp,
+        double Cn, svm_parameter param, Loss loss) {
+      m_x = x;
+      m_rows = rows;
+      m_y = y;
+      m_Cp = Cp;
+      m_Cn = Cn;
+      m_param = param;
+      m_loss = loss;
+    }
+
+    @Override
+    public WeightVector call() throws Exception {
+      double[] probAB = null;
+      if (m_param.probability == 1) {
+        probAB = binaryProbability(m_x, m_rows, m_y, m_Cp, m_Cn, m_param,
+            m_loss);
+      }
+      WeightVector model = new WeightVector();
+      model.w = solve(m_x, m_rows, m_y, m_Cp, m_Cn, m_loss);
+      if (probAB != null) {
+        model.probA = probAB[0];
+        model.probB = probAB[1];
+      }
+      return model;
+    }
+  }
+
+  /**
+   * Solves the dual of the binary problem of the rows with labels y by
+   * coordinate descent with shrinking and returns the weight vector.
+   */
+  static double[] solve(FeatureRows x, int[] rows, byte[] y, double Cp,
+      double Cn, Loss loss) {
+    int l = rows.length;
+    int dimension = x.getDimension();
+    double[] w = new double[dimension + 1];
+    double[] alpha = new double[l];
+    int[] index = SMOTrainer.range(l);
+    Random random = new Random(SEED);
+
+    // the L2 loss adds 1 / 2C to the diagonal and has no upper bound
+    double diagP = (loss == Loss.L2) ? 0.5 / Cp : 0;
+    double diagN = (loss == Loss.L2) ? 0.5 / Cn : 0;
+    double upperP = (loss == Loss.L2) ? Double.POSITIVE_INFINITY : Cp;
+    double upperN = (loss == Loss.L2) ? Double.POSITIVE_INFINITY : Cn;
+    double[] QD = new double[l];
+    for (int i = 0; i < l; i++) {
+      QD[i] = ((y[i] > 0) ? diagP : diagN)
+          + x.getSquaredNorm(rows[i]) + BIAS * BIAS;
+    }
+
+    double PGmaxOld = Double.POSITIVE_INFINITY;
+    double PGminOld = Double.NEGATIVE_INFINITY;
+    int activeSize = l;
+    int iter = 0;
+    while (iter < MAX_ITERATIONS) {
+      double PGmaxNew = Double.NEGATIVE_INFINITY;
+      double PGminNew = Double.POSITIVE_INFINITY;
+
+      for (int i = 0; i < activeSize; i++) {
+        int j = i + random.nextInt(activeSize - i);
+        int tmp = index[i];
+        index[i] = index[j];
+        index[j] = tmp;
+      }
+
+      for (int s = 0; s < activeSize; s++) {
+        int i = index[s];
+        int row = rows[i];
+        double yi = y[i];
+        double upper = (yi > 0) ? upperP : upperN;
+        double G = yi * (x.dot(row, w) + w[dimension] * BIAS) - 1
+            + alpha[i] * ((yi > 0) ? diagP : diagN);
+
+        double PG = 0;
+        if (alpha[i] == 0) {
+          if (G > PGmaxOld) {
+            // shrink the variable at its lower bound
+            activeSize--;
+            index[s] = index[activeSize];
+            index[activeSize] = i;
+            s--;
+            continue;
+          } else if (G < 0) {
+            PG = G;
+          }
+        } else if (alpha[i] == upper) {
+          if (G < PGminOld) {
+            // shrink the variable at its upper bound
+            activeSize--;
+            index[s] = index[activeSize];
+            index[activeSize] = i;
+            s--;
+            continue;
+          } else if (G > 0) {
+            PG = G;
+          }
+        } else {
+          PG = G;
+        }
+
+        PGmaxNew = Math.max(PGmaxNew, PG);
+        PGminNew = Math.min(PGminNew, PG);
+
+        if (Math.abs(PG) > 1.0e-12) {
+          double alphaOld = alpha[i];
+          alpha[i] = Math.min(Math.max(alpha[i] - G / QD[i], 0.0), upper);
+          double d = (alpha[i] - alphaOld) * yi;
+          x.axpy(d, row, w);
+          w[dimension] += d * BIAS;
+        }
+      }
+
+      iter++;
+      if (PGmaxNew - PGminNew <= EPS) {
+        if (activeSize == l) {
+          break;
+        }
+        // check the optimality of all variables before stopping
+        activeSize = l;
+        PGmaxOld = Double.POSITIVE_INFINITY;
+        PGminOld = Double.NEGATIVE_INFINITY;
+        continue;
+      }
+      PGmaxOld = (PGmaxNew <= 0) ? Double.POSITIVE_INFINITY : PGmaxNew;
+      PGminOld = (PGminNew >= 0) ? Double.NEGATIVE_INFINITY : PGminNew;
+    }
+
+    if (iter >= MAX_ITERATIONS) {
+      LOG.warn("reaching max number of iterations " + MAX_ITERATIONS);
+    }
+    if (LOG.isDebugEnabled()) {
+      int nSV = 0;
+      for (int i = 0; i < l; i++) {
+        if (alpha[i] > 0) {
+          nSV++;
+        }
+      }
+      LOG.debug("optimization finished, #iter = " + iter + ", nSV = " + nSV);
+    }
+    return w;
+  }
+
+  /**
+   * Fits the sigmoid of probability estimates to the decision values of an
+   * internal cross validation.
+   */
+  private static double[] binaryProbability(FeatureRows x, int[] rows,
+      byte[] y, double Cp, double Cn, svm_parameter param, Loss loss) {
+    int l = rows.length;
+    int[] perm = SMOTrainer.range(l);
+    Random random = new Random(SEED);
+    for (int i = 0; i < l; i++) {
+      int j = i + random.nextInt(l - i);
+      int tmp = perm[i];
+      perm[i] = perm[j];
+      perm[j] = tmp;
+    }
+
+    double[] decValues = new double[l];
+    for (int fold = 0; fold < PROBABILITY_FOLDS; fold++) {
+      int begin = fold * l / PROBABILITY_FOLDS;
+      int end = (fold + 1) * l / PROBABILITY_FOLDS;
+
+      int[] subRows = new int[l - (end - begin)];
+      byte[] subY = new byte[subRows.length];
+      int k = 0;
+      int pCount = 0;
+      for (int j = 0; j < l; j++) {
+        if ((j < begin) || (j >= end)) {
+          subRows[k] = rows[perm[j]];
+          subY[k] = y[perm[j]];
+          if (subY[k] > 0) {
+            pCount++;
+          }
+          k++;
+        }
+      }
+      int nCount = subRows.length - pCount;
+
+      if ((pCount == 0) && (nCount == 0)) {
+        for (int j = begin; j < end; j++) {
+          decValues[perm[j]] = 0;
+        }
+      } else if (nCount == 0) {
+        for (int j = begin; j < end; j++) {
+          decValues[perm[j]] = 1;
+        }
+      } else if (pCount == 0) {
+        for (int j = begin; j < end; j++) {
+          decValues[perm[j]] = -1;
+        }
+      } else {
+        WeightVector model = new WeightVector();
+        model.w = solve(x, subRows, subY, Cp, Cn, loss);
+        for (int j = begin; j < end; j++) {
+          decValues[perm[j]] = model.decisionValue(x, rows[perm[j]]);
+        }
+      }
+    }
+    return SMOTrainer.sigmoidTrain(decValues, y);
+  }
+
+  /**
+   * Runs a stratified n-fold cross validation and stores the predicted label
+   * of every row in target.
+   */
+  public static void crossValidation(svm_problem prob, svm_parameter param,
+      Loss loss, int nFold, double[] target) {
+    crossValidation(prob, KernelRowCache.getInstance().getFeatureRows(prob),
+        null, param, loss, nFold, target);
+  }
+
+  /**
+   * Runs a cross validation of the rows mapped by the feature map, which is
+   * computed once for all folds.
+   */
+  public static void crossValidation(svm_problem prob, svm_parameter param,
+      FeatureMap featureMap, Loss loss, int nFold, double[] target) {
+    crossValidation(prob, featureMap.map(prob.x), featureMap, param, loss,
+        nFold, target);
+  }
+
+  private static void crossValidation(svm_problem prob, FeatureRows x,
+      FeatureMap featureMap, svm_parameter param, Loss loss, int nFold,
+      double[] target) {
+    int l = prob.l;
+    boolean[] inFold = new boolean[l];
+    for (List<Integer> fold : SMOTrainer.getFolds(prob, nFold)) {
+      if (fold.isEmpty()) {
+        continue;
+      }
+      for (int row : fold) {
+        inFold[row] = true;
+      }
+      int[] trainRows = new int[l - fold.size()];
+      int k = 0;
+      for (int i = 0; i < l; i++) {
+        if (!inFold[i]) {
+          trainRows[k++] = i;
+        }
+      }
+
+      LinearModel model = train(prob, x, trainRows, param, loss);
+      if (model == null) {
+        // rows of a failed fold count as misclassified
+        LOG.error("LinearModel of the fold could not be trained");
+        for (int row : fold) {
+          target[row] = Double.NaN;
+          inFold[row] = false;
+        }
+        continue;
+      }
+      model.setFeatureMap(featureMap);
+      double[] probEstimates = new double[model.nr_class];
+      for (int row : fold) {
+        target[row] = model.predictProbability(prob.x[row], probEstimates);
+        inFold[row] = false;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.svm;
+
+import java.util.Arrays;
+import java.util.List;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_problem;
+
+/**
+ * Platt scaling of a trained model outside of the training. libsvm fits the
+ * sigmoid of every binary problem to the decision values of an internal
+ * 5-fold cross validation, which costs about five additional trainings. A
+ * model trained without probability estimates is calibrated instead by the
+ * decision values of rows it was not trained on, either of a held-out split
+ * or of the folds of a cross validation. The decision values are stored in
+ * the layout of the calibrated model: one value of every pair of labels, or
+ * of every label against the rest for multi-class {@link LinearModel}s.
+ */
+public class ProbabilityCalibration {
+  public static final double DEFAULT_HOLDOUT_FRACTION = 0.2;
+
+  /**
+   * Internal cross validation of libsvm, held-out split or folds of the
+   * cross validation.
+   */
+  public enum Method {
+    INTERNAL, HOLDOUT, CROSS_VALIDATION;
+
+    public static Method parse(String method) {
+      return valueOf(method.trim().toUpperCase());
+    }
+  }
+
+  /**
+   * Returns the rows of the training and of the held-out split, a stratified
+   * fraction of the rows.
+   */
+  public static int[][] split(svm_problem prob, double holdoutFraction) {
+    if ((holdoutFraction <= 0) || (holdoutFraction >= 1)) {
+      throw new IllegalArgumentException("Held-out fraction must be in "
+          + "(0, 1): " + holdoutFraction);
+    }
+    int nFold = Math.max(2, (int) Math.round(1 / holdoutFraction));
+    List<List<Integer>> folds = SMOTrainer.getFolds(prob, nFold);
+    List<Integer> holdout = folds.get(0);
+
+    boolean[] inHoldout = new boolean[prob.l];
+    int[] holdoutRows = new int[holdout.size()];
+    for (int i = 0; i < holdoutRows.length; i++) {
+      holdoutRows[i] = holdout.get(i);
+      inHoldout[holdoutRows[i]] = true;
+    }
+    int[] trainRows = new int[prob.l - holdoutRows.length];
+    int k = 0;
+    for (int i = 0; i < prob.l; i++) {
+      if (!inHoldout[i]) {
+        trainRows[k++] = i;
+      }
+    }
+    return new int[][] { trainRows, holdoutRows };
+  }
+
+  /**
+   * Returns the problem of the rows, which shares their nodes.
+   */
+  public static svm_problem getProblem(svm_problem prob, int[] rows) {
+    svm_problem subProb = new svm_problem();
+    subProb.l = rows.length;
+    subProb.x = new svm_node[rows.length][];
+    subProb.y = new double[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      subProb.x[i] = prob.x[rows[i]];
+      subProb.y[i] = prob.y[rows[i]];
+    }
+    return subProb;
+  }
+
+  /**
+   * Returns the number of decision values in the layout of the model.
+   */
+  public static int getDecisionValueCount(svm_model model) {
+    if (isOneVsRest(model)) {
+      return model.nr_class;
+    }
+    return model.nr_class * (model.nr_class - 1) / 2;
+  }
+
+  private static boolean isOneVsRest(svm_model model) {
+    return (model instanceof LinearModel) && (model.nr_class > 2);
+  }
+
+  /**
+   * Stores the decision values of the model in the layout of the reference
+   * model, whose labels may be ordered differently. Values of labels which
+   * the model does not know are NaN.
+   */
+  public static void decisionValues(svm_model model, svm_model reference,
+      svm_node[] x, double[] decValues) {
+    Arrays.fill(decValues, Double.NaN);
+    if (model instanceof LinearModel) {
+      LinearModel linearModel = (LinearModel) model;
+      double[] values = new double[linearModel.getWeights().length];
+      linearModel.decisionValues(x, values);
+      if (isOneVsRest(model) != isOneVsRest(reference)) {
+        return;
+      }
+      if (isOneVsRest(model)) {
+        for (int c = 0; c < model.nr_class; c++) {
+          int k = indexOf(reference.label, model.label[c]);
+          if (k >= 0) {
+            decValues[k] = values[c];
+          }
+        }
+      } else if (model.nr_class == 2) {
+        setPairValue(reference.label, model.label[0], model.label[1],
+            values[0], decValues);
+      }
+      return;
+    }
+
+    double[] values = new double[getDecisionValueCount(model)];
+    svm.svm_predict_values(model, x, values);
+    int p = 0;
+    for (int i = 0; i < model.nr_class; i++) {
+      for (int j = i + 1; j < model.nr_class; j++) {
+        setPairValue(reference.label, model.label[i], model.label[j],
+            values[p++], decValues);
+      }
+    }
+  }
+
+  // the value of the pair is positive for the label of the lower index
+  private static void setPairValue(int[] label, int a, int b, double value,
+      double[] decValues) {
+    int i = indexOf(label, a);
+    int j = indexOf(label, b);
+    if ((i < 0) || (j < 0)) {
+      return;
+    }
+    if (i > j) {
+      int tmp = i;
+      i = j;
+      j = tmp;
+      value = -value;
+    }
+    decValues[i * label.length - i * (i + 1) / 2 + j - i - 1] = value;
+  }
+
+  /**
+   * Fits the sigmoid of every decision value of the model to the decision
+   * values of the rows of the labels y, which the model was not trained on.
+   * NaN values are skipped.
+   */
+  public static void fit(svm_model model, double[] y, double[][] decValues) {
+    int count = getDecisionValueCount(model);
+    // class of the positive and negative side of every value, -1 the rest
+    int[] positive = new int[count];
+    int[] negative = new int[count];
+    if (isOneVsRest(model)) {
+      for (int c = 0; c < count; c++) {
+        positive[c] = c;
+        negative[c] = -1;
+      }
+    } else {
+      int p = 0;
+      for (int i = 0; i < model.nr_class; i++) {
+        for (int j = i + 1; j < model.nr_class; j++) {
+          positive[p] = i;
+          negative[p] = j;
+          p++;
+        }
+      }
+    }
+
+    int[] cls = new int[y.length];
+    for (int r = 0; r < y.length; r++) {
+      cls[r] = indexOf(model.label, (int) y[r]);
+    }
+
+    model.probA = new double[count];
+    model.probB = new double[count];
+    double[] values = new double[y.length];
+    byte[] signs = new byte[y.length];
+    for (int p = 0; p < count; p++) {
+      int l = 0;
+      for (int r = 0; r < y.length; r++) {
+        double value = decValues[r][p];
+        if ((cls[r] < 0) || Double.isNaN(value)) {
+          continue;
+        }
+        if (cls[r] == positive[p]) {
+          signs[l] = +1;
+        } else if ((negative[p] < 0) || (cls[r] == negative[p])) {
+          signs[l] = -1;
+        } else {
+          continue;
+        }
+        values[l++] = value;
+      }
+      double[] probAB = SMOTrainer.sigmoidTrain(Arrays.copyOf(values, l),
+          Arrays.copyOf(signs, l));
+      model.probA[p] = probAB[0];
+      model.probB[p] = probAB[1];
+    }
+  }
+
+  private static int indexOf(int[] label, int value) {
+    for (int i = 0; i < label.length; i++) {
+      if (label[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+}
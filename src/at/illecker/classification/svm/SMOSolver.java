@@ -0,0 +1,513 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.svm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SMO solver of the dual problem
+ *
+ * <pre>
+ * min 0.5 a'Qa + p'a  s.t.  y'a = 0, 0 <= a_i <= C_i
+ * </pre>
+ *
+ * with y_i = +1 or -1, following the Solver of libsvm. The working set is
+ * selected by second order information (WSS3) and bounded variables are
+ * shrunk from the active set. Variables are never moved in memory, the
+ * active set is a permutation of variable indices instead.
+ */
+public class SMOSolver {
+  private static final Logger LOG = LoggerFactory.getLogger(SMOSolver.class);
+  private static final double INF = Double.POSITIVE_INFINITY;
+  private static final double TAU = 1e-12;
+  private static final byte LOWER_BOUND = 0;
+  private static final byte UPPER_BOUND = 1;
+  private static final byte FREE = 2;
+
+  /**
+   * Rows of the matrix Q of the dual problem.
+   */
+  public interface QMatrix {
+    /**
+     * Returns row i of Q indexed by variable. Only the entries of the
+     * variables active[0], ..., active[len - 1] need to be valid.
+     */
+    public float[] getQ(int i, int[] active, int len);
+
+    public double[] getQD();
+  }
+
+  public static class SolutionInfo {
+    public double obj;
+    public double rho;
+    public int iterations;
+  }
+
+  private int m_l;
+  private int m_activeSize;
+  private int[] m_active;
+  private byte[] m_y;
+  private double[] m_G;
+  private double[] m_Gbar;
+  private byte[] m_alphaStatus;
+  private double[] m_alpha;
+  private QMatrix m_Q;
+  private double[] m_QD;
+  private double[] m_p;
+  private double m_eps;
+  private double m_Cp;
+  private double m_Cn;
+  private boolean m_unshrink;
+  private int m_workingI;
+  private int m_workingJ;
+
+  /**
+   * Solves the problem starting from the feasible alpha, which is updated
+   * with the solution.
+   */
+  public void solve(int l, QMatrix Q, double[] p, byte[] y, double[] alpha,
+      double Cp, double Cn, double eps, boolean shrinking, SolutionInfo si) {
+    m_l = l;
+    m_Q = Q;
+    m_QD = Q.getQD();
+    m_p = p;
+    m_y = y;
+    m_alpha = alpha;
+    m_Cp = Cp;
+    m_Cn = Cn;
+    m_eps = eps;
+    m_unshrink = false;
+
+    m_alphaStatus = new byte[l];
+    for (int i = 0; i < l; i++) {
+      updateAlphaStatus(i);
+    }
+    m_active = new int[l];
+    for (int i = 0; i < l; i++) {
+      m_active[i] = i;
+    }
+    m_activeSize = l;
+
+    // initialize gradient
+    m_G = new double[l];
+    m_Gbar = new double[l];
+    for (int i = 0; i < l; i++) {
+      m_G[i] = p[i];
+    }
+    for (int i = 0; i < l; i++) {
+      if (!isLowerBound(i)) {
+        float[] Q_i = Q.getQ(i, m_active, l);
+        double alpha_i = alpha[i];
+        for (int j = 0; j < l; j++) {
+          m_G[j] += alpha_i * Q_i[j];
+        }
+        if (isUpperBound(i)) {
+          double C_i = getC(i);
+          for (int j = 0; j < l; j++) {
+            m_Gbar[j] += C_i * Q_i[j];
+          }
+        }
+      }
+    }
+
+    // optimization step
+    int iter = 0;
+    int maxIter = Math.max(10000000,
+        (l > Integer.MAX_VALUE / 100) ? Integer.MAX_VALUE : 100 * l);
+    int counter = Math.min(l, 1000) + 1;
+
+    while (iter < maxIter) {
+      // shrink the active set from time to time
+      if (--counter == 0) {
+        counter = Math.min(l, 1000);
+        if (shrinking) {
+          doShrinking();
+        }
+      }
+
+      if (!selectWorkingSet()) {
+        // check optimality on the whole set
+        reconstructGradient();
+        m_activeSize = l;
+        if (!selectWorkingSet()) {
+          break;
+        } else {
+          counter = 1; // shrink in the next iteration
+        }
+      }
+      iter++;
+
+      updateAlphas(m_workingI, m_workingJ);
+    }
+
+    if (iter >= maxIter) {
+      if (m_activeSize < l) {
+        reconstructGradient();
+        m_activeSize = l;
+      }
+      LOG.warn("Reaching maximal iterations " + maxIter);
+    }
+
+    si.rho = calculateRho();
+    double v = 0;
+    for (int i = 0; i < l; i++) {
+      v += alpha[i] * (m_G[i] + p[i]);
+    }
+    si.obj = v / 2;
+    si.iterations = iter;
+  }
+
+  private void updateAlphas(int i, int j) {
+    float[] Q_i = m_Q.getQ(i, m_active, m_activeSize);
+    float[] Q_j = m_Q.getQ(j, m_active, m_activeSize);
+
+    double C_i = getC(i);
+    double C_j = getC(j);
+    double oldAlpha_i = m_alpha[i];
+    double oldAlpha_j = m_alpha[j];
+
+    if (m_y[i] != m_y[j]) {
+      double quadCoef = m_QD[i] + m_QD[j] + 2 * Q_i[j];
+      if (quadCoef <= 0) {
+        quadCoef = TAU;
+      }
+      double delta = (-m_G[i] - m_G[j]) / quadCoef;
+      double diff = m_alpha[i] - m_alpha[j];
+      m_alpha[i] += delta;
+      m_alpha[j] += delta;
+
+      if (diff > 0) {
+        if (m_alpha[j] < 0) {
+          m_alpha[j] = 0;
+          m_alpha[i] = diff;
+        }
+      } else {
+        if (m_alpha[i] < 0) {
+          m_alpha[i] = 0;
+          m_alpha[j] = -diff;
+        }
+      }
+      if (diff > C_i - C_j) {
+        if (m_alpha[i] > C_i) {
+          m_alpha[i] = C_i;
+          m_alpha[j] = C_i - diff;
+        }
+      } else {
+        if (m_alpha[j] > C_j) {
+          m_alpha[j] = C_j;
+          m_alpha[i] = C_j + diff;
+        }
+      }
+    } else {
+      double quadCoef = m_QD[i] + m_QD[j] - 2 * Q_i[j];
+      if (quadCoef <= 0) {
+        quadCoef = TAU;
+      }
+      double delta = (m_G[i] - m_G[j]) / quadCoef;
+      double sum = m_alpha[i] + m_alpha[j];
+      m_alpha[i] -= delta;
+      m_alpha[j] += delta;
+
+      if (sum > C_i) {
+        if (m_alpha[i] > C_i) {
+          m_alpha[i] = C_i;
+          m_alpha[j] = sum - C_i;
+        }
+      } else {
+        if (m_alpha[j] < 0) {
+          m_alpha[j] = 0;
+          m_alpha[i] = sum;
+        }
+      }
+      if (sum > C_j) {
+        if (m_alpha[j] > C_j) {
+          m_alpha[j] = C_j;
+          m_alpha[i] = sum - C_j;
+        }
+      } else {
+        if (m_alpha[i] < 0) {
+          m_alpha[i] = 0;
+          m_alpha[j] = sum;
+        }
+      }
+    }
+
+    // update G
+    double deltaAlpha_i = m_alpha[i] - oldAlpha_i;
+    double deltaAlpha_j = m_alpha[j] - oldAlpha_j;
+    for (int k = 0; k < m_activeSize; k++) {
+      int t = m_active[k];
+      m_G[t] += Q_i[t] * deltaAlpha_i + Q_j[t] * deltaAlpha_j;
+    }
+
+    // update alpha status and Gbar
+    boolean ui = isUpperBound(i);
+    boolean uj = isUpperBound(j);
+    updateAlphaStatus(i);
+    updateAlphaStatus(j);
+    if (ui != isUpperBound(i)) {
+      updateGbar(i, ui ? -C_i : C_i);
+    }
+    if (uj != isUpperBound(j)) {
+      updateGbar(j, uj ? -C_j : C_j);
+    }
+  }
+
+  private void updateGbar(int i, double factor) {
+    float[] Q_i = m_Q.getQ(i, m_active, m_l);
+    for (int k = 0; k < m_l; k++) {
+      m_Gbar[k] += factor * Q_i[k];
+    }
+  }
+
+  /**
+   * Selects the maximal violating variable i and the variable j with the
+   * largest decrease of the objective by second order information. Returns
+   * false if the active set is optimal.
+   */
+  private boolean selectWorkingSet() {
+    double Gmax = -INF;
+    double Gmax2 = -INF;
+    int GmaxIdx = -1;
+    int GminIdx = -1;
+    double objDiffMin = INF;
+
+    for (int k = 0; k < m_activeSize; k++) {
+      int t = m_active[k];
+      if (m_y[t] == +1) {
+        if ((!isUpperBound(t)) && (-m_G[t] >= Gmax)) {
+          Gmax = -m_G[t];
+          GmaxIdx = t;
+        }
+      } else {
+        if ((!isLowerBound(t)) && (m_G[t] >= Gmax)) {
+          Gmax = m_G[t];
+          GmaxIdx = t;
+        }
+      }
+    }
+
+    int i = GmaxIdx;
+    float[] Q_i = null;
+    if (i != -1) {
+      Q_i = m_Q.getQ(i, m_active, m_activeSize);
+    }
+
+    for (int k = 0; k < m_activeSize; k++) {
+      int j = m_active[k];
+      if (m_y[j] == +1) {
+        if (!isLowerBound(j)) {
+          double gradDiff = Gmax + m_G[j];
+          if (m_G[j] >= Gmax2) {
+            Gmax2 = m_G[j];
+          }
+          if (gradDiff > 0) {
+            double quadCoef = m_QD[i] + m_QD[j] - 2.0 * m_y[i] * Q_i[j];
+            double objDiff = -(gradDiff * gradDiff)
+                / ((quadCoef > 0) ? quadCoef : TAU);
+            if (objDiff <= objDiffMin) {
+              GminIdx = j;
+              objDiffMin = objDiff;
+            }
+          }
+        }
+      } else {
+        if (!isUpperBound(j)) {
+          double gradDiff = Gmax - m_G[j];
+          if (-m_G[j] >= Gmax2) {
+            Gmax2 = -m_G[j];
+          }
+          if (gradDiff > 0) {
+            double quadCoef = m_QD[i] + m_QD[j] + 2.0 * m_y[i] * Q_i[j];
+            double objDiff = -(gradDiff * gradDiff)
+                / ((quadCoef > 0) ? quadCoef : TAU);
+            if (objDiff <= objDiffMin) {
+              GminIdx = j;
+              objDiffMin = objDiff;
+            }
+          }
+        }
+      }
+    }
+
+    if ((Gmax + Gmax2 < m_eps) || (GminIdx == -1)) {
+      return false;
+    }
+    m_workingI = GmaxIdx;
+    m_workingJ = GminIdx;
+    return true;
+  }
+
+  private boolean beShrunk(int i, double Gmax1, double Gmax2) {
+    if (isUpperBound(i)) {
+      return (m_y[i] == +1) ? (-m_G[i] > Gmax1) : (-m_G[i] > Gmax2);
+    } else if (isLowerBound(i)) {
+      return (m_y[i] == +1) ? (m_G[i] > Gmax2) : (m_G[i] > Gmax1);
+    }
+    return false;
+  }
+
+  private void doShrinking() {
+    double Gmax1 = -INF; // max { -y_i * grad(f)_i | i in I_up(\alpha) }
+    double Gmax2 = -INF; // max { y_i * grad(f)_i | i in I_low(\alpha) }
+
+    // find maximal violating pair first
+    for (int k = 0; k < m_activeSize; k++) {
+      int i = m_active[k];
+      if (m_y[i] == +1) {
+        if (!isUpperBound(i)) {
+          Gmax1 = Math.max(Gmax1, -m_G[i]);
+        }
+        if (!isLowerBound(i)) {
+          Gmax2 = Math.max(Gmax2, m_G[i]);
+        }
+      } else {
+        if (!isUpperBound(i)) {
+          Gmax2 = Math.max(Gmax2, -m_G[i]);
+        }
+        if (!isLowerBound(i)) {
+          Gmax1 = Math.max(Gmax1, m_G[i]);
+        }
+      }
+    }
+
+    if ((!m_unshrink) && (Gmax1 + Gmax2 <= m_eps * 10)) {
+      m_unshrink = true;
+      reconstructGradient();
+      m_activeSize = m_l;
+    }
+
+    for (int k = 0; k < m_activeSize; k++) {
+      if (beShrunk(m_active[k], Gmax1, Gmax2)) {
+        m_activeSize--;
+        while (m_activeSize > k) {
+          if (!beShrunk(m_active[m_activeSize], Gmax1, Gmax2)) {
+            int tmp = m_active[k];
+            m_active[k] = m_active[m_activeSize];
+            m_active[m_activeSize] = tmp;
+            break;
+          }
+          m_activeSize--;
+        }
+      }
+    }
+  }
+
+  /**
+   * Reconstructs the gradient of the inactive variables from Gbar and the
+   * free variables.
+   */
+  private void reconstructGradient() {
+    if (m_activeSize == m_l) {
+      return;
+    }
+
+    for (int k = m_activeSize; k < m_l; k++) {
+      int j = m_active[k];
+      m_G[j] = m_Gbar[j] + m_p[j];
+    }
+
+    int nrFree = 0;
+    for (int k = 0; k < m_activeSize; k++) {
+      if (isFree(m_active[k])) {
+        nrFree++;
+      }
+    }
+
+    if ((long) nrFree * m_l > 2L * m_activeSize * (m_l - m_activeSize)) {
+      for (int k = m_activeSize; k < m_l; k++) {
+        int i = m_active[k];
+        float[] Q_i = m_Q.getQ(i, m_active, m_activeSize);
+        for (int n = 0; n < m_activeSize; n++) {
+          int j = m_active[n];
+          if (isFree(j)) {
+            m_G[i] += m_alpha[j] * Q_i[j];
+          }
+        }
+      }
+    } else {
+      for (int k = 0; k < m_activeSize; k++) {
+        int i = m_active[k];
+        if (isFree(i)) {
+          float[] Q_i = m_Q.getQ(i, m_active, m_l);
+          double alpha_i = m_alpha[i];
+          for (int n = m_activeSize; n < m_l; n++) {
+            int j = m_active[n];
+            m_G[j] += alpha_i * Q_i[j];
+          }
+        }
+      }
+    }
+  }
+
+  private double calculateRho() {
+    int nrFree = 0;
+    double ub = INF;
+    double lb = -INF;
+    double sumFree = 0;
+    for (int k = 0; k < m_activeSize; k++) {
+      int i = m_active[k];
+      double yG = m_y[i] * m_G[i];
+
+      if (isUpperBound(i)) {
+        if (m_y[i] == -1) {
+          ub = Math.min(ub, yG);
+        } else {
+          lb = Math.max(lb, yG);
+        }
+      } else if (isLowerBound(i)) {
+        if (m_y[i] == +1) {
+          ub = Math.min(ub, yG);
+        } else {
+          lb = Math.max(lb, yG);
+        }
+      } else {
+        nrFree++;
+        sumFree += yG;
+      }
+    }
+    return (nrFree > 0) ? sumFree / nrFree : (ub + lb) / 2;
+  }
+
+  private double getC(int i) {
+    return (m_y[i] > 0) ? m_Cp : m_Cn;
+  }
+
+  private void updateAlphaStatus(int i) {
+    if (m_alpha[i] >= getC(i)) {
+      m_alphaStatus[i] = UPPER_BOUND;
+    } else if (m_alpha[i] <= 0) {
+      m_alphaStatus[i] = LOWER_BOUND;
+    } else {
+      m_alphaStatus[i] = FREE;
+    }
+  }
+
+  private boolean isUpperBound(int i) {
+    return m_alphaStatus[i] == UPPER_BOUND;
+  }
+
+  private boolean isLowerBound(int i) {
+    return m_alphaStatus[i] == LOWER_BOUND;
+  }
+
+  private boolean isFree(int i) {
+    return m_alphaStatus[i] == FREE;
+  }
+
+}
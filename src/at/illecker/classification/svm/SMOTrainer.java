@@ -0,0 +1,809 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.svm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+import libsvm.svm_problem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Native C-SVC training engine. The one-vs-one binary problems are solved
+ * by {@link SMOSolver} on the primitive rows of {@link FeatureRows} in
+ * parallel, and the result is a libsvm compatible svm_model, including the
+ * sigmoid parameters of probability estimates.
+ */
+public class SMOTrainer {
+  private static final Logger LOG = LoggerFactory.getLogger(SMOTrainer.class);
+  private static final int PROBABILITY_FOLDS = 5;
+  private static final Random RAND = new Random();
+
+  /**
+   * Returns true if the engine supports the svm type and kernel.
+   */
+  public static boolean isSupported(svm_parameter param) {
+    switch (param.kernel_type) {
+      case svm_parameter.LINEAR:
+      case svm_parameter.POLY:
+      case svm_parameter.RBF:
+      case svm_parameter.SIGMOID:
+        return param.svm_type == svm_parameter.C_SVC;
+      default:
+        return false;
+    }
+  }
+
+  public static svm_model train(svm_problem prob, svm_parameter param) {
+    return train(prob, KernelRowCache.getInstance().getKernel(prob, param),
+        range(prob.l), param);
+  }
+
+  /**
+   * Trains a model starting from the alphas of the seed, which stores the
+   * solutions of the binary problems afterwards.
+   */
+  public static svm_model train(svm_problem prob, svm_parameter param,
+      AlphaSeed seed) {
+    return train(prob, KernelRowCache.getInstance().getKernel(prob, param),
+        range(prob.l), param, seed);
+  }
+
+  /**
+   * Trains a model by the precomputed kernel values of all rows. The model
+   * keeps the kernel of the parameter.
+   */
+  public static svm_model train(svm_problem prob, svm_parameter param,
+      GramMatrix gram) {
+    return train(prob, new KernelFunction(gram), range(prob.l), param);
+  }
+
+  static svm_model train(svm_problem prob, KernelFunction kernel,
+      int[] rows, svm_parameter param) {
+    return train(prob, kernel, rows, param, null);
+  }
+
+  /**
+   * Trains a model on the rows of the problem, which index rows of the
+   * kernel as well. The binary problems start from the alphas of the seed,
+   * unless it is null, and store their solutions in it.
+   */
+  static svm_model train(svm_problem prob, KernelFunction kernel,
+      int[] rows, svm_parameter param, AlphaSeed seed) {
+    // group rows by class in order of first appearance
+    List<Integer> labelList = new ArrayList<Integer>();
+    List<Integer> countList = new ArrayList<Integer>();
+    int[] classOf = new int[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      int label = (int) prob.y[rows[i]];
+      int c = labelList.indexOf(label);
+      if (c < 0) {
+        c = labelList.size();
+        labelList.add(label);
+        countList.add(0);
+      }
+      countList.set(c, countList.get(c) + 1);
+      classOf[i] = c;
+    }
+    int nrClass = labelList.size();
+    // labels -1 and +1 are ordered as +1 and -1
+    if ((nrClass == 2) && (labelList.get(0) == -1)
+        && (labelList.get(1) == +1)) {
+      labelList.set(0, +1);
+      labelList.set(1, -1);
+      int tmp = countList.get(0);
+      countList.set(0, countList.get(1));
+      countList.set(1, tmp);
+      for (int i = 0; i < classOf.length; i++) {
+        classOf[i] = 1 - classOf[i];
+      }
+    }
+    if (nrClass == 1) {
+      LOG.warn("Training data in only one class. "
+          + "See README for details.");
+    }
+
+    int[] label = new int[nrClass];
+    int[] count = new int[nrClass];
+    int[] start = new int[nrClass];
+    for (int c = 0; c < nrClass; c++) {
+      label[c] = labelList.get(c);
+      count[c] = countList.get(c);
+      start[c] = (c > 0) ? start[c - 1] + count[c - 1] : 0;
+    }
+    // kernel rows sorted by class
+    int[] sorted = new int[rows.length];
+    int[] fill = Arrays.copyOf(start, nrClass);
+    for (int i = 0; i < rows.length; i++) {
+      sorted[fill[classOf[i]]++] = rows[i];
+    }
+
+    // weighted C of each class
+    double[] weightedC = new double[nrClass];
+    Arrays.fill(weightedC, param.C);
+    for (int i = 0; i < param.nr_weight; i++) {
+      int c;
+      for (c = 0; c < nrClass; c++) {
+        if (param.weight_label[i] == label[c]) {
+          break;
+        }
+      }
+      if (c == nrClass) {
+        LOG.warn("class label " + param.weight_label[i]
+            + " specified in weight is not found");
+      } else {
+        weightedC[c] *= param.weight[i];
+      }
+    }
+
+    // train the one-vs-one binary problems in parallel, the largest first
+    int pairs = nrClass * (nrClass - 1) / 2;
+    TrainingScheduler scheduler = TrainingScheduler.getInstance();
+    int threads = Math.max(1, Math.min(scheduler.getThreads(), pairs));
+    // the kernel cache is shared by the concurrent solvers
+    long cacheBytes = (long) (param.cache_size * (1 << 20)) / threads;
+    List<BinaryCallable> callables = new ArrayList<BinaryCallable>(pairs);
+    double[] costs = new double[pairs];
+    for (int i = 0; i < nrClass; i++) {
+      for (int j = i + 1; j < nrClass; j++) {
+        int[] subRows = new int[count[i] + count[j]];
+        byte[] y = new byte[subRows.length];
+        System.arraycopy(sorted, start[i], subRows, 0, count[i]);
+        System.arraycopy(sorted, start[j], subRows, count[i], count[j]);
+        Arrays.fill(y, 0, count[i], (byte) +1);
+        Arrays.fill(y, count[i], y.length, (byte) -1);
+        // the kernel evaluations of SMO grow about quadratically
+        costs[callables.size()] = (double) subRows.length * subRows.length;
+        callables.add(new BinaryCallable(kernel, subRows, y, weightedC[i],
+            weightedC[j], param, cacheBytes, label[i], label[j], seed));
+      }
+    }
+
+    BinaryModel[] f;
+    try {
+      f = scheduler.invokeAll(callables, costs).toArray(
+          new BinaryModel[pairs]);
+    } catch (InterruptedException e) {
+      LOG.error("InterruptedException: " + e.getMessage());
+      return null;
+    } catch (ExecutionException e) {
+      LOG.error("ExecutionException: " + e.getMessage());
+      return null;
+    }
+
+    return buildModel(prob, param, sorted, label, count, start, f);
+  }
+
+  private static svm_model buildModel(svm_problem prob, svm_parameter param,
+      int[] sorted, int[] label, int[] count, int[] start, BinaryModel[] f) {
+    int nrClass = label.length;
+    int pairs = f.length;
+
+    // rows with a non-zero coefficient in any binary model
+    boolean[] nonzero = new boolean[sorted.length];
+    int p = 0;
+    for (int i = 0; i < nrClass; i++) {
+      for (int j = i + 1; j < nrClass; j++) {
+        for (int k = 0; k < count[i]; k++) {
+          if (Math.abs(f[p].alpha[k]) > 0) {
+            nonzero[start[i] + k] = true;
+          }
+        }
+        for (int k = 0; k < count[j]; k++) {
+          if (Math.abs(f[p].alpha[count[i] + k]) > 0) {
+            nonzero[start[j] + k] = true;
+          }
+        }
+        p++;
+      }
+    }
+
+    svm_model model = new svm_model();
+    model.param = param;
+    model.nr_class = nrClass;
+    model.label = label;
+    model.rho = new double[pairs];
+    for (p = 0; p < pairs; p++) {
+      model.rho[p] = f[p].rho;
+    }
+    if (param.probability == 1) {
+      model.probA = new double[pairs];
+      model.probB = new double[pairs];
+      for (p = 0; p < pairs; p++) {
+        model.probA[p] = f[p].probA;
+        model.probB[p] = f[p].probB;
+      }
+    }
+
+    int totalSV = 0;
+    model.nSV = new int[nrClass];
+    for (int i = 0; i < nrClass; i++) {
+      for (int k = 0; k < count[i]; k++) {
+        if (nonzero[start[i] + k]) {
+          model.nSV[i]++;
+        }
+      }
+      totalSV += model.nSV[i];
+    }
+    LOG.info("Total nSV = " + totalSV);
+
+    model.l = totalSV;
+    model.SV = new svm_node[totalSV][];
+    model.sv_indices = new int[totalSV];
+    p = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (nonzero[i]) {
+        model.SV[p] = prob.x[sorted[i]];
+        model.sv_indices[p] = sorted[i] + 1;
+        p++;
+      }
+    }
+
+    int[] nzStart = new int[nrClass];
+    for (int i = 1; i < nrClass; i++) {
+      nzStart[i] = nzStart[i - 1] + model.nSV[i - 1];
+    }
+    model.sv_coef = new double[Math.max(nrClass - 1, 0)][totalSV];
+    p = 0;
+    for (int i = 0; i < nrClass; i++) {
+      for (int j = i + 1; j < nrClass; j++) {
+        // coefficients of class i go to row j - 1 and of class j to row i
+        int q = nzStart[i];
+        for (int k = 0; k < count[i]; k++) {
+          if (nonzero[start[i] + k]) {
+            model.sv_coef[j - 1][q++] = f[p].alpha[k];
+          }
+        }
+        q = nzStart[j];
+        for (int k = 0; k < count[j]; k++) {
+          if (nonzero[start[j] + k]) {
+            model.sv_coef[i][q++] = f[p].alpha[count[i] + k];
+          }
+        }
+        p++;
+      }
+    }
+    return model;
+  }
+
+  /**
+   * Binary model of the kernel rows with coefficients alpha_i * y_i.
+   */
+  static class BinaryModel {
+    int[] rows;
+    double[] alpha;
+    double rho;
+    double probA;
+    double probB;
+
+    /**
+     * Returns the decision value of the kernel row.
+     */
+    double decisionValue(KernelFunction kernel, int row) {
+      double sum = 0;
+      for (int k = 0; k < rows.length; k++) {
+        if (alpha[k] != 0) {
+          sum += alpha[k] * kernel.value(rows[k], row);
+        }
+      }
+      return sum - rho;
+    }
+  }
+
+  private static class BinaryCallable implements Callable<BinaryModel> {
+    private KernelFunction m_kernel;
+    private int[] m_rows;
+    private byte[] m_y;
+    private double m_Cp;
+    private double m_Cn;
+    private svm_parameter m_param;
+    private long m_cacheBytes;
+    private int m_positiveLabel;
+    private int m_negativeLabel;
+    private AlphaSeed m_seed;
+
+    public BinaryCallable(KernelFunction kernel, int[] rows, byte[] y,
+        double Cp, double Cn, svm_parameter param, long cacheBytes,
+        int positiveLabel, int negativeLabel, AlphaSeed seed) {
+      m_kernel = kernel;
+      m_rows = rows;
+      m_y = y;
+      m_Cp = Cp;
+      m_Cn = Cn;
+      m_param = param;
+      m_cacheBytes = cacheBytes;
+      m_positiveLabel = positiveLabel;
+      m_negativeLabel = negativeLabel;
+      m_seed = seed;
+    }
+
+    @Override
+    public BinaryModel call() throws Exception {
+      double[] alpha = (m_seed != null) ? m_seed.getAlpha(m_positiveLabel,
+          m_negativeLabel, m_rows, m_y, m_Cp, m_Cn)
+          : new double[m_rows.length];
+      BinaryModel model;
+      if (m_param.probability == 1) {
+        model = trainWithProbability(m_kernel, m_rows, m_y, m_Cp, m_Cn,
+            m_param, m_cacheBytes, alpha);
+      } else {
+        model = trainOne(m_kernel, m_rows, m_y, m_Cp, m_Cn, m_param,
+            m_cacheBytes, alpha);
+      }
+      if (m_seed != null) {
+        m_seed.putAlpha(m_positiveLabel, m_negativeLabel, m_rows,
+            model.alpha);
+      }
+      return model;
+    }
+  }
+
+  private static class TrainTask extends RecursiveTask<BinaryModel> {
+    private static final long serialVersionUID = -4005713896215935937L;
+    private KernelFunction m_kernel;
+    private int[] m_rows;
+    private byte[] m_y;
+    private double m_Cp;
+    private double m_Cn;
+    private svm_parameter m_param;
+    private long m_cacheBytes;
+    private double[] m_alpha;
+
+    public TrainTask(KernelFunction kernel, int[] rows, byte[] y, double Cp,
+        double Cn, svm_parameter param, long cacheBytes, double[] alpha) {
+      m_kernel = kernel;
+      m_rows = rows;
+      m_y = y;
+      m_Cp = Cp;
+      m_Cn = Cn;
+      m_param = param;
+      m_cacheBytes = cacheBytes;
+      m_alpha = alpha;
+    }
+
+    @Override
+    protected BinaryModel compute() {
+      return trainOne(m_kernel, m_rows, m_y, m_Cp, m_Cn, m_param,
+          m_cacheBytes, m_alpha);
+    }
+  }
+
+  /**
+   * Solves the binary problem of the kernel rows with labels y.
+   */
+  static BinaryModel trainOne(KernelFunction kernel, int[] rows, byte[] y,
+      double Cp, double Cn, svm_parameter param, long cacheBytes) {
+    return trainOne(kernel, rows, y, Cp, Cn, param, cacheBytes,
+        new double[rows.length]);
+  }
+
+  /**
+   * Solves the binary problem starting from the feasible alpha, which is
+   * updated with the solution.
+   */
+  static BinaryModel trainOne(KernelFunction kernel, int[] rows, byte[] y,
+      double Cp, double Cn, svm_parameter param, long cacheBytes,
+      double[] alpha) {
+    int l = rows.length;
+    double[] p = new double[l];
+    Arrays.fill(p, -1);
+
+    SMOSolver.SolutionInfo si = new SMOSolver.SolutionInfo();
+    new SMOSolver().solve(l, new SVCQMatrix(kernel, rows, y, cacheBytes), p,
+        y, alpha, Cp, Cn, param.eps, param.shrinking != 0, si);
+
+    int nSV = 0;
+    int nBSV = 0;
+    for (int i = 0; i < l; i++) {
+      if (alpha[i] > 0) {
+        nSV++;
+        if (alpha[i] >= ((y[i] > 0) ? Cp : Cn)) {
+          nBSV++;
+        }
+      }
+      alpha[i] *= y[i];
+    }
+    LOG.debug("optimization finished, #iter = " + si.iterations + ", obj = "
+        + si.obj + ", rho = " + si.rho + ", nSV = " + nSV + ", nBSV = "
+        + nBSV);
+
+    BinaryModel model = new BinaryModel();
+    model.rows = rows;
+    model.alpha = alpha;
+    model.rho = si.rho;
+    return model;
+  }
+
+  /**
+   * Trains the binary model and fits the sigmoid of probability estimates to
+   * the decision values of an internal cross validation. The folds and the
+   * model are forked tasks, which idle threads of the pool steal.
+   */
+  private static BinaryModel trainWithProbability(KernelFunction kernel,
+      int[] rows, byte[] y, double Cp, double Cn, svm_parameter param,
+      long cacheBytes, double[] alpha) {
+    int l = rows.length;
+    int[] perm = range(l);
+    synchronized (RAND) {
+      for (int i = 0; i < l; i++) {
+        int j = i + RAND.nextInt(l - i);
+        int tmp = perm[i];
+        perm[i] = perm[j];
+        perm[j] = tmp;
+      }
+    }
+
+    double[] decValues = new double[l];
+    List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+    TrainTask train = new TrainTask(kernel, rows, y, Cp, Cn, param,
+        cacheBytes, alpha);
+    tasks.add(train);
+    for (int fold = 0; fold < PROBABILITY_FOLDS; fold++) {
+      tasks.add(new FoldTask(kernel, rows, y, perm,
+          fold * l / PROBABILITY_FOLDS, (fold + 1) * l / PROBABILITY_FOLDS,
+          decValues, Cp, Cn, param, cacheBytes));
+    }
+    ForkJoinTask.invokeAll(tasks);
+
+    BinaryModel model = train.join();
+    double[] probAB = sigmoidTrain(decValues, y);
+    model.probA = probAB[0];
+    model.probB = probAB[1];
+    return model;
+  }
+
+  private static class FoldTask extends RecursiveAction {
+    private static final long serialVersionUID = 3394806386577614785L;
+    private KernelFunction m_kernel;
+    private int[] m_rows;
+    private byte[] m_y;
+    private int[] m_perm;
+    private int m_begin;
+    private int m_end;
+    private double[] m_decValues;
+    private double m_Cp;
+    private double m_Cn;
+    private svm_parameter m_param;
+    private long m_cacheBytes;
+
+    public FoldTask(KernelFunction kernel, int[] rows, byte[] y, int[] perm,
+        int begin, int end, double[] decValues, double Cp, double Cn,
+        svm_parameter param, long cacheBytes) {
+      m_kernel = kernel;
+      m_rows = rows;
+      m_y = y;
+      m_perm = perm;
+      m_begin = begin;
+      m_end = end;
+      m_decValues = decValues;
+      m_Cp = Cp;
+      m_Cn = Cn;
+      m_param = param;
+      m_cacheBytes = cacheBytes;
+    }
+
+    @Override
+    protected void compute() {
+      foldDecisionValues(m_kernel, m_rows, m_y, m_perm, m_begin, m_end,
+          m_decValues, m_Cp, m_Cn, m_param, m_cacheBytes);
+    }
+  }
+
+  /**
+   * Stores the decision values of the rows perm[begin] to perm[end - 1] of
+   * the model of the other rows.
+   */
+  private static void foldDecisionValues(KernelFunction kernel, int[] rows,
+      byte[] y, int[] perm, int begin, int end, double[] decValues,
+      double Cp, double Cn, svm_parameter param, long cacheBytes) {
+    int l = rows.length;
+    int[] subRows = new int[l - (end - begin)];
+    byte[] subY = new byte[subRows.length];
+    int k = 0;
+    int pCount = 0;
+    for (int j = 0; j < l; j++) {
+      if ((j < begin) || (j >= end)) {
+        subRows[k] = rows[perm[j]];
+        subY[k] = y[perm[j]];
+        if (subY[k] > 0) {
+          pCount++;
+        }
+        k++;
+      }
+    }
+    int nCount = subRows.length - pCount;
+
+    if ((pCount == 0) && (nCount == 0)) {
+      for (int j = begin; j < end; j++) {
+        decValues[perm[j]] = 0;
+      }
+    } else if (nCount == 0) {
+      for (int j = begin; j < end; j++) {
+        decValues[perm[j]] = 1;
+      }
+    } else if (pCount == 0) {
+      for (int j = begin; j < end; j++) {
+        decValues[perm[j]] = -1;
+      }
+    } else {
+      BinaryModel model = trainOne(kernel, subRows, subY, Cp, Cn, param,
+          cacheBytes);
+      for (int j = begin; j < end; j++) {
+        decValues[perm[j]] = model.decisionValue(kernel, rows[perm[j]]);
+      }
+    }
+  }
+
+  /**
+   * Fits A and B of the sigmoid 1 / (1 + exp(A * f + B)) to the decision
+   * values f by Platt's method with the improvements of Lin et al.
+   */
+  static double[] sigmoidTrain(double[] decValues, byte[] y) {
+    int l = decValues.length;
+    double prior1 = 0;
+    double prior0 = 0;
+    for (int i = 0; i < l; i++) {
+      if (y[i] > 0) {
+        prior1 += 1;
+      } else {
+        prior0 += 1;
+      }
+    }
+
+    int maxIter = 100; // maximal number of iterations
+    double minStep = 1e-10; // minimal step taken in line search
+    double sigma = 1e-12; // for numerically strict PD of Hessian
+    double eps = 1e-5;
+    double hiTarget = (prior1 + 1.0) / (prior1 + 2.0);
+    double loTarget = 1 / (prior0 + 2.0);
+    double[] t = new double[l];
+
+    // initial point and initial function value
+    double A = 0.0;
+    double B = Math.log((prior0 + 1.0) / (prior1 + 1.0));
+    double fval = 0.0;
+    for (int i = 0; i < l; i++) {
+      t[i] = (y[i] > 0) ? hiTarget : loTarget;
+      fval += logLoss(decValues[i] * A + B, t[i]);
+    }
+
+    int iter;
+    for (iter = 0; iter < maxIter; iter++) {
+      // update gradient and Hessian (use H' = H + sigma I)
+      double h11 = sigma;
+      double h22 = sigma;
+      double h21 = 0.0;
+      double g1 = 0.0;
+      double g2 = 0.0;
+      for (int i = 0; i < l; i++) {
+        double fApB = decValues[i] * A + B;
+        double p;
+        double q;
+        if (fApB >= 0) {
+          p = Math.exp(-fApB) / (1.0 + Math.exp(-fApB));
+          q = 1.0 / (1.0 + Math.exp(-fApB));
+        } else {
+          p = 1.0 / (1.0 + Math.exp(fApB));
+          q = Math.exp(fApB) / (1.0 + Math.exp(fApB));
+        }
+        double d2 = p * q;
+        h11 += decValues[i] * decValues[i] * d2;
+        h22 += d2;
+        h21 += decValues[i] * d2;
+        double d1 = t[i] - p;
+        g1 += decValues[i] * d1;
+        g2 += d1;
+      }
+
+      // stopping criteria
+      if ((Math.abs(g1) < eps) && (Math.abs(g2) < eps)) {
+        break;
+      }
+
+      // finding Newton direction: -inv(H') * g
+      double det = h11 * h22 - h21 * h21;
+      double dA = -(h22 * g1 - h21 * g2) / det;
+      double dB = -(-h21 * g1 + h11 * g2) / det;
+      double gd = g1 * dA + g2 * dB;
+
+      // line search
+      double stepSize = 1;
+      while (stepSize >= minStep) {
+        double newA = A + stepSize * dA;
+        double newB = B + stepSize * dB;
+        double newf = 0.0;
+        for (int i = 0; i < l; i++) {
+          newf += logLoss(decValues[i] * newA + newB, t[i]);
+        }
+        // check sufficient decrease
+        if (newf < fval + 0.0001 * stepSize * gd) {
+          A = newA;
+          B = newB;
+          fval = newf;
+          break;
+        } else {
+          stepSize = stepSize / 2.0;
+        }
+      }
+
+      if (stepSize < minStep) {
+        LOG.debug("Line search fails in two-class probability estimates");
+        break;
+      }
+    }
+
+    if (iter >= maxIter) {
+      LOG.debug("Reaching maximal iterations in two-class probability "
+          + "estimates");
+    }
+    return new double[] { A, B };
+  }
+
+  private static double logLoss(double fApB, double t) {
+    if (fApB >= 0) {
+      return t * fApB + Math.log(1 + Math.exp(-fApB));
+    }
+    return (t - 1) * fApB + Math.log(1 + Math.exp(fApB));
+  }
+
+  /**
+   * Runs a stratified n-fold cross validation like svm_cross_validation and
+   * stores the predicted label of every row in target. All folds share the
+   * rows of one kernel and its cached rows.
+   */
+  public static void crossValidation(svm_problem prob, svm_parameter param,
+      int nFold, double[] target) {
+    crossValidation(prob, KernelRowCache.getInstance()
+        .getKernel(prob, param), param, nFold, target);
+  }
+
+  public static void crossValidation(svm_problem prob, svm_parameter param,
+      GramMatrix gram, int nFold, double[] target) {
+    crossValidation(prob, new KernelFunction(gram), param, nFold, target);
+  }
+
+  private static void crossValidation(svm_problem prob,
+      KernelFunction kernel, svm_parameter param, int nFold, double[] target) {
+    List<List<Integer>> folds = getFolds(prob, nFold);
+    crossValidation(prob, kernel, param, folds, new AlphaSeed[folds.size()],
+        target);
+  }
+
+  /**
+   * Runs the cross validation of the folds. The training of fold k starts
+   * from the alphas of seeds[k] and stores its solution in it, so that a
+   * following cross validation of the same folds with another C starts
+   * from the solutions of this one. A null seed starts from the seed of the
+   * previous fold instead.
+   */
+  static void crossValidation(svm_problem prob, svm_parameter param,
+      List<List<Integer>> folds, AlphaSeed[] seeds, double[] target) {
+    crossValidation(prob, KernelRowCache.getInstance()
+        .getKernel(prob, param), param, folds, seeds, target);
+  }
+
+  private static void crossValidation(svm_problem prob,
+      KernelFunction kernel, svm_parameter param, List<List<Integer>> folds,
+      AlphaSeed[] seeds, double[] target) {
+    int l = prob.l;
+    boolean[] inFold = new boolean[l];
+    for (int f = 0; f < folds.size(); f++) {
+      List<Integer> fold = folds.get(f);
+      if (fold.isEmpty()) {
+        continue;
+      }
+      if (seeds[f] == null) {
+        seeds[f] = ((f > 0) && (seeds[f - 1] != null)) ? new AlphaSeed(
+            seeds[f - 1]) : new AlphaSeed();
+      }
+      for (int row : fold) {
+        inFold[row] = true;
+      }
+      int[] trainRows = new int[l - fold.size()];
+      int k = 0;
+      for (int i = 0; i < l; i++) {
+        if (!inFold[i]) {
+          trainRows[k++] = i;
+        }
+      }
+
+      svm_model model = train(prob, kernel, trainRows, param, seeds[f]);
+      if (param.probability == 1) {
+        double[] probEstimates = new double[model.nr_class];
+        for (int row : fold) {
+          target[row] = svm.svm_predict_probability(model, prob.x[row],
+              probEstimates);
+        }
+      } else {
+        for (int row : fold) {
+          target[row] = svm.svm_predict(model, prob.x[row]);
+        }
+      }
+
+      for (int row : fold) {
+        inFold[row] = false;
+      }
+    }
+  }
+
+  /**
+   * Returns the rows of n stratified folds. The rows of every class are
+   * shuffled and distributed evenly to the folds.
+   */
+  static List<List<Integer>> getFolds(svm_problem prob, int nFold) {
+    int l = prob.l;
+    nFold = Math.min(nFold, l);
+
+    // rows of each class in random order
+    List<Integer> labels = new ArrayList<Integer>();
+    List<List<Integer>> classRows = new ArrayList<List<Integer>>();
+    for (int i = 0; i < l; i++) {
+      int c = labels.indexOf((int) prob.y[i]);
+      if (c < 0) {
+        c = labels.size();
+        labels.add((int) prob.y[i]);
+        classRows.add(new ArrayList<Integer>());
+      }
+      classRows.get(c).add(i);
+    }
+
+    // distribute the rows of every class evenly to the folds
+    List<List<Integer>> folds = new ArrayList<List<Integer>>(nFold);
+    for (int i = 0; i < nFold; i++) {
+      folds.add(new ArrayList<Integer>());
+    }
+    for (List<Integer> rows : classRows) {
+      int count = rows.size();
+      synchronized (RAND) {
+        for (int i = 0; i < count; i++) {
+          int j = i + RAND.nextInt(count - i);
+          Integer tmp = rows.get(i);
+          rows.set(i, rows.get(j));
+          rows.set(j, tmp);
+        }
+      }
+      for (int i = 0; i < nFold; i++) {
+        folds.get(i).addAll(
+            rows.subList(i * count / nFold, (i + 1) * count / nFold));
+      }
+    }
+
+    return folds;
+  }
+
+  static int[] range(int length) {
+    int[] range = new int[length];
+    for (int i = 0; i < length; i++) {
+      range[i] = i;
+    }
+    return range;
+  }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.svm;
+
+import java.util.Arrays;
+
+/**
+ * Q matrix of C-SVC with Q_ij = y_i * y_j * K(x_i, x_j) over a subset of the
+ * rows of a kernel. Rows are computed on demand, only for the requested
+ * variables, and kept in an LRU cache of a fixed number of bytes. Kernel
+ * values are taken from the shared rows of the kernel, if it is cached.
+ */
+public class SVCQMatrix implements SMOSolver.QMatrix {
+  private final KernelFunction m_kernel;
+  // row of the kernel of each variable
+  private final int[] m_rows;
+  private final byte[] m_y;
+  private final double[] m_QD;
+
+  // cached rows, entries not yet computed are NaN
+  private final float[][] m_cache;
+  private final int m_capacity;
+  private int m_size = 0;
+  // doubly linked LRU list of cached rows, m_l is the head
+  private final int[] m_prev;
+  private final int[] m_next;
+  private final int m_l;
+
+  public SVCQMatrix(KernelFunction kernel, int[] rows, byte[] y,
+      long cacheBytes) {
+    m_kernel = kernel;
+    m_rows = rows;
+    m_y = y;
+    m_l = rows.length;
+    m_QD = new double[m_l];
+    for (int i = 0; i < m_l; i++) {
+      m_QD[i] = kernel.value(rows[i], rows[i]);
+    }
+
+    // at least the two rows of a working set are cached
+    m_capacity = (int) Math.max(2,
+        Math.min(m_l, cacheBytes / (4L * Math.max(m_l, 1))));
+    m_cache = new float[m_l][];
+    m_prev = new int[m_l + 1];
+    m_next = new int[m_l + 1];
+    m_prev[m_l] = m_l;
+    m_next[m_l] = m_l;
+  }
+
+  @Override
+  public float[] getQ(int i, int[] active, int len) {
+    float[] row = m_cache[i];
+    if (row != null) {
+      unlink(i);
+    } else {
+      if (m_size == m_capacity) {
+        // evict the least recently used row
+        int lru = m_next[m_l];
+        unlink(lru);
+        m_cache[lru] = null;
+        m_size--;
+      }
+      row = new float[m_l];
+      Arrays.fill(row, Float.NaN);
+      m_cache[i] = row;
+      m_size++;
+    }
+    linkLast(i);
+
+    int row_i = m_rows[i];
+    byte y_i = m_y[i];
+    // the shared row is only looked up once an active entry is missing
+    float[] kernelRow = null;
+    boolean shared = false;
+    for (int k = 0; k < len; k++) {
+      int j = active[k];
+      if (row[j] != row[j]) {
+        if (!shared) {
+          kernelRow = m_kernel.getCachedRow(row_i);
+          shared = true;
+        }
+        if (kernelRow != null) {
+          float value = kernelRow[m_rows[j]];
+          if (value != value) {
+            value = (float) m_kernel.value(row_i, m_rows[j]);
+            kernelRow[m_rows[j]] = value;
+          }
+          row[j] = y_i * m_y[j] * value;
+        } else {
+          row[j] = (float) (y_i * m_y[j] * m_kernel.value(row_i, m_rows[j]));
+        }
+      }
+    }
+    return row;
+  }
+
+  @Override
+  public double[] getQD() {
+    return m_QD;
+  }
+
+  private void unlink(int i) {
+    m_next[m_prev[i]] = m_next[i];
+    m_prev[m_next[i]] = m_prev[i];
+  }
+
+  private void linkLast(int i) {
+    m_prev[i] = m_prev[m_l];
+    m_next[i] = m_l;
+    m_next[m_prev[m_l]] = i;
+    m_prev[m_l] = i;
+  }
+
+}
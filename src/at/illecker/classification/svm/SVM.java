@@ -16,21 +16,21 @@
  */
 package at.illecker.classification.svm;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.NoSuchElementException;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 import libsvm.svm;
 import libsvm.svm_model;
@@ -43,16 +43,36 @@ import org.slf4j.LoggerFactory;
 
 import at.illecker.classification.commons.Configuration;
 import at.illecker.classification.commons.Dataset;
+import at.illecker.classification.commons.DenseMatrix;
 import at.illecker.classification.commons.Item;
+import at.illecker.classification.commons.ItemTable;
 import at.illecker.classification.commons.Pair;
+import at.illecker.classification.commons.SparseVector;
+import at.illecker.classification.io.FeatureStore;
 import at.illecker.classification.io.FileUtils;
+import at.illecker.classification.io.LibSVMReader;
+import at.illecker.classification.io.LibSVMWriter;
 import at.illecker.classification.io.SerializationUtils;
 
 public class SVM {
   public static final String SVM_PROBLEM_FILE = "svm_problem.txt";
   public static final String SVM_MODEL_FILE_SER = "svm_model.ser";
+  public static final String SUBMISSION_FILE = "submission.csv";
+  // folds of the cross validation of libsvm for probability estimates
+  private static final int INTERNAL_CALIBRATION_FOLDS = 5;
   private static final Logger LOG = LoggerFactory.getLogger(SVM.class);
 
+  /**
+   * Training engines, libsvm or the native {@link SMOTrainer}.
+   */
+  public enum Engine {
+    LIBSVM, SMO;
+
+    public static Engine parse(String engine) {
+      return valueOf(engine.trim().toUpperCase());
+    }
+  }
+
   public static svm_parameter getDefaultParameter() {
     svm_parameter param = new svm_parameter();
     // type of SVM
@@ -114,65 +134,434 @@ public class SVM {
 
     int i = 0;
     for (Item item : items) {
-      Map<Integer, Double> featureVector = item.getFeatureVector();
+      // set feature nodes
+      svmProb.x[i] = getFeatureNodes(item.getFeatureVector());
+
+      // set class / label
+      svmProb.y[i] = item.getActualClass();
+      i++;
+    }
 
+    return svmProb;
+  }
+
+  public static svm_problem generateProblem(DenseMatrix matrix) {
+    int dataCount = matrix.getRows();
+
+    svm_problem svmProb = new svm_problem();
+    svmProb.y = new double[dataCount];
+    svmProb.l = dataCount;
+    svmProb.x = new svm_node[dataCount][];
+
+    int dimension = matrix.getDimension();
+    // nodes of the row being set, trimmed to its non-zeros
+    svm_node[] row = new svm_node[dimension];
+    for (int i = 0; i < dataCount; i++) {
       // set feature nodes
-      svmProb.x[i] = new svm_node[featureVector.size()];
+      int offset = matrix.getOffset(i);
       int j = 0;
-      for (Map.Entry<Integer, Double> feature : featureVector.entrySet()) {
+      for (int k = 0; k < dimension; k++) {
+        double value = matrix.getValue(offset + k);
+        if (value != 0) {
+          svm_node node = new svm_node();
+          node.index = matrix.getFirstIndex() + k;
+          node.value = value;
+          row[j++] = node;
+        }
+      }
+      svmProb.x[i] = Arrays.copyOf(row, j);
+
+      // set class / label
+      svmProb.y[i] = matrix.getActualClass(i);
+    }
+
+    return svmProb;
+  }
+
+  public static svm_problem generateProblem(FeatureStore store) {
+    if (store == null) {
+      LOG.error("FeatureStore is not available");
+      return null;
+    }
+    int dataCount = store.getRows();
+
+    svm_problem svmProb = new svm_problem();
+    svmProb.y = new double[dataCount];
+    svmProb.l = dataCount;
+    svmProb.x = new svm_node[dataCount][];
+
+    long start = store.getRowStart(0);
+    for (int i = 0; i < dataCount; i++) {
+      // set feature nodes
+      long end = store.getRowStart(i + 1);
+      svm_node[] nodes = new svm_node[(int) (end - start)];
+      for (int j = 0; j < nodes.length; j++) {
         svm_node node = new svm_node();
-        node.index = feature.getKey();
-        node.value = feature.getValue();
-        svmProb.x[i][j] = node;
-        j++;
+        node.index = store.getIndex(start + j);
+        node.value = store.getValue(start + j);
+        nodes[j] = node;
       }
+      svmProb.x[i] = nodes;
+      start = end;
 
       // set class / label
-      svmProb.y[i] = item.getActualClass();
-      i++;
+      svmProb.y[i] = store.getActualClass(i);
     }
 
     return svmProb;
   }
 
+  /**
+   * Generates the problem of the train rows of the dataset from its off-heap
+   * store, dense matrix or items. Use Dataset.getSVMProblem to share one
+   * problem between calls.
+   */
+  public static svm_problem generateProblem(Dataset dataset) {
+    if (dataset.isOffHeap()) {
+      return generateProblem(dataset.getTrainStore());
+    }
+    if (dataset.isDense()) {
+      return generateProblem(dataset.getTrainMatrix());
+    }
+    return generateProblem(dataset.getTrainItems());
+  }
+
   public static void saveProblem(svm_problem svmProb, String file) {
     // save problem in libSVM format
     // <label> <index1>:<value1> <index2>:<value2> ...
     try {
-      BufferedWriter br = new BufferedWriter(new FileWriter(file));
-      for (int i = 0; i < svmProb.l; i++) {
-        // <label>
-        br.write(Double.toString(svmProb.y[i]));
-        for (int j = 0; j < svmProb.x[i].length; j++) {
-          if (svmProb.x[i][j].value != 0) {
-            // <index>:<value>
-            br.write(" " + svmProb.x[i][j].index + ":" + svmProb.x[i][j].value);
-          }
-        }
-        br.newLine();
-        br.flush();
-      }
-      br.close();
+      LibSVMWriter.writeProblem(svmProb, file);
       LOG.info("saved svm_problem in " + file);
     } catch (IOException e) {
       LOG.error("IOException: " + e.getMessage());
     }
   }
 
+  /**
+   * Saves the problem in libSVM format on a background thread. svmProb must
+   * not be modified until the returned future has completed.
+   */
+  public static Future<Void> saveProblemAsync(svm_problem svmProb,
+      String file) {
+    return LibSVMWriter.writeProblemAsync(svmProb, file);
+  }
+
+  public static svm_problem loadProblem(String file) {
+    // load problem in libSVM format
+    return LibSVMReader.readProblem(file, true);
+  }
+
   public static svm_model train(svm_problem svmProb, svm_parameter svmParam) {
-    // set gamma to default 1/num_features if not specified
-    if (svmParam.gamma == Double.MIN_VALUE) {
-      svmParam.gamma = 1 / (double) svmProb.l;
+    return train(svmProb, svmParam, Engine.LIBSVM);
+  }
+
+  /**
+   * Trains the model by the engine. Problems which are not supported by the
+   * native engine are trained by libsvm.
+   */
+  public static svm_model train(svm_problem svmProb, svm_parameter svmParam,
+      Engine engine) {
+    return train(svmProb, svmParam, engine, null);
+  }
+
+  public static svm_model train(svm_problem svmProb, svm_parameter svmParam,
+      Engine engine, GramMatrix gram) {
+    return train(svmProb, svmParam, engine, gram, LinearTrainer.Loss.L2);
+  }
+
+  /**
+   * Trains the model by the precomputed kernel of the Gram matrix, unless it
+   * is null or the engine is not SMO. The model keeps the kernel of the
+   * parameter, so that it evaluates items as usual. Linear C-SVC problems
+   * are always trained by the dual coordinate descent of
+   * {@link LinearTrainer} with the loss.
+   */
+  public static svm_model train(svm_problem svmProb, svm_parameter svmParam,
+      Engine engine, GramMatrix gram, LinearTrainer.Loss loss) {
+    if (LinearTrainer.isSupported(svmParam)) {
+      return LinearTrainer.train(svmProb, svmParam, loss);
     }
+    if (usePrecomputed(svmProb, svmParam, engine, gram)) {
+      return trainPrecomputed(svmProb, svmParam, gram);
+    }
+
+    setDefaultGamma(svmProb, svmParam);
 
     String paramCheck = svm.svm_check_parameter(svmProb, svmParam);
     if (paramCheck != null) {
       LOG.error("svm_check_parameter: " + paramCheck);
     }
 
+    if (useSMO(svmParam, engine)) {
+      return SMOTrainer.train(svmProb, svmParam);
+    }
     return svm.svm_train(svmProb, svmParam);
   }
 
+  private static svm_model trainPrecomputed(svm_problem svmProb,
+      svm_parameter svmParam, GramMatrix gram) {
+    return trainPrecomputed(svmProb, svmParam, gram,
+        SMOTrainer.range(svmProb.l));
+  }
+
+  /**
+   * Trains the model of the rows of the problem by the SMO engine on the
+   * precomputed kernel of the Gram matrix of all rows. The support vectors
+   * index the rows of the problem.
+   */
+  private static svm_model trainPrecomputed(svm_problem svmProb,
+      svm_parameter svmParam, GramMatrix gram, int[] rows) {
+    return SMOTrainer.train(svmProb, new KernelFunction(gram), rows,
+        svmParam);
+  }
+
+  /**
+   * Trains a linear model of the rows mapped by the feature map, which
+   * approximates the kernel of the parameter. The model maps every item it
+   * evaluates.
+   */
+  public static svm_model train(svm_problem svmProb, svm_parameter svmParam,
+      FeatureMap featureMap, LinearTrainer.Loss loss) {
+    return LinearTrainer.train(svmProb, svmParam, featureMap, loss);
+  }
+
+  /**
+   * Continues the training of the C-SVC model with the new items. The
+   * problem of the support vectors and the new rows is solved by the SMO
+   * engine, starting from the alphas of the model and zero for the new rows,
+   * so that the cost grows with the support vectors and the new rows instead
+   * of all rows trained so far. Rows which are no support vectors of the
+   * model are not revisited.
+   */
+  public static svm_model trainIncremental(svm_model svmModel,
+      List<Item> items) {
+    return trainIncremental(svmModel, items,
+        ProbabilityCalibration.Method.HOLDOUT, 1,
+        ProbabilityCalibration.DEFAULT_HOLDOUT_FRACTION);
+  }
+
+  /**
+   * Continues the training without the internal cross validation of
+   * probability estimates. The sigmoids of a probability model are fitted
+   * again to decision values of new rows, which the calibrating models are
+   * not trained on, as the support vectors are no sample of the rows. The
+   * new rows are split into a held-out fraction or into the folds of the
+   * cross validation, or into the five folds of libsvm for INTERNAL. Every
+   * model starts from the alphas of the model. A model keeps its sigmoids
+   * without new rows.
+   */
+  public static svm_model trainIncremental(svm_model svmModel,
+      List<Item> items, ProbabilityCalibration.Method calibration,
+      int nFold, double holdoutFraction) {
+    if ((svmModel instanceof LinearModel)
+        || (!SMOTrainer.isSupported(svmModel.param))) {
+      LOG.error("Incremental training requires a C-SVC model with support "
+          + "vectors of a kernel supported by the SMO engine");
+      return null;
+    }
+    svm_problem newProb = generateProblem(items);
+
+    // the support vectors are the first rows
+    svm_problem svmProb = new svm_problem();
+    svmProb.l = svmModel.l + newProb.l;
+    svmProb.x = new svm_node[svmProb.l][];
+    svmProb.y = new double[svmProb.l];
+    int k = 0;
+    for (int c = 0; c < svmModel.nr_class; c++) {
+      for (int i = 0; i < svmModel.nSV[c]; i++) {
+        svmProb.x[k] = svmModel.SV[k];
+        svmProb.y[k] = svmModel.label[c];
+        k++;
+      }
+    }
+    System.arraycopy(newProb.x, 0, svmProb.x, svmModel.l, newProb.l);
+    System.arraycopy(newProb.y, 0, svmProb.y, svmModel.l, newProb.l);
+
+    AlphaSeed seed = new AlphaSeed();
+    seed.addModel(svmModel, SMOTrainer.range(svmModel.l));
+
+    svm_parameter svmParam = svmModel.param;
+    svm_parameter trainParam = (svm_parameter) svmParam.clone();
+    trainParam.probability = 0;
+    KernelFunction kernel = KernelRowCache.getInstance().getKernel(svmProb,
+        trainParam);
+    LOG.info("Train incrementally on " + svmModel.l + " support vectors and "
+        + newProb.l + " new rows");
+    if ((svmParam.probability == 0) || (newProb.l < 2)) {
+      svm_model model = SMOTrainer.train(svmProb, kernel,
+          SMOTrainer.range(svmProb.l), trainParam, seed);
+      if ((model != null) && (svmParam.probability == 1)) {
+        if (!Arrays.equals(model.label, svmModel.label)) {
+          LOG.warn("Labels of the model changed without new rows to "
+              + "calibrate, training without probability estimates");
+          return model;
+        }
+        model.probA = svmModel.probA;
+        model.probB = svmModel.probB;
+        model.param = svmParam;
+      }
+      return model;
+    }
+
+    // folds of the new rows, which the calibrating models are not trained on
+    List<List<Integer>> folds;
+    boolean holdout = (calibration == ProbabilityCalibration.Method.HOLDOUT)
+        || ((calibration == ProbabilityCalibration.Method.CROSS_VALIDATION)
+            && (nFold <= 1));
+    svm_model model = null;
+    if (holdout) {
+      int[] holdoutRows = ProbabilityCalibration.split(newProb,
+          holdoutFraction)[1];
+      folds = new ArrayList<List<Integer>>();
+      folds.add(new ArrayList<Integer>());
+      for (int row : holdoutRows) {
+        folds.get(0).add(row);
+      }
+    } else {
+      folds = SMOTrainer.getFolds(newProb,
+          (calibration == ProbabilityCalibration.Method.CROSS_VALIDATION)
+              ? nFold : INTERNAL_CALIBRATION_FOLDS);
+      model = SMOTrainer.train(svmProb, kernel, SMOTrainer.range(svmProb.l),
+          trainParam, new AlphaSeed(seed));
+      if (model == null) {
+        return null;
+      }
+    }
+
+    double[] y = new double[newProb.l];
+    double[][] decValues = new double[newProb.l][];
+    int n = 0;
+    boolean[] inFold = new boolean[newProb.l];
+    for (List<Integer> fold : folds) {
+      if (fold.isEmpty()) {
+        continue;
+      }
+      for (int row : fold) {
+        inFold[row] = true;
+      }
+      int[] rows = new int[svmProb.l - fold.size()];
+      int r = 0;
+      for (int i = 0; i < svmModel.l; i++) {
+        rows[r++] = i;
+      }
+      for (int i = 0; i < newProb.l; i++) {
+        if (!inFold[i]) {
+          rows[r++] = svmModel.l + i;
+        }
+      }
+      svm_model foldModel = SMOTrainer.train(svmProb, kernel, rows,
+          trainParam, new AlphaSeed(seed));
+      if (foldModel == null) {
+        return null;
+      }
+      if (holdout) {
+        // the model is not trained on the held-out rows
+        model = foldModel;
+      }
+      for (int row : fold) {
+        y[n] = newProb.y[row];
+        decValues[n] = new double[ProbabilityCalibration
+            .getDecisionValueCount(model)];
+        ProbabilityCalibration.decisionValues(foldModel, model,
+            newProb.x[row], decValues[n]);
+        n++;
+        inFold[row] = false;
+      }
+    }
+    ProbabilityCalibration.fit(model, Arrays.copyOf(y, n),
+        Arrays.copyOf(decValues, n));
+    model.param = svmParam;
+    return model;
+  }
+
+  /**
+   * Trains the C-SVC model by a cascade of SMO solves of stratified shards
+   * of the problem, see {@link CascadeTrainer}. Other problems are trained
+   * by the SMO engine or libsvm.
+   */
+  public static svm_model trainCascade(svm_problem svmProb,
+      svm_parameter svmParam, int shards, int feedbackPasses) {
+    setDefaultGamma(svmProb, svmParam);
+    if (LinearTrainer.isSupported(svmParam)
+        || (!SMOTrainer.isSupported(svmParam))) {
+      LOG.warn("Cascade training requires a C-SVC problem of a non-linear "
+          + "kernel, training all rows at once");
+      return train(svmProb, svmParam, Engine.SMO);
+    }
+    LOG.info("Train cascade of " + shards + " shards with at most "
+        + feedbackPasses + " feedback passes");
+    return CascadeTrainer.train(svmProb, svmParam, shards, feedbackPasses);
+  }
+
+  /**
+   * Computes the feature map of the type into the dimension, which
+   * approximates the kernel of the parameter on the rows of the problem.
+   */
+  public static FeatureMap computeFeatureMap(svm_problem svmProb,
+      svm_parameter svmParam, FeatureMap.Type type, int dimension) {
+    setDefaultGamma(svmProb, svmParam);
+    LOG.info("Compute " + type + " feature map of dimension " + dimension);
+    return FeatureMap.create(type, svmProb, svmParam, dimension);
+  }
+
+  /**
+   * Computes the kernel of the parameter between all rows of the problem.
+   */
+  public static GramMatrix computeGramMatrix(svm_problem svmProb,
+      svm_parameter svmParam) {
+    setDefaultGamma(svmProb, svmParam);
+    return GramMatrix.compute(FeatureRows.fromNodes(svmProb.x), svmParam);
+  }
+
+  /**
+   * Returns true if the engine trains the parameter by a precomputed kernel.
+   * Only the SMO engine does, as the PRECOMPUTED format of libsvm holds
+   * every kernel value of a row in a heap svm_node.
+   */
+  public static boolean supportsPrecomputed(svm_parameter svmParam,
+      Engine engine) {
+    return (engine == Engine.SMO)
+        && (svmParam.svm_type == svm_parameter.C_SVC);
+  }
+
+  private static boolean usePrecomputed(svm_problem svmProb,
+      svm_parameter svmParam, Engine engine, GramMatrix gram) {
+    if (gram == null) {
+      return false;
+    }
+    if (!supportsPrecomputed(svmParam, engine)) {
+      LOG.warn("Precomputed kernel requires the SMO engine and C-SVC,"
+          + " using the kernel of the parameter");
+      return false;
+    }
+    setDefaultGamma(svmProb, svmParam);
+    if ((gram.getRows() != svmProb.l) || (!gram.matches(svmParam))) {
+      LOG.error("GramMatrix does not match the problem and parameter");
+      return false;
+    }
+    return true;
+  }
+
+  // set gamma to default 1/num_features if not specified
+  private static void setDefaultGamma(svm_problem svmProb,
+      svm_parameter svmParam) {
+    if (svmParam.gamma == Double.MIN_VALUE) {
+      svmParam.gamma = 1 / (double) svmProb.l;
+    }
+  }
+
+  private static boolean useSMO(svm_parameter svmParam, Engine engine) {
+    if (engine != Engine.SMO) {
+      return false;
+    }
+    if (!SMOTrainer.isSupported(svmParam)) {
+      LOG.warn("SMO engine does not support svm_type " + svmParam.svm_type
+          + " with kernel_type " + svmParam.kernel_type + ", using libsvm");
+      return false;
+    }
+    return true;
+  }
+
   public static double crossValidate(svm_problem svmProb,
       svm_parameter svmParam, int nFold) {
     return crossValidate(svmProb, svmParam, nFold, false);
@@ -180,15 +569,160 @@ public class SVM {
 
   public static double crossValidate(svm_problem svmProb,
       svm_parameter svmParam, int nFold, boolean printStats) {
+    return crossValidate(svmProb, svmParam, nFold, printStats, Engine.LIBSVM);
+  }
 
-    // set gamma to default 1/num_features if not specified
-    if (svmParam.gamma == Double.MIN_VALUE) {
-      svmParam.gamma = 1 / (double) svmProb.l;
+  public static double crossValidate(svm_problem svmProb,
+      svm_parameter svmParam, int nFold, boolean printStats, Engine engine) {
+    return crossValidate(svmProb, svmParam, nFold, printStats, engine, null);
+  }
+
+  public static double crossValidate(svm_problem svmProb,
+      svm_parameter svmParam, int nFold, boolean printStats, Engine engine,
+      GramMatrix gram) {
+    return crossValidate(svmProb, svmParam, nFold, printStats, engine, gram,
+        LinearTrainer.Loss.L2);
+  }
+
+  /**
+   * Runs a cross validation by the precomputed kernel of the Gram matrix,
+   * unless it is null or the engine is not SMO. Linear C-SVC problems are
+   * always trained by {@link LinearTrainer} with the loss.
+   */
+  public static double crossValidate(svm_problem svmProb,
+      svm_parameter svmParam, int nFold, boolean printStats, Engine engine,
+      GramMatrix gram, LinearTrainer.Loss loss) {
+    setDefaultGamma(svmProb, svmParam);
+
+    double[] target = new double[svmProb.l];
+    if (LinearTrainer.isSupported(svmParam)) {
+      LinearTrainer.crossValidation(svmProb, svmParam, loss, nFold, target);
+    } else if (usePrecomputed(svmProb, svmParam, engine, gram)) {
+      SMOTrainer.crossValidation(svmProb, svmParam, gram, nFold, target);
+    } else if (useSMO(svmParam, engine)) {
+      SMOTrainer.crossValidation(svmProb, svmParam, nFold, target);
+    } else {
+      svm.svm_cross_validation(svmProb, svmParam, nFold, target);
     }
+    return getAccuracy(svmProb, target, printStats);
+  }
 
+  /**
+   * Runs a cross validation of a linear model of the rows mapped by the
+   * feature map.
+   */
+  public static double crossValidate(svm_problem svmProb,
+      svm_parameter svmParam, int nFold, boolean printStats,
+      FeatureMap featureMap, LinearTrainer.Loss loss) {
     double[] target = new double[svmProb.l];
-    svm.svm_cross_validation(svmProb, svmParam, nFold, target);
+    LinearTrainer.crossValidation(svmProb, svmParam, featureMap, loss, nFold,
+        target);
+    return getAccuracy(svmProb, target, printStats);
+  }
+
+  /**
+   * Trains a model without the internal cross validation of probability
+   * estimates on all but a stratified held-out fraction of the rows, and
+   * fits its sigmoids to the decision values of the held-out rows. A null
+   * feature map trains by the engine.
+   */
+  public static svm_model trainCalibrated(svm_problem svmProb,
+      svm_parameter svmParam, Engine engine, FeatureMap featureMap,
+      LinearTrainer.Loss loss, double holdoutFraction) {
+    setDefaultGamma(svmProb, svmParam);
+    int[][] split = ProbabilityCalibration.split(svmProb, holdoutFraction);
+    svm_model svmModel = trainUncalibrated(svmProb, split[0], svmParam,
+        engine, null, featureMap, loss);
+
+    int[] holdout = split[1];
+    int count = ProbabilityCalibration.getDecisionValueCount(svmModel);
+    double[] y = new double[holdout.length];
+    double[][] decValues = new double[holdout.length][count];
+    for (int i = 0; i < holdout.length; i++) {
+      y[i] = svmProb.y[holdout[i]];
+      ProbabilityCalibration.decisionValues(svmModel, svmModel,
+          svmProb.x[holdout[i]], decValues[i]);
+    }
+    ProbabilityCalibration.fit(svmModel, y, decValues);
+    svmModel.param = svmParam;
+    return svmModel;
+  }
 
+  /**
+   * Runs a cross validation of models without probability estimates, and
+   * fits the sigmoids of the model, which is trained on all rows, to the
+   * out-of-fold decision values. A null feature map trains by the engine,
+   * by the precomputed kernel of the Gram matrix unless it is null.
+   */
+  public static double crossValidate(svm_problem svmProb,
+      svm_parameter svmParam, int nFold, boolean printStats, Engine engine,
+      GramMatrix gram, FeatureMap featureMap, LinearTrainer.Loss loss,
+      svm_model svmModel) {
+    setDefaultGamma(svmProb, svmParam);
+
+    int l = svmProb.l;
+    int count = ProbabilityCalibration.getDecisionValueCount(svmModel);
+    double[] target = new double[l];
+    double[][] decValues = new double[l][count];
+    boolean[] inFold = new boolean[l];
+    for (List<Integer> fold : SMOTrainer.getFolds(svmProb, nFold)) {
+      if (fold.isEmpty()) {
+        continue;
+      }
+      for (int row : fold) {
+        inFold[row] = true;
+      }
+      int[] trainRows = new int[l - fold.size()];
+      int k = 0;
+      for (int i = 0; i < l; i++) {
+        if (!inFold[i]) {
+          trainRows[k++] = i;
+        }
+      }
+
+      svm_model foldModel = trainUncalibrated(svmProb, trainRows, svmParam,
+          engine, gram, featureMap, loss);
+      for (int row : fold) {
+        target[row] = predict(foldModel, svmProb.x[row]);
+        ProbabilityCalibration.decisionValues(foldModel, svmModel,
+            svmProb.x[row], decValues[row]);
+        inFold[row] = false;
+      }
+    }
+
+    ProbabilityCalibration.fit(svmModel, svmProb.y, decValues);
+    svmModel.param = svmParam;
+    return getAccuracy(svmProb, target, printStats);
+  }
+
+  // the Gram matrix holds the kernel of all rows of the problem
+  private static svm_model trainUncalibrated(svm_problem svmProb,
+      int[] rows, svm_parameter svmParam, Engine engine, GramMatrix gram,
+      FeatureMap featureMap, LinearTrainer.Loss loss) {
+    svm_parameter param = (svm_parameter) svmParam.clone();
+    param.probability = 0;
+    if (featureMap != null) {
+      return train(ProbabilityCalibration.getProblem(svmProb, rows), param,
+          featureMap, loss);
+    }
+    if (!LinearTrainer.isSupported(param)) {
+      if (usePrecomputed(svmProb, param, engine, gram)) {
+        return trainPrecomputed(svmProb, param, gram, rows);
+      }
+      if (useSMO(param, engine)) {
+        // the folds share the feature rows and cached kernel rows of the
+        // whole problem
+        setDefaultGamma(svmProb, param);
+        return SMOTrainer.train(svmProb, KernelRowCache.getInstance()
+            .getKernel(svmProb, param), rows, param);
+      }
+    }
+    return train(ProbabilityCalibration.getProblem(svmProb, rows), param,
+        engine, null, loss);
+  }
+
+  private static double getAccuracy(svm_problem svmProb, double[] target,
+      boolean printStats) {
     double correctCounter = 0;
     for (int i = 0; i < svmProb.l; i++) {
       if (target[i] == svmProb.y[i]) {
@@ -225,64 +759,147 @@ public class SVM {
     paramterSearch(svmProb, svmParam, c, gamma);
   }
 
-  private static class FindParameterCallable implements Callable<double[]> {
+  private static class FindParameterCallable implements
+      Callable<List<double[]>> {
     private svm_problem m_svmProb;
     private svm_parameter m_svmParam;
+    private Engine m_engine;
     private long m_i;
     private long m_j;
 
     public FindParameterCallable(svm_problem svmProb, svm_parameter svmParam,
-        long i, long j) {
+        Engine engine, long i, long j) {
       m_svmProb = svmProb;
       m_svmParam = svmParam;
+      m_engine = engine;
       m_i = i;
       m_j = j;
     }
 
     @Override
-    public double[] call() throws Exception {
+    public List<double[]> call() throws Exception {
       long startTime = System.currentTimeMillis();
-      double accuracy = crossValidate(m_svmProb, m_svmParam, 10);
+      double accuracy = crossValidate(m_svmProb, m_svmParam, 10, false,
+          m_engine);
       long estimatedTime = System.currentTimeMillis() - startTime;
-      return new double[] { m_i, m_j, accuracy, m_svmParam.C, m_svmParam.gamma,
-          estimatedTime };
+      return Collections.singletonList(new double[] { m_i, m_j, accuracy,
+          m_svmParam.C, m_svmParam.gamma, estimatedTime });
+    }
+  }
+
+  /**
+   * Runs the cross validations of all C values of one gamma by the SMO
+   * engine in increasing order of C on the same folds. Every fold starts
+   * from the alphas of the same fold of the previous C, which are feasible
+   * for a larger C, and the folds of the first C from the previous fold.
+   */
+  private static class SeededParameterCallable implements
+      Callable<List<double[]>> {
+    private svm_problem m_svmProb;
+    private svm_parameter m_svmParam;
+    private double[] m_c;
+    private long m_j;
+
+    public SeededParameterCallable(svm_problem svmProb,
+        svm_parameter svmParam, double[] c, long j) {
+      m_svmProb = svmProb;
+      m_svmParam = svmParam;
+      m_c = c;
+      m_j = j;
+    }
+
+    @Override
+    public List<double[]> call() throws Exception {
+      Integer[] order = new Integer[m_c.length];
+      for (int i = 0; i < m_c.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          return Double.compare(m_c[a], m_c[b]);
+        }
+      });
+
+      List<List<Integer>> folds = SMOTrainer.getFolds(m_svmProb, 10);
+      AlphaSeed[] seeds = new AlphaSeed[folds.size()];
+      double[][] results = new double[m_c.length][];
+      for (int i : order) {
+        svm_parameter param = (svm_parameter) m_svmParam.clone();
+        param.C = m_c[i];
+        long startTime = System.currentTimeMillis();
+        double[] target = new double[m_svmProb.l];
+        SMOTrainer.crossValidation(m_svmProb, param, folds, seeds, target);
+        double accuracy = getAccuracy(m_svmProb, target, false);
+        long estimatedTime = System.currentTimeMillis() - startTime;
+        results[i] = new double[] { i, m_j, accuracy, param.C, param.gamma,
+            estimatedTime };
+      }
+      return Arrays.asList(results);
     }
   }
 
   public static void paramterSearch(svm_problem svmProb,
       svm_parameter svmParam, double[] c, double[] gamma) {
-    int cores = Runtime.getRuntime().availableProcessors();
-    ExecutorService executorService = Executors.newFixedThreadPool(cores);
-    Set<Callable<double[]>> callables = new HashSet<Callable<double[]>>();
+    paramterSearch(svmProb, svmParam, c, gamma, Engine.LIBSVM);
+  }
 
-    for (int i = 0; i < c.length; i++) {
-      for (int j = 0; j < gamma.length; j++) {
-        svm_parameter param = (svm_parameter) svmParam.clone();
+  /**
+   * Runs a cross validation for every pair of C and gamma. The grid points
+   * are submitted gamma by gamma, so that the grid points of one gamma run
+   * together and share the cached kernel rows of the SMO engine. The SMO
+   * engine runs the C values of one gamma in one task, seeded by the alphas
+   * of the previous C. The tasks run on the pool of the
+   * {@link TrainingScheduler}, into which the trainings of the tasks fork
+   * their binary problems. The shared kernel rows are released afterwards.
+   */
+  public static void paramterSearch(svm_problem svmProb,
+      svm_parameter svmParam, double[] c, double[] gamma, Engine engine) {
+    List<Callable<List<double[]>>> callables =
+        new ArrayList<Callable<List<double[]>>>();
+    boolean seeded = (!LinearTrainer.isSupported(svmParam))
+        && useSMO(svmParam, engine);
+
+    for (int j = 0; j < gamma.length; j++) {
+      svm_parameter gammaParam = (svm_parameter) svmParam.clone();
+      gammaParam.gamma = gamma[j];
+      if (seeded) {
+        callables.add(new SeededParameterCallable(svmProb, gammaParam, c, j));
+        continue;
+      }
+      for (int i = 0; i < c.length; i++) {
+        svm_parameter param = (svm_parameter) gammaParam.clone();
         param.C = c[i];
-        param.gamma = gamma[j];
-        callables.add(new FindParameterCallable(svmProb, param, i, j));
+        callables.add(new FindParameterCallable(svmProb, param, engine, i, j));
       }
     }
 
+    // equal costs keep the tasks in the order of gamma
+    double[] costs = new double[callables.size()];
+    Arrays.fill(costs, 1);
+
     try {
       long startTime = System.currentTimeMillis();
-      List<Future<double[]>> futures = executorService.invokeAll(callables);
-      for (Future<double[]> future : futures) {
-        double[] result = future.get();
-        LOG.info("findParamters[" + result[0] + "," + result[1] + "] C="
-            + result[3] + " gamma=" + result[4] + " accuracy: " + result[2]
-            + " time: " + result[5] + " ms");
+      List<double[]> results = new ArrayList<double[]>();
+      for (List<double[]> taskResults : TrainingScheduler.getInstance()
+          .invokeAll(callables, costs)) {
+        for (double[] result : taskResults) {
+          LOG.info("findParamters[" + result[0] + "," + result[1] + "] C="
+              + result[3] + " gamma=" + result[4] + " accuracy: " + result[2]
+              + " time: " + result[5] + " ms");
+          results.add(result);
+        }
       }
       long estimatedTime = System.currentTimeMillis() - startTime;
       LOG.info("findParamters total execution time: " + estimatedTime
           + " ms - " + (estimatedTime / 1000) + " sec");
+      LOG.info(KernelRowCache.getInstance().toString());
 
       // output CSV file
       LOG.info("CSV file of paramterSearch with C=" + Arrays.toString(c)
           + " gamma=" + Arrays.toString(gamma));
       LOG.info("i;j;C;gamma;accuracy;time_ms");
-      for (Future<double[]> future : futures) {
-        double[] result = future.get();
+      for (double[] result : results) {
         LOG.info(result[0] + ";" + result[1] + ";" + result[3] + ";"
             + result[4] + ";" + result[2] + ";" + result[5]);
       }
@@ -291,9 +908,9 @@ public class SVM {
       LOG.error("InterruptedException: " + e.getMessage());
     } catch (ExecutionException e) {
       LOG.error("ExecutionException: " + e.getMessage());
+    } finally {
+      KernelRowCache.getInstance().clear();
     }
-
-    executorService.shutdown();
   }
 
   public static svm_node[] getFeatureNodes(Map<Integer, Double> featureVector) {
@@ -309,23 +926,132 @@ public class SVM {
     return nodes;
   }
 
+  public static svm_node[] getFeatureNodes(SparseVector featureVector) {
+    int[] indices = featureVector.getIndices();
+    svm_node[] nodes = new svm_node[indices.length];
+    for (int i = 0; i < indices.length; i++) {
+      svm_node node = new svm_node();
+      node.index = indices[i];
+      node.value = featureVector.getValue(i);
+      nodes[i] = node;
+    }
+    return nodes;
+  }
+
+  /**
+   * Returns the nodes of the non-zero columns of a dense matrix row.
+   */
+  public static svm_node[] getFeatureNodes(DenseMatrix matrix, int row) {
+    int offset = matrix.getOffset(row);
+    int end = offset + matrix.getDimension();
+    int nnz = 0;
+    for (int i = offset; i < end; i++) {
+      if (matrix.getValue(i) != 0) {
+        nnz++;
+      }
+    }
+    svm_node[] nodes = new svm_node[nnz];
+    int j = 0;
+    for (int i = offset; i < end; i++) {
+      double value = matrix.getValue(i);
+      if (value != 0) {
+        svm_node node = new svm_node();
+        node.index = matrix.getFirstIndex() + (i - offset);
+        node.value = value;
+        nodes[j++] = node;
+      }
+    }
+    return nodes;
+  }
+
+  /**
+   * Returns one reusable node per column of the matrix.
+   */
+  private static svm_node[] createColumnNodes(DenseMatrix matrix) {
+    svm_node[] columnNodes = new svm_node[matrix.getDimension()];
+    for (int i = 0; i < columnNodes.length; i++) {
+      columnNodes[i] = new svm_node();
+      columnNodes[i].index = matrix.getFirstIndex() + i;
+    }
+    return columnNodes;
+  }
+
+  /**
+   * Returns the reused column nodes of the non-zero columns of a row. The
+   * nodes are only valid until the next call.
+   */
+  private static svm_node[] getFeatureNodes(DenseMatrix matrix, int row,
+      svm_node[] columnNodes) {
+    int offset = matrix.getOffset(row);
+    int nnz = 0;
+    for (int i = 0; i < columnNodes.length; i++) {
+      if (matrix.getValue(offset + i) != 0) {
+        nnz++;
+      }
+    }
+    svm_node[] nodes = new svm_node[nnz];
+    int j = 0;
+    for (int i = 0; i < columnNodes.length; i++) {
+      double value = matrix.getValue(offset + i);
+      if (value != 0) {
+        columnNodes[i].value = value;
+        nodes[j++] = columnNodes[i];
+      }
+    }
+    return nodes;
+  }
+
+  /**
+   * Returns the label of the nodes predicted by the model, which is a libsvm
+   * model or a {@link LinearModel}.
+   */
+  public static double predict(svm_model svmModel, svm_node[] nodes) {
+    if (svmModel instanceof LinearModel) {
+      return ((LinearModel) svmModel).predict(nodes);
+    }
+    return svm.svm_predict(svmModel, nodes);
+  }
+
+  public static double predictProbability(svm_model svmModel,
+      svm_node[] nodes, double[] probEstimates) {
+    if (svmModel instanceof LinearModel) {
+      return ((LinearModel) svmModel).predictProbability(nodes,
+          probEstimates);
+    }
+    return svm.svm_predict_probability(svmModel, nodes, probEstimates);
+  }
+
   public static double evaluate(Map<Integer, Double> featureVector,
       svm_model svmModel) {
 
     svm_node[] nodes = getFeatureNodes(featureVector);
-    return svm.svm_predict(svmModel, nodes);
+    return predict(svmModel, nodes);
+  }
+
+  public static double evaluate(SparseVector featureVector,
+      svm_model svmModel) {
+    svm_node[] nodes = getFeatureNodes(featureVector);
+    return predict(svmModel, nodes);
   }
 
   public static Pair<Double, Map<Integer, Double>> evaluate(
       Map<Integer, Double> featureVector, svm_model svmModel, int totalClasses) {
+    return evaluate(getFeatureNodes(featureVector), svmModel, totalClasses);
+  }
+
+  public static Pair<Double, Map<Integer, Double>> evaluate(
+      SparseVector featureVector, svm_model svmModel, int totalClasses) {
+    return evaluate(getFeatureNodes(featureVector), svmModel, totalClasses);
+  }
+
+  private static Pair<Double, Map<Integer, Double>> evaluate(
+      svm_node[] nodes, svm_model svmModel, int totalClasses) {
 
     int[] labels = new int[totalClasses];
     svm.svm_get_labels(svmModel, labels);
 
-    svm_node[] nodes = getFeatureNodes(featureVector);
-
     double[] probEstimates = new double[totalClasses];
-    double predictedClassProb = svm.svm_predict_probability(svmModel, nodes,
+    double predictedClassProb = predictProbability(svmModel, nodes,
         probEstimates);
 
     Map<Integer, Double> predictedClassProbabilites = new TreeMap<Integer, Double>();
@@ -357,6 +1083,10 @@ public class SVM {
     // cols represent the instances in a predicted class
     int[][] confusionMatrix = new int[maxClassNum][maxClassNum];
     for (int i = 0; i < actualClass.length; i++) {
+      // rows of failed folds are not predicted
+      if (Double.isNaN(predictedClass[i])) {
+        continue;
+      }
       confusionMatrix[(int) actualClass[i]][(int) predictedClass[i]]++;
     }
     return confusionMatrix;
@@ -443,18 +1173,232 @@ public class SVM {
     // (In this set-up, precision, recall, and F1 are all the same.)
   }
 
+  /**
+   * Evaluates all test rows of the dataset and stores the predicted classes
+   * and probabilities in its test table. Features are read from the rows of
+   * the test matrix, store or items, depending on the mode of the dataset.
+   */
+  public static ItemTable evaluate(Dataset dataset, svm_model svmModel) {
+    ItemTable table = dataset.getTestTable();
+    if (table == null) {
+      LOG.error("TestItems are not available");
+      return null;
+    }
+    int[] labels = new int[svm.svm_get_nr_class(svmModel)];
+    svm.svm_get_labels(svmModel, labels);
+    table.setClassLabels(labels);
+    int[] columns = table.getColumns(labels);
+    double[] probEstimates = new double[labels.length];
+
+    if (dataset.isOffHeap()) {
+      FeatureStore store = dataset.getTestStore();
+      if (store == null) {
+        LOG.error("FeatureStore of TestItems is not available");
+        return null;
+      }
+      for (int row = 0; row < table.getRows(); row++) {
+        evaluate(getFeatureNodes(store.getFeatureVector(row)), svmModel,
+            table, row, columns, probEstimates);
+      }
+    } else if (dataset.isDense()) {
+      DenseMatrix matrix = dataset.getTestMatrix();
+      svm_node[] columnNodes = createColumnNodes(matrix);
+      for (int row = 0; row < table.getRows(); row++) {
+        evaluate(getFeatureNodes(matrix, row, columnNodes), svmModel, table,
+            row, columns, probEstimates);
+      }
+    } else {
+      List<Item> items = dataset.getTestItems();
+      for (int row = 0; row < table.getRows(); row++) {
+        evaluate(getFeatureNodes(items.get(row).getFeatureVector()),
+            svmModel, table, row, columns, probEstimates);
+      }
+    }
+    return table;
+  }
+
+  private static void evaluate(svm_node[] nodes, svm_model svmModel,
+      ItemTable table, int row, int[] columns, double[] probEstimates) {
+    double predictedClass = predictProbability(svmModel, nodes,
+        probEstimates);
+    table.setPredictedClass(row, (int) predictedClass);
+
+    // reorder probabilities from model labels to table columns
+    double[] probabilities = table.getProbabilities();
+    int offset = table.getOffset(row);
+    for (int i = 0; i < columns.length; i++) {
+      probabilities[offset + columns[i]] = probEstimates[i];
+    }
+  }
+
+  private static void printEvaluation(long totalItems, long countMatches,
+      int[][] confusionMatrix) {
+    LOG.info("Total test items: " + totalItems);
+    if (countMatches > 0) {
+      LOG.info("Matches: " + countMatches);
+      double accuracy = (double) countMatches / (double) totalItems;
+      LOG.info("Accuracy: " + accuracy);
+      printStats(confusionMatrix);
+    }
+  }
+
+  /**
+   * Streams the test items of the dataset, evaluates them in parallel batches
+   * and writes the submission file while iterating. Only one batch of items
+   * is held in memory at a time.
+   */
+  public static void evaluateAndWrite(Dataset dataset, svm_model svmModel,
+      int totalClasses) {
+    LOG.info("Evaluate and write streamed test items...");
+    long startTime = System.currentTimeMillis();
+
+    PredictionIterator predictions = new PredictionIterator(
+        dataset.getTestItemIterator(), svmModel, totalClasses);
+    FileUtils.writeItems(getSubmissionFile(dataset), dataset, predictions,
+        true);
+
+    LOG.info("Evaluate finished after "
+        + (System.currentTimeMillis() - startTime) + " ms");
+    printEvaluation(predictions.getTotalItems(), predictions.getMatches(),
+        predictions.getConfusionMatrix());
+  }
+
+  public static String getSubmissionFile(Dataset dataset) {
+    return dataset.getDatasetPath() + File.separator + SUBMISSION_FILE;
+  }
+
+  private static class PredictionIterator implements Iterator<Item> {
+    private static final int BATCH_SIZE = 4096;
+    private final Iterator<Item> m_items;
+    private final svm_model m_svmModel;
+    private final int m_totalClasses;
+    private final List<Item> m_batch = new ArrayList<Item>(BATCH_SIZE);
+    private int m_batchPos = 0;
+
+    private long m_totalItems = 0;
+    private long m_matches = 0;
+    private final int[][] m_confusionMatrix;
+
+    public PredictionIterator(Iterator<Item> items, svm_model svmModel,
+        int totalClasses) {
+      m_items = items;
+      m_svmModel = svmModel;
+      m_totalClasses = totalClasses;
+      m_confusionMatrix = new int[totalClasses][totalClasses];
+    }
+
+    private void nextBatch() {
+      m_batch.clear();
+      m_batchPos = 0;
+      while ((m_batch.size() < BATCH_SIZE) && (m_items.hasNext())) {
+        m_batch.add(m_items.next());
+      }
+      // evaluate batch in parallel, confusion matrix is updated in order
+      m_batch.parallelStream().forEach(new Consumer<Item>() {
+        @Override
+        public void accept(Item item) {
+          Pair<Double, Map<Integer, Double>> result = evaluate(
+              item.getFeatureVector(), m_svmModel, m_totalClasses);
+          item.setPredictedClass(result.getKey().intValue());
+          item.setPredictedClassProbabilities(result.getValue());
+        }
+      });
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (m_batchPos == m_batch.size()) {
+        nextBatch();
+      }
+      return m_batchPos < m_batch.size();
+    }
+
+    @Override
+    public Item next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Item item = m_batch.get(m_batchPos);
+      m_batch.set(m_batchPos, null);
+      m_batchPos++;
+
+      m_totalItems++;
+      if (item.getActualClass() != null) {
+        int actualClass = item.getActualClass();
+        int predictedClass = item.getPredictedClass();
+        m_confusionMatrix[actualClass][predictedClass]++;
+        if (predictedClass == actualClass) {
+          m_matches++;
+        }
+      }
+      return item;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    public long getTotalItems() {
+      return m_totalItems;
+    }
+
+    public long getMatches() {
+      return m_matches;
+    }
+
+    public int[][] getConfusionMatrix() {
+      return m_confusionMatrix;
+    }
+  }
+
+  /**
+   * Trains, evaluates and optionally searches the parameters of the SVM of
+   * the dataset. The shared kernel rows are released afterwards.
+   */
   public static void svm(Dataset dataset, int totalClasses,
       int nFoldCrossValidation, boolean parameterSearch,
       boolean useSerialization) {
+    if (dataset.getKernelCacheSize() != null) {
+      KernelRowCache.getInstance().setCapacity(
+          (long) dataset.getKernelCacheSize() << 20);
+    }
+    try {
+      runSVM(dataset, totalClasses, nFoldCrossValidation, parameterSearch,
+          useSerialization);
+    } finally {
+      KernelRowCache.getInstance().clear();
+    }
+  }
+
+  private static void runSVM(Dataset dataset, int totalClasses,
+      int nFoldCrossValidation, boolean parameterSearch,
+      boolean useSerialization) {
 
-    List<Item> trainItems = dataset.getTrainItems();
-    List<Item> testItems = dataset.getTestItems();
     svm_parameter svmParam = dataset.getSVMParam();
+    if (dataset.getTrainingThreads() != null) {
+      TrainingScheduler.getInstance().setThreads(
+          dataset.getTrainingThreads());
+    }
+
+    // calibrate probability estimates outside of the training
+    ProbabilityCalibration.Method calibration = (svmParam.probability == 1)
+        ? dataset.getCalibration() : ProbabilityCalibration.Method.INTERNAL;
+    if ((calibration == ProbabilityCalibration.Method.CROSS_VALIDATION)
+        && (nFoldCrossValidation <= 1)) {
+      LOG.warn("Calibration by cross validation requires n-fold cross "
+          + "validation, using a held-out split");
+      calibration = ProbabilityCalibration.Method.HOLDOUT;
+    }
 
     // Optional parameter search of C and gamma
     if (parameterSearch) {
       LOG.info("Generate SVM problem...");
-      svm_problem svmProb = generateProblem(trainItems);
+      svm_problem svmProb = dataset.getSVMProblem();
+      if (svmProb == null) {
+        LOG.error("SVM problem could not be generated");
+        return;
+      }
 
       // 1) coarse grained paramter search
       // coarseGrainedParamterSearch(svmProb, svmParam);
@@ -473,89 +1417,155 @@ public class SVM {
 
       LOG.info("SVM paramterSearch...");
       LOG.info("Kernel: " + svmParam.kernel_type);
-      paramterSearch(svmProb, svmParam, c, gamma);
+      paramterSearch(svmProb, svmParam, c, gamma, dataset.getSVMEngine());
 
     } else {
 
       svm_model svmModel = null;
+      String modelFile = dataset.getDatasetPath() + File.separator
+          + SVM_MODEL_FILE_SER;
+      // time of the last training, 0 if the model is not serialized
+      long modelTime = new File(modelFile).lastModified();
       LOG.info("Try loading SVM model...");
       // deserialize svmModel
       if (useSerialization) {
-        svmModel = SerializationUtils.deserialize(dataset.getDatasetPath()
-            + File.separator + SVM_MODEL_FILE_SER);
+        svmModel = SerializationUtils.deserialize(modelFile);
       }
 
       if (svmModel == null) {
         LOG.info("Generate SVM problem...");
-        svm_problem svmProb = generateProblem(trainItems);
+        svm_problem svmProb = dataset.getSVMProblem();
+        if (svmProb == null) {
+          LOG.error("SVM problem could not be generated");
+          return;
+        }
 
-        // save svm problem in libSVM format
-        saveProblem(svmProb, dataset.getDatasetPath() + File.separator
-            + SVM_PROBLEM_FILE);
+        // save svm problem in libSVM format while training
+        String problemFile = dataset.getDatasetPath() + File.separator
+            + SVM_PROBLEM_FILE;
+        Future<Void> saveProblem = saveProblemAsync(svmProb, problemFile);
 
         // train model
         LOG.info("Train SVM model...");
         long startTime = System.currentTimeMillis();
-        svmModel = train(svmProb, svmParam);
+        GramMatrix gram = null;
+        FeatureMap featureMap = null;
+        if (!LinearTrainer.isSupported(svmParam)) {
+          if (dataset.getFeatureMapType() != null) {
+            featureMap = computeFeatureMap(svmProb, svmParam,
+                dataset.getFeatureMapType(), dataset.getFeatureMapDimension());
+          } else if (dataset.isPrecomputedKernel()
+              && (dataset.getCascadeShards() == null)
+              && (calibration != ProbabilityCalibration.Method.HOLDOUT)) {
+            if (supportsPrecomputed(svmParam, dataset.getSVMEngine())) {
+              gram = computeGramMatrix(svmProb, svmParam);
+            } else {
+              LOG.warn("svm.precomputed requires svm.engine smo and C-SVC,"
+                  + " training by the kernel");
+            }
+          }
+        }
+        svm_parameter trainParam = svmParam;
+        if (calibration != ProbabilityCalibration.Method.INTERNAL) {
+          trainParam = (svm_parameter) svmParam.clone();
+          trainParam.probability = 0;
+        }
+        if ((dataset.getCascadeShards() != null) && (featureMap == null)) {
+          // calibrated by a held-out split unless by the cross validation
+          svmModel = trainCascade(svmProb,
+              (calibration == ProbabilityCalibration.Method.CROSS_VALIDATION)
+                  ? trainParam : svmParam, dataset.getCascadeShards(),
+              dataset.getCascadeFeedback());
+        } else if (calibration == ProbabilityCalibration.Method.HOLDOUT) {
+          svmModel = trainCalibrated(svmProb, svmParam,
+              dataset.getSVMEngine(), featureMap, dataset.getLinearLoss(),
+              dataset.getHoldoutFraction());
+        } else if (featureMap != null) {
+          svmModel = train(svmProb, trainParam, featureMap,
+              dataset.getLinearLoss());
+        } else {
+          svmModel = train(svmProb, trainParam, dataset.getSVMEngine(), gram,
+              dataset.getLinearLoss());
+        }
         LOG.info("Train SVM model finished after "
             + (System.currentTimeMillis() - startTime) + " ms");
 
-        // serialize svm model
-        if (useSerialization) {
-          SerializationUtils.serialize(svmModel, dataset.getDatasetPath()
-              + File.separator + SVM_MODEL_FILE_SER);
+        try {
+          saveProblem.get();
+          LOG.info("saved svm_problem in " + problemFile);
+        } catch (InterruptedException e) {
+          LOG.error("InterruptedException: " + e.getMessage());
+        } catch (ExecutionException e) {
+          LOG.error("ExecutionException: " + e.getMessage());
         }
 
         // run n-fold cross validation
         if (nFoldCrossValidation > 1) {
           LOG.info("Run n-fold cross validation...");
           startTime = System.currentTimeMillis();
-          double accuracy = crossValidate(svmProb, svmParam,
-              nFoldCrossValidation, true);
+          double accuracy;
+          if (calibration == ProbabilityCalibration.Method.CROSS_VALIDATION) {
+            // fit the sigmoids of the model to the out-of-fold values
+            accuracy = crossValidate(svmProb, svmParam, nFoldCrossValidation,
+                true, dataset.getSVMEngine(), gram, featureMap,
+                dataset.getLinearLoss(), svmModel);
+          } else if (featureMap != null) {
+            accuracy = crossValidate(svmProb, svmParam, nFoldCrossValidation,
+                true, featureMap, dataset.getLinearLoss());
+          } else {
+            accuracy = crossValidate(svmProb, svmParam, nFoldCrossValidation,
+                true, dataset.getSVMEngine(), gram, dataset.getLinearLoss());
+          }
           LOG.info("Cross Validation finished after "
               + (System.currentTimeMillis() - startTime) + " ms");
           LOG.info("Cross Validation Accurancy: " + accuracy);
         }
-      }
-
-      // evaluate test items
-      long countMatches = 0;
-      int[][] confusionMatrix = new int[totalClasses][totalClasses];
-      LOG.info("Evaluate test items...");
 
-      long startTime = System.currentTimeMillis();
-      for (Item testItem : testItems) {
-        Map<Integer, Double> featureVector = testItem.getFeatureVector();
-
-        Pair<Double, Map<Integer, Double>> result = evaluate(featureVector,
-            svmModel, totalClasses);
-
-        int predictedClass = result.getKey().intValue();
-
-        testItem.setPredictedClass(predictedClass);
-        testItem.setPredictedClassProbabilities(result.getValue());
+        // serialize svm model
+        if (useSerialization) {
+          SerializationUtils.serialize(svmModel, modelFile);
+        }
+      }
 
-        if (testItem.getActualClass() != null) {
-          int actualClass = testItem.getActualClass();
-          if (predictedClass == actualClass) {
-            countMatches++;
+      // add the new rows, which arrived after the last training
+      String incrementalFile = dataset.getIncrementalDataFile();
+      if ((incrementalFile != null)
+          && (new File(incrementalFile).lastModified() > modelTime)) {
+        LOG.info("Train SVM model incrementally...");
+        long startTime = System.currentTimeMillis();
+        svm_model incrementalModel = trainIncremental(svmModel,
+            dataset.getIncrementalItems(), calibration, nFoldCrossValidation,
+            dataset.getHoldoutFraction());
+        if (incrementalModel != null) {
+          svmModel = incrementalModel;
+          LOG.info("Train SVM model incrementally finished after "
+              + (System.currentTimeMillis() - startTime) + " ms");
+          if (useSerialization) {
+            SerializationUtils.serialize(svmModel, modelFile);
           }
-          confusionMatrix[actualClass][(int) predictedClass]++;
         }
       }
 
-      // update test items in dataset
-      dataset.setTestItems(testItems);
+      // evaluate test items
+      if (dataset.isStreamTestItems()) {
+        evaluateAndWrite(dataset, svmModel, totalClasses);
+        svm.EXEC_SERV.shutdown();
+        return;
+      }
+
+      LOG.info("Evaluate test items...");
+      long startTime = System.currentTimeMillis();
+      ItemTable testTable = evaluate(dataset, svmModel);
+      if (testTable == null) {
+        return;
+      }
+      int[][] confusionMatrix = new int[totalClasses][totalClasses];
+      testTable.addConfusionMatrix(confusionMatrix);
 
       LOG.info("Evaluate finished after "
           + (System.currentTimeMillis() - startTime) + " ms");
-      LOG.info("Total test items: " + testItems.size());
-      if (countMatches > 0) {
-        LOG.info("Matches: " + countMatches);
-        double accuracy = (double) countMatches / (double) testItems.size();
-        LOG.info("Accuracy: " + accuracy);
-        printStats(confusionMatrix);
-      }
+      printEvaluation(testTable.getRows(), testTable.countMatches(),
+          confusionMatrix);
 
       svm.EXEC_SERV.shutdown();
     }
@@ -572,8 +1582,10 @@ public class SVM {
 
     SVM.svm(dataset, 9, nFoldCrossValidation, parameterSearch, useSerialization);
 
-    FileUtils.writeItems(dataset.getDatasetPath() + File.separator
-        + "submission.csv", dataset);
+    // streamed test items are already written by svm
+    if (!dataset.isStreamTestItems()) {
+      FileUtils.writeItems(getSubmissionFile(dataset), dataset, true);
+    }
   }
 
 }
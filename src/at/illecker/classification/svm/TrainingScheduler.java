@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.illecker.classification.svm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scheduler of the independent sub-problems of a training on a fixed number
+ * of threads. Tasks are dispatched in the order of decreasing estimated
+ * cost (longest processing time first) onto a work-stealing pool, so that
+ * small tasks fill the gaps at the end and the wall-clock time approaches
+ * the total work divided by the threads. Tasks may fork subtasks, which idle
+ * threads steal, and tasks of nested invocations are forked into the pool of
+ * the calling task. The pool is kept for all trainings and is only replaced
+ * when the number of threads changes.
+ */
+public class TrainingScheduler {
+  private static final Logger LOG = LoggerFactory
+      .getLogger(TrainingScheduler.class);
+  private static final TrainingScheduler INSTANCE = new TrainingScheduler(
+      Runtime.getRuntime().availableProcessors());
+
+  private int m_threads;
+  // work-stealing pool of the threads, created on first use
+  private ForkJoinPool m_pool = null;
+
+  public TrainingScheduler(int threads) {
+    setThreads(threads);
+  }
+
+  public static TrainingScheduler getInstance() {
+    return INSTANCE;
+  }
+
+  public synchronized int getThreads() {
+    return m_threads;
+  }
+
+  public synchronized void setThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Threads must be positive: "
+          + threads);
+    }
+    if ((m_pool != null) && (threads != m_threads)) {
+      // running tasks complete on the old pool
+      m_pool.shutdown();
+      m_pool = null;
+    }
+    m_threads = threads;
+  }
+
+  private synchronized ForkJoinPool getPool() {
+    if (m_pool == null) {
+      // FIFO pool, external submissions are taken in order of submission
+      m_pool = new ForkJoinPool(m_threads,
+          ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+    return m_pool;
+  }
+
+  /**
+   * Runs the tasks of the estimated costs, the most expensive first, and
+   * returns their results in the order of the tasks.
+   */
+  public <T> List<T> invokeAll(List<? extends Callable<T>> tasks,
+      final double[] costs) throws InterruptedException, ExecutionException {
+    int size = tasks.size();
+    Integer[] order = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Double.compare(costs[b], costs[a]);
+      }
+    });
+
+    AtomicLong work = new AtomicLong();
+    if (ForkJoinTask.inForkJoinPool()) {
+      return fork(tasks, order, work);
+    }
+
+    // all threads, which help with the subtasks of fewer tasks
+    ForkJoinPool pool = getPool();
+    List<Future<T>> futures = new ArrayList<Future<T>>(size);
+    for (int i = 0; i < size; i++) {
+      futures.add(null);
+    }
+    long startTime = System.currentTimeMillis();
+    try {
+      for (Integer i : order) {
+        futures.set(i, pool.submit(new TimedCallable<T>(tasks.get(i),
+            work)));
+      }
+      List<T> results = new ArrayList<T>(size);
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+      long wallTime = System.currentTimeMillis() - startTime;
+      LOG.debug("Scheduled " + size + " tasks of " + work.get()
+          + " ms work in " + wallTime + " ms on " + pool.getParallelism()
+          + " threads");
+      return results;
+    } finally {
+      // tasks left after a failure are not run
+      for (Future<T> future : futures) {
+        if (future != null) {
+          future.cancel(true);
+        }
+      }
+    }
+  }
+
+  // idle threads of the pool steal the forked tasks in order of forking
+  private static <T> List<T> fork(List<? extends Callable<T>> tasks,
+      Integer[] order, AtomicLong work) throws InterruptedException,
+      ExecutionException {
+    int size = tasks.size();
+    List<ForkJoinTask<T>> forked = new ArrayList<ForkJoinTask<T>>(size);
+    for (int i = 0; i < size; i++) {
+      forked.add(null);
+    }
+    for (Integer i : order) {
+      forked.set(i, ForkJoinTask.adapt(new TimedCallable<T>(tasks.get(i),
+          work)).fork());
+    }
+    List<T> results = new ArrayList<T>(size);
+    for (ForkJoinTask<T> task : forked) {
+      results.add(task.get());
+    }
+    return results;
+  }
+
+  private static class TimedCallable<T> implements Callable<T> {
+    private Callable<T> m_task;
+    private AtomicLong m_work;
+
+    public TimedCallable(Callable<T> task, AtomicLong work) {
+      m_task = task;
+      m_work = work;
+    }
+
+    @Override
+    public T call() throws Exception {
+      long startTime = System.currentTimeMillis();
+      try {
+        return m_task.call();
+      } finally {
+        m_work.addAndGet(System.currentTimeMillis() - startTime);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "TrainingScheduler [threads=" + getThreads() + "]";
+  }
+
+}